@@ -0,0 +1,103 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The generation of the SQL of the aggregates computed by the database over the elements matched by a query and the
+ * reading of their results.
+ * <p/>
+ * The query of the ids of the matched elements, with all its filters and its limit, becomes a derived table, which is
+ * joined with the properties table to read the aggregated property. The elements without the property don't take
+ * part in the aggregates of the property. The numeric aggregates use the column the numbers are compared in
+ * ({@link PropertyStorage#intervalColumn()}) and ignore the values that aren't numbers.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+final class Aggregates {
+
+    enum Function {
+        COUNT, MIN, MAX, SUM, AVG, GROUP_COUNT
+    }
+
+    private Aggregates() {
+
+    }
+
+    /**
+     * Appends the part of the shape of a query identifying the aggregate.
+     */
+    static void appendShape(StringBuilder shape, Function function, String key) {
+        shape.append(function).append('|');
+        if (key != null) {
+            shape.append(key.length()).append(':').append(key);
+        }
+        shape.append('|');
+    }
+
+    /**
+     * Turns the query of the matched elements into the query of the aggregate of them.
+     *
+     * @param sql          the query selecting the ids of the elements as <code>id</code> and, in case of edges, their
+     *                     labels as <code>label</code>
+     * @param labelColumn  whether the key is the label of the edges rather than a property, only supported by
+     *                     {@link Function#GROUP_COUNT}
+     */
+    static void wrap(StringBuilder sql, Function function, String key, boolean labelColumn, String propsTable,
+        String propsTableFK, PropertyStorage storage) {
+        sql.insert(0, " FROM (").append(") m");
+
+        if (function == Function.COUNT) {
+            sql.insert(0, "SELECT COUNT(*)");
+        } else if (labelColumn) {
+            sql.insert(0, "SELECT m.label, COUNT(*)").append(" GROUP BY m.label");
+        } else {
+            String join = " JOIN " + propsTable + " agg ON agg." + propsTableFK + " = m.id AND agg.name = " +
+                SchemaManager.literal(key);
+
+            if (function == Function.GROUP_COUNT) {
+                String columns = "agg." + storage.valueColumns().replace(", ", ", agg.");
+                sql.insert(0, "SELECT " + columns + ", COUNT(*)").append(join).append(" GROUP BY ").append(columns);
+            } else {
+                sql.insert(0, "SELECT " + function + "(agg." + storage.intervalColumn() + ")").append(join);
+            }
+        }
+    }
+
+    /**
+     * @return the value of the numeric aggregate or null if there were no numbers to aggregate
+     */
+    static Double readNumber(PreparedStatement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) {
+                return null;
+            }
+
+            double value = rs.getDouble(1);
+            return rs.wasNull() ? null : value;
+        }
+    }
+
+    /**
+     * @return the numbers of the elements with each of the values of the grouped property or label
+     */
+    static Map<Object, Long> readGroups(PreparedStatement stmt, boolean labelColumn, PropertyStorage storage)
+        throws SQLException {
+        Map<Object, Long> ret = new LinkedHashMap<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            int countColumn = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                Object value = labelColumn ? rs.getString(1) : storage.read(rs, 1);
+                //the same value can be stored differently, e.g. a string in either of the string columns
+                Long count = ret.get(value);
+                ret.put(value, rs.getLong(countColumn) + (count == null ? 0 : count));
+            }
+        }
+
+        return ret;
+    }
+}
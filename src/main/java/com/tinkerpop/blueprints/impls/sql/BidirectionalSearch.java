@@ -0,0 +1,132 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import com.tinkerpop.blueprints.Direction;
+
+/**
+ * A breadth-first search for the shortest path between two vertices, run from both of them at once.
+ * <p/>
+ * Each step expands the smaller of the two frontiers by one hop using {@link SqlGraph#neighbors(long[], Direction,
+ * String...)}, i.e. a query per chunk of the frontier, and the search ends as soon as a vertex reached from one side
+ * has already been visited from the other one. The visited vertices are kept in primitive maps of the vertex ids to
+ * the ids of the vertex and the edge they were reached through, so no elements are ever created.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+final class BidirectionalSearch {
+
+    private static final long NONE = -1;
+
+    private final SqlGraph graph;
+    private final Direction direction;
+    private final String[] labels;
+
+    BidirectionalSearch(SqlGraph graph, Direction direction, String... labels) {
+        this.graph = graph;
+        this.direction = direction;
+        this.labels = labels;
+    }
+
+    /**
+     * @return the shortest path with at most maxDepth edges from the start vertex to the target vertex following the
+     * edges in the direction or null if there is no such path
+     */
+    Path find(long startId, long targetId, int maxDepth) {
+        if (startId == targetId) {
+            return new Path(new long[]{startId}, new long[0]);
+        }
+
+        Side forward = new Side(startId, direction);
+        Side backward = new Side(targetId, direction.opposite());
+
+        for (int depth = 0; depth < maxDepth && forward.frontier.length > 0 && backward.frontier.length > 0;
+             ++depth) {
+            boolean forwardStep = forward.frontier.length <= backward.frontier.length;
+            Side expanded = forwardStep ? forward : backward;
+            Side other = forwardStep ? backward : forward;
+
+            long meeting = expanded.expand(other);
+            if (meeting != NONE) {
+                return path(forward, backward, meeting);
+            }
+        }
+
+        return null;
+    }
+
+    private static Path path(Side forward, Side backward, long meeting) {
+        int forwardLength = forward.distanceOf(meeting);
+        int length = forwardLength + backward.distanceOf(meeting);
+
+        long[] vertexIds = new long[length + 1];
+        long[] edgeIds = new long[length];
+
+        long v = meeting;
+        for (int i = forwardLength; i > 0; --i) {
+            vertexIds[i] = v;
+            edgeIds[i - 1] = forward.parentEdges.get(v, NONE);
+            v = forward.parentVertices.get(v, NONE);
+        }
+        vertexIds[0] = v;
+
+        v = meeting;
+        for (int i = forwardLength; i < length; ++i) {
+            edgeIds[i] = backward.parentEdges.get(v, NONE);
+            v = backward.parentVertices.get(v, NONE);
+            vertexIds[i + 1] = v;
+        }
+
+        return new Path(vertexIds, edgeIds);
+    }
+
+    private final class Side {
+        final Direction direction;
+        final LongLongHashMap parentVertices = new LongLongHashMap();
+        final LongLongHashMap parentEdges = new LongLongHashMap();
+        long[] frontier;
+
+        Side(long rootId, Direction direction) {
+            this.direction = direction;
+            this.frontier = new long[]{rootId};
+            parentVertices.put(rootId, NONE);
+            parentEdges.put(rootId, NONE);
+        }
+
+        /**
+         * Replaces the frontier with the vertices not visited yet adjacent to it.
+         *
+         * @return the first reached vertex that has already been visited from the other side or {@link #NONE}
+         */
+        long expand(Side other) {
+            LongHashSet next = new LongHashSet();
+            for (Neighbor n : graph.neighbors(frontier, direction, labels)) {
+                long v = n.getTargetId();
+                if (parentVertices.containsKey(v)) {
+                    continue;
+                }
+
+                parentVertices.put(v, n.getSourceId());
+                parentEdges.put(v, n.getEdgeId());
+
+                //the vertices visited from the two sides were disjoint until now, so the meeting lies on the
+                //frontier of the other side and any meeting makes the shortest path
+                if (other.parentVertices.containsKey(v)) {
+                    return v;
+                }
+
+                next.add(v);
+            }
+
+            frontier = next.toArray();
+            return NONE;
+        }
+
+        int distanceOf(long vertexId) {
+            int ret = 0;
+            for (long v = parentVertices.get(vertexId, NONE); v != NONE; v = parentVertices.get(v, NONE)) {
+                ret++;
+            }
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+/**
+ * An immutable snapshot of the counters of one of the caches maintained by the SQL graph.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+public final class CacheStatistics {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long size;
+
+    public CacheStatistics(long hitCount, long missCount, long evictionCount, long size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.size = size;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return the number of entries in the cache at the time the snapshot was taken
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public long getRequestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * @return the ratio of hits to all requests or 1.0 if there were no requests yet
+     */
+    public double getHitRate() {
+        long requests = getRequestCount();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("CacheStatistics");
+        sb.append("[hits=").append(hitCount);
+        sb.append(", misses=").append(missCount);
+        sb.append(", evictions=").append(evictionCount);
+        sb.append(", size=").append(size);
+        sb.append(']');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,363 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A simple pool of connections for the transactions of a graph. Each pooled connection keeps its
+ * {@link Statements} so that the prepared statements survive across the transactions using the connection.
+ * <p/>
+ * The idle connections are kept in a stack so that the most recently used connections, which are the most likely to
+ * be still valid, are handed out first. The connections that were idle for too long are closed whenever a connection
+ * is borrowed or returned, as long as there are more than the minimum number of connections in the pool.
+ * <p/>
+ * The lock of the pool only guards its bookkeeping. Opening, validating and closing the connections, which all talk
+ * to the database, happen after the lock is released, so that a slow database doesn't block the threads returning
+ * their connections.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+final class ConnectionPool {
+
+    private static final long RECLAIM_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /**
+     * Returned by {@link #take(long, long)} when the caller should try to reclaim some connections before waiting
+     * again.
+     */
+    private static final PooledConnection RECLAIM = new PooledConnection(null, null);
+
+    private final SqlGraph graph;
+    private final int minSize;
+    private final int maxSize;
+    private final long maxIdleNanos;
+    private final long maxWaitNanos;
+    private final int validationTimeout;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private int size;
+    private boolean closed;
+
+    private long borrowCount;
+    private long createdCount;
+    private long destroyedCount;
+    private long totalWaitNanos;
+    private long maxObservedWaitNanos;
+
+    /**
+     * @param graph             the graph to open the connections for
+     * @param minSize           the number of connections the pool doesn't close even if they are idle for too long.
+     *                          The connections are only opened when they are needed, the pool is not filled up
+     *                          to this size upfront.
+     * @param maxSize           the maximum number of connections the pool opens
+     * @param maxIdleMillis     the time after which an idle connection is closed
+     * @param maxWaitMillis     the maximum time to wait for a connection when all of them are in use
+     * @param validationTimeout the timeout in seconds of the validation of the idle connections before they are
+     *                          borrowed, 0 to not validate the connections
+     */
+    ConnectionPool(SqlGraph graph, int minSize, int maxSize, long maxIdleMillis, long maxWaitMillis,
+        int validationTimeout) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("sql.pool.maxSize must be positive");
+        }
+        if (minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("sql.pool.minSize must be between 0 and sql.pool.maxSize");
+        }
+        if (validationTimeout < 0) {
+            throw new IllegalArgumentException("sql.pool.validationTimeout must not be negative");
+        }
+
+        this.graph = graph;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMillis);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.validationTimeout = validationTimeout;
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if there is no idle connection and the pool is not full
+     * yet. Otherwise waits for a connection to be returned.
+     *
+     * @throws SQLException if the connection could not be opened or none became available in time
+     */
+    PooledConnection borrow() throws SQLException {
+        return borrow(null);
+    }
+
+    /**
+     * Like {@link #borrow()}, but runs the provided action before taking a connection and then periodically while
+     * waiting for one, with the lock of the pool released. The action can return the connections the caller knows
+     * are no longer used but would not be returned otherwise.
+     *
+     * @param reclaim the action returning the unused connections or null
+     */
+    PooledConnection borrow(Runnable reclaim) throws SQLException {
+        long start = System.nanoTime();
+
+        while (true) {
+            if (reclaim != null) {
+                reclaim.run();
+            }
+
+            PooledConnection pc = take(start, reclaim == null ? maxWaitNanos : RECLAIM_INTERVAL_NANOS);
+            if (pc == RECLAIM) {
+                continue;
+            }
+
+            if (pc == null) {
+                return open();
+            }
+
+            if (isValid(pc)) {
+                recordBorrow(start);
+                return pc;
+            }
+
+            lock.lock();
+            try {
+                forget(pc);
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+            closeQuietly(pc);
+        }
+    }
+
+    /**
+     * Returns the connection to the pool. Any pending work on the connection is rolled back. If that fails, the
+     * connection is considered broken and closed.
+     */
+    void release(PooledConnection pc) {
+        boolean broken = false;
+        try {
+            pc.connection.rollback();
+        } catch (SQLException e) {
+            broken = true;
+        }
+
+        List<PooledConnection> closing = new ArrayList<>();
+        lock.lock();
+        try {
+            if (broken || closed) {
+                forget(pc);
+                closing.add(pc);
+            } else {
+                pc.lastUsed = System.nanoTime();
+                idle.addFirst(pc);
+                evictIdle(closing);
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        closeQuietly(closing);
+    }
+
+    /**
+     * Closes all the idle connections. The connections in use are closed as they are returned.
+     */
+    void close() {
+        List<PooledConnection> closing = new ArrayList<>();
+        lock.lock();
+        try {
+            closed = true;
+            while (!idle.isEmpty()) {
+                PooledConnection pc = idle.pollFirst();
+                forget(pc);
+                closing.add(pc);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        closeQuietly(closing);
+    }
+
+    PoolStatistics getStatistics() {
+        lock.lock();
+        try {
+            return new PoolStatistics(borrowCount, createdCount, destroyedCount, totalWaitNanos,
+                maxObservedWaitNanos, size - idle.size(), idle.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        try {
+            Connection conn = graph.openConnection();
+            PooledConnection pc = new PooledConnection(conn, new Statements(graph, conn));
+
+            lock.lock();
+            try {
+                createdCount++;
+            } finally {
+                lock.unlock();
+            }
+
+            return pc;
+        } catch (SQLException | RuntimeException e) {
+            lock.lock();
+            try {
+                size--;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the most recently used idle connection or reserves a slot for a new connection if there is no idle one
+     * and the pool is not full yet. Otherwise waits for a connection to be returned.
+     *
+     * @param start    the time the borrowing started
+     * @param maxSlice the maximum time to wait before returning {@link #RECLAIM}, which is only returned if the
+     *                 borrowing hasn't timed out yet
+     * @return the idle connection, which is yet to be validated, or null if a slot for a new connection was reserved
+     */
+    private PooledConnection take(long start, long maxSlice) throws SQLException {
+        List<PooledConnection> closing = new ArrayList<>();
+        lock.lock();
+        try {
+            evictIdle(closing);
+
+            long slice = Math.min(maxWaitNanos - (System.nanoTime() - start), maxSlice);
+            while (true) {
+                if (closed) {
+                    throw new SQLException("The connection pool has been closed.");
+                }
+
+                PooledConnection pc = idle.pollFirst();
+                if (pc != null) {
+                    return pc;
+                }
+
+                if (size < maxSize) {
+                    //reserve the slot, the connection is opened outside of the lock
+                    size++;
+                    recordBorrow(start);
+                    return null;
+                }
+
+                if (slice <= 0) {
+                    if (maxWaitNanos - (System.nanoTime() - start) > 0) {
+                        return RECLAIM;
+                    }
+                    throw new SQLException("Timed out waiting for a connection from the pool.");
+                }
+
+                try {
+                    slice = available.awaitNanos(slice);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a connection from the pool.", e);
+                }
+            }
+        } finally {
+            lock.unlock();
+            closeQuietly(closing);
+        }
+    }
+
+    private boolean isValid(PooledConnection pc) {
+        if (validationTimeout == 0) {
+            return true;
+        }
+
+        try {
+            return pc.connection.isValid(validationTimeout);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void recordBorrow(long start) {
+        lock.lock();
+        try {
+            long wait = System.nanoTime() - start;
+            borrowCount++;
+            totalWaitNanos += wait;
+            if (wait > maxObservedWaitNanos) {
+                maxObservedWaitNanos = wait;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the connections that were idle for too long, starting with the least recently used ones at the bottom
+     * of the stack.
+     *
+     * @param closing the list to add the removed connections to, to close them once the lock is released
+     */
+    private void evictIdle(List<PooledConnection> closing) {
+        long now = System.nanoTime();
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (size > minSize && it.hasNext()) {
+            PooledConnection pc = it.next();
+            if (now - pc.lastUsed < maxIdleNanos) {
+                break;
+            }
+
+            it.remove();
+            forget(pc);
+            closing.add(pc);
+        }
+    }
+
+    /**
+     * Removes the connection from the bookkeeping of the pool. Must be called under the lock, the connection itself
+     * is closed by {@link #closeQuietly(PooledConnection)} after the lock is released.
+     */
+    private void forget(PooledConnection pc) {
+        size--;
+        destroyedCount++;
+    }
+
+    private static void closeQuietly(List<PooledConnection> connections) {
+        for (PooledConnection pc : connections) {
+            closeQuietly(pc);
+        }
+    }
+
+    private static void closeQuietly(PooledConnection pc) {
+        pc.statements.close();
+        try {
+            pc.connection.close();
+        } catch (SQLException ignored) {
+            //the connection is being thrown away
+        }
+    }
+
+    /**
+     * A physical connection together with its prepared statements.
+     */
+    static final class PooledConnection {
+        final Connection connection;
+        final Statements statements;
+        long lastUsed;
+
+        PooledConnection(Connection connection, Statements statements) {
+            this.connection = connection;
+            this.statements = statements;
+        }
+    }
+}
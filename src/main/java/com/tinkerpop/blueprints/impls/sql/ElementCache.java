@@ -0,0 +1,28 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+/**
+ * A cache of the vertices or edges of a graph keyed by their ids. Because the elements cache their properties, the
+ * property maps of the elements are cached along with them.
+ * <p/>
+ * The implementations need to be thread-safe. A custom implementation can be configured using the
+ * <code>sql.elementCache.class</code> configuration property, in which case the class needs to have a public
+ * constructor taking the maximum number of elements in the cache as its sole <code>int</code> argument.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+public interface ElementCache<T> {
+
+    /**
+     * @return the cached element or null if there is none with the given id in the cache
+     */
+    T get(long id);
+
+    void put(long id, T element);
+
+    void remove(long id);
+
+    void clear();
+
+    CacheStatistics getStatistics();
+}
@@ -0,0 +1,122 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the ids of the elements returned by a query as primitive longs, read directly from the first column
+ * of the result set, without creating the elements or boxing the ids.
+ * <p/>
+ * The query is executed when the iterator is created and the result set is read only once. The statement is handed
+ * back when the last id has been read or when the iterator is closed, whichever comes first, so an iterator that is
+ * abandoned before reaching the end must be closed.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+public final class IdIterator implements Closeable {
+
+    private final Statements statements;
+    private final PreparedStatement stmt;
+    private final long limit;
+    private ResultSet rs;
+    private long cnt;
+    private boolean ready;
+    private boolean closed;
+
+    /**
+     * @param statements the statements the query was obtained from using {@link Statements#getQuery(String)}, the
+     *                   query is released back to them when the iterator is closed
+     * @param limit      the maximum number of ids to return or -1 for no limit
+     */
+    IdIterator(Statements statements, PreparedStatement stmt, long limit) {
+        this.statements = statements;
+        this.stmt = stmt;
+        this.limit = limit;
+
+        try {
+            this.rs = stmt.executeQuery();
+        } catch (SQLException e) {
+            close();
+            throw new SqlGraphException(e);
+        }
+    }
+
+    public boolean hasNext() {
+        if (ready) {
+            return true;
+        }
+
+        if (closed) {
+            return false;
+        }
+
+        try {
+            ready = (limit < 0 || cnt < limit) && rs.next();
+        } catch (SQLException e) {
+            close();
+            throw new SqlGraphException(e);
+        }
+
+        if (!ready) {
+            close();
+        }
+
+        return ready;
+    }
+
+    public long next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        ready = false;
+        cnt++;
+        try {
+            return rs.getLong(1);
+        } catch (SQLException e) {
+            close();
+            throw new SqlGraphException(e);
+        }
+    }
+
+    /**
+     * Reads all the remaining ids and closes the iterator.
+     */
+    public long[] toArray() {
+        long[] ids = new long[16];
+        int size = 0;
+        while (hasNext()) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = next();
+        }
+
+        return Arrays.copyOf(ids, size);
+    }
+
+    @Override
+    public void close() {
+        //a cached statement must not be released twice, it could have been handed out again in the meantime
+        if (closed) {
+            return;
+        }
+        closed = true;
+        ready = false;
+
+        try {
+            if (rs != null) {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+
+/**
+ * The keys of the vertex and edge properties that have a key index, shared by a graph and all its transactions.
+ * <p/>
+ * The keys are recorded in the metadata table by the {@link SchemaManager} and loaded from there when they are first
+ * needed. The sets are replaced as a whole when a key index is created or dropped, so that the readers never see them
+ * change.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+final class IndexedKeys {
+
+    private volatile Set<String> vertexKeys;
+    private volatile Set<String> edgeKeys;
+
+    /**
+     * @return the indexed keys of the element type or null if they haven't been loaded yet
+     */
+    Set<String> get(Class<? extends Element> elementClass) {
+        return Edge.class.isAssignableFrom(elementClass) ? edgeKeys : vertexKeys;
+    }
+
+    void set(Class<? extends Element> elementClass, Set<String> keys) {
+        Set<String> copy = Collections.unmodifiableSet(new HashSet<>(keys));
+        if (Edge.class.isAssignableFrom(elementClass)) {
+            edgeKeys = copy;
+        } else {
+            vertexKeys = copy;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.tinkerpop.blueprints.CloseableIterable;
+
+/**
+ * Iterates over the elements generated from the rows of a query executed in pages of a fixed size.
+ * <p/>
+ * Each page is read by a separate execution of the query, which returns the rows with the key greater than the key
+ * of the last row of the previous page, ordered by the key and limited to the page size. Unlike with
+ * {@link ResultSetIterable}, neither the database nor the driver ever hold more than a page of the results and
+ * nothing is held between the pages, so the iteration can be abandoned at any time without closing the iterable.
+ * <p/>
+ * The query can consist of several phases, e.g. the incoming and the outgoing edges of a vertex, each of which is
+ * paged separately, one after the other.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+final class KeysetPagedIterable<T> implements CloseableIterable<T> {
+
+    /**
+     * Obtains the statement reading a page of the results.
+     */
+    interface PageQuery {
+        /**
+         * @param phase    the index of the phase of the query
+         * @param afterKey the key of the last row of the previous page or {@link Long#MIN_VALUE} for the first page
+         *
+         * @return the statement obtained using {@link Statements#getQuery(String)}, with all the parameters bound
+         */
+        PreparedStatement prepare(int phase, long afterKey) throws SQLException;
+    }
+
+    private final ElementGenerator<? extends T> generator;
+    private final SqlGraph graph;
+    private final Statements statements;
+    private final PageQuery query;
+    private final int phaseCount;
+    private final int pageSize;
+    private final int keyColumn;
+    private final long limit;
+    private final int prefetchSize;
+    private final List<String> prefetchKeys;
+
+    /**
+     * @param phaseCount   the number of the phases of the query
+     * @param pageSize     the maximum number of the rows returned by the query for a page, {@link Integer#MAX_VALUE} to
+     *                     read each phase as a single page
+     * @param keyColumn    the index of the column holding the key of the rows
+     * @param limit        the maximum number of elements to return or -1 for no limit
+     * @param prefetchSize the number of elements to prefetch the properties of at once, 0 to not prefetch at all
+     * @param prefetchKeys the names of the properties to prefetch, null to prefetch all of them
+     */
+    KeysetPagedIterable(ElementGenerator<? extends T> generator, SqlGraph graph, Statements statements,
+        PageQuery query, int phaseCount, int pageSize, int keyColumn, long limit, int prefetchSize,
+        List<String> prefetchKeys) {
+        this.generator = generator;
+        this.graph = graph;
+        this.statements = statements;
+        this.query = query;
+        this.phaseCount = phaseCount;
+        this.pageSize = pageSize;
+        this.keyColumn = keyColumn;
+        this.limit = limit;
+        this.prefetchSize = prefetchSize;
+        this.prefetchKeys = prefetchKeys;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            final ArrayDeque<T> page = new ArrayDeque<>();
+            int phase;
+            long afterKey = Long.MIN_VALUE;
+            long cnt;
+
+            @Override
+            public boolean hasNext() {
+                advance();
+                return !page.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                advance();
+                if (page.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                return page.poll();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private void advance() {
+                while (page.isEmpty() && phase < phaseCount && (limit < 0 || cnt < limit)) {
+                    if (readPage() < pageSize) {
+                        phase++;
+                        afterKey = Long.MIN_VALUE;
+                    }
+                }
+            }
+
+            /**
+             * @return the number of rows of the page
+             */
+            private int readPage() {
+                List<SqlElement> elements = prefetchSize > 0 ? new ArrayList<SqlElement>(pageSize) : null;
+                int rows = 0;
+
+                PreparedStatement stmt = null;
+                try {
+                    stmt = query.prepare(phase, afterKey);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            rows++;
+                            afterKey = rs.getLong(keyColumn);
+                            if (limit >= 0 && cnt >= limit) {
+                                break;
+                            }
+
+                            T e = generator.generate(graph, rs);
+                            page.add(e);
+                            cnt++;
+
+                            if (elements != null && e instanceof SqlElement) {
+                                elements.add((SqlElement) e);
+                            }
+                        }
+                    }
+                } catch (SQLException e) {
+                    throw new SqlGraphException(e);
+                } finally {
+                    statements.release(stmt);
+                }
+
+                if (elements != null) {
+                    for (int i = 0; i < elements.size(); i += prefetchSize) {
+                        SqlElement.prefetchProperties(graph,
+                            elements.subList(i, Math.min(elements.size(), i + prefetchSize)), prefetchKeys);
+                    }
+                }
+
+                return rows;
+            }
+        };
+    }
+
+    /**
+     * Nothing is held between the pages, so there is nothing to close.
+     */
+    @Override
+    public void close() {
+    }
+}
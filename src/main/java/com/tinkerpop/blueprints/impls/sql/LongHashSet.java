@@ -0,0 +1,124 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs using open addressing with linear probing. Not thread-safe.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+final class LongHashSet {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] table;
+    private boolean containsEmpty;
+    private int size;
+
+    LongHashSet() {
+        this(16);
+    }
+
+    LongHashSet(int expectedSize) {
+        int capacity = 4;
+        while (capacity < expectedSize * 2 && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+
+        table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+    }
+
+    /**
+     * @return true if the value was not present in the set before
+     */
+    boolean add(long value) {
+        if (value == EMPTY) {
+            boolean added = !containsEmpty;
+            containsEmpty = true;
+            if (added) {
+                size++;
+            }
+            return added;
+        }
+
+        int idx = indexOf(value, table);
+        if (table[idx] == value) {
+            return false;
+        }
+
+        table[idx] = value;
+        size++;
+
+        if (size * 2 > table.length) {
+            rehash();
+        }
+
+        return true;
+    }
+
+    boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+
+        return table[indexOf(value, table)] == value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        Arrays.fill(table, EMPTY);
+        containsEmpty = false;
+        size = 0;
+    }
+
+    long[] toArray() {
+        long[] ret = new long[size];
+        int i = 0;
+        if (containsEmpty) {
+            ret[i++] = EMPTY;
+        }
+
+        for (long v : table) {
+            if (v != EMPTY) {
+                ret[i++] = v;
+            }
+        }
+
+        return ret;
+    }
+
+    private void rehash() {
+        long[] newTable = new long[table.length * 2];
+        Arrays.fill(newTable, EMPTY);
+        for (long v : table) {
+            if (v != EMPTY) {
+                newTable[indexOf(v, newTable)] = v;
+            }
+        }
+
+        table = newTable;
+    }
+
+    /**
+     * @return the index of the slot holding the value or of the empty slot where it would be placed
+     */
+    private static int indexOf(long value, long[] table) {
+        int mask = table.length - 1;
+        long h = value * 0x9E3779B97F4A7C15L;
+        int idx = (int) (h ^ (h >>> 32)) & mask;
+        while (table[idx] != EMPTY && table[idx] != value) {
+            idx = (idx + 1) & mask;
+        }
+
+        return idx;
+    }
+}
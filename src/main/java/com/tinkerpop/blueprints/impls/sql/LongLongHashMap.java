@@ -0,0 +1,129 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.util.Arrays;
+
+/**
+ * A map of primitive longs to primitive longs using open addressing with linear probing. Not thread-safe.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+final class LongLongHashMap {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private long[] values;
+    private boolean containsEmpty;
+    private long emptyKeyValue;
+    private int size;
+
+    LongLongHashMap() {
+        this(16);
+    }
+
+    LongLongHashMap(int expectedSize) {
+        int capacity = 4;
+        while (capacity < expectedSize * 2 && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * @return true if the key was not present in the map before
+     */
+    boolean put(long key, long value) {
+        if (key == EMPTY) {
+            boolean added = !containsEmpty;
+            containsEmpty = true;
+            emptyKeyValue = value;
+            if (added) {
+                size++;
+            }
+            return added;
+        }
+
+        int idx = indexOf(key, keys);
+        values[idx] = value;
+        if (keys[idx] == key) {
+            return false;
+        }
+
+        keys[idx] = key;
+        size++;
+
+        if (size * 2 > keys.length) {
+            rehash();
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the value of the key or the provided default value if the key is not present in the map
+     */
+    long get(long key, long defaultValue) {
+        if (key == EMPTY) {
+            return containsEmpty ? emptyKeyValue : defaultValue;
+        }
+
+        int idx = indexOf(key, keys);
+        return keys[idx] == key ? values[idx] : defaultValue;
+    }
+
+    boolean containsKey(long key) {
+        if (key == EMPTY) {
+            return containsEmpty;
+        }
+
+        return keys[indexOf(key, keys)] == key;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        containsEmpty = false;
+        size = 0;
+    }
+
+    private void rehash() {
+        long[] newKeys = new long[keys.length * 2];
+        long[] newValues = new long[keys.length * 2];
+        Arrays.fill(newKeys, EMPTY);
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] != EMPTY) {
+                int idx = indexOf(keys[i], newKeys);
+                newKeys[idx] = keys[i];
+                newValues[idx] = values[i];
+            }
+        }
+
+        keys = newKeys;
+        values = newValues;
+    }
+
+    /**
+     * @return the index of the slot holding the key or of the empty slot where it would be placed
+     */
+    private static int indexOf(long key, long[] keys) {
+        int mask = keys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int idx = (int) (h ^ (h >>> 32)) & mask;
+        while (keys[idx] != EMPTY && keys[idx] != key) {
+            idx = (idx + 1) & mask;
+        }
+
+        return idx;
+    }
+}
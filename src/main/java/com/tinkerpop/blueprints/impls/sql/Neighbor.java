@@ -0,0 +1,93 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * An edge adjacent to one of the vertices expanded by {@link SqlGraph#neighbors(long[],
+ * com.tinkerpop.blueprints.Direction, String...)}, described by the id of the vertex it was reached from, its own id
+ * and the id of the vertex on its other side.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+public final class Neighbor {
+
+    static final ElementGenerator<Neighbor> GENERATOR = new ElementGenerator<Neighbor>() {
+        @Override
+        public Neighbor generate(SqlGraph graph, ResultSet rs) {
+            try {
+                return new Neighbor(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getString(4));
+            } catch (SQLException e) {
+                throw new SqlGraphException(e);
+            }
+        }
+    };
+
+    private final long sourceId;
+    private final long edgeId;
+    private final long targetId;
+    private final String label;
+
+    public Neighbor(long sourceId, long edgeId, long targetId, String label) {
+        this.sourceId = sourceId;
+        this.edgeId = edgeId;
+        this.targetId = targetId;
+        this.label = label;
+    }
+
+    /**
+     * @return the id of the expanded vertex
+     */
+    public long getSourceId() {
+        return sourceId;
+    }
+
+    public long getEdgeId() {
+        return edgeId;
+    }
+
+    /**
+     * @return the id of the vertex on the other side of the edge than the source vertex
+     */
+    public long getTargetId() {
+        return targetId;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        Neighbor neighbor = (Neighbor) o;
+
+        return sourceId == neighbor.sourceId && edgeId == neighbor.edgeId && targetId == neighbor.targetId;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (sourceId ^ (sourceId >>> 32));
+        result = 31 * result + (int) (edgeId ^ (edgeId >>> 32));
+        result = 31 * result + (int) (targetId ^ (targetId >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("Neighbor");
+        sb.append("[source=").append(sourceId);
+        sb.append(", edge=").append(edgeId);
+        sb.append(", target=").append(targetId);
+        sb.append(", label=").append(label);
+        sb.append(']');
+        return sb.toString();
+    }
+}
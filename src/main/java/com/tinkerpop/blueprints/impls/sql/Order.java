@@ -0,0 +1,11 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+/**
+ * The order in which the queries return the elements sorted by a property.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+public enum Order {
+    ASC, DESC
+}
@@ -0,0 +1,77 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.util.Arrays;
+
+/**
+ * A path between two vertices described by the ids of its vertices and edges, as found by
+ * {@link SqlGraph#shortestPath(long, long, int, com.tinkerpop.blueprints.Direction, String...)}.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+public final class Path {
+
+    private final long[] vertexIds;
+    private final long[] edgeIds;
+
+    /**
+     * @param vertexIds the ids of the vertices from the start to the end of the path
+     * @param edgeIds   the ids of the edges between the vertices, one less than the vertices
+     */
+    public Path(long[] vertexIds, long[] edgeIds) {
+        if (vertexIds.length != edgeIds.length + 1) {
+            throw new IllegalArgumentException("A path must have exactly one more vertex than edges.");
+        }
+
+        this.vertexIds = vertexIds.clone();
+        this.edgeIds = edgeIds.clone();
+    }
+
+    /**
+     * @return the number of the edges of the path
+     */
+    public int getLength() {
+        return edgeIds.length;
+    }
+
+    public long[] getVertexIds() {
+        return vertexIds.clone();
+    }
+
+    /**
+     * @return the ids of the edges, the edge at index i connects the vertices at indices i and i + 1
+     */
+    public long[] getEdgeIds() {
+        return edgeIds.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        Path path = (Path) o;
+
+        return Arrays.equals(vertexIds, path.vertexIds) && Arrays.equals(edgeIds, path.edgeIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(vertexIds) + Arrays.hashCode(edgeIds);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("Path[");
+        for (int i = 0; i < edgeIds.length; ++i) {
+            sb.append(vertexIds[i]).append(" -").append(edgeIds[i]).append("- ");
+        }
+        sb.append(vertexIds[vertexIds.length - 1]);
+        sb.append(']');
+        return sb.toString();
+    }
+}
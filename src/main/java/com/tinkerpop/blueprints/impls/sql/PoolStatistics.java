@@ -0,0 +1,102 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable snapshot of the counters of the connection pool of the SQL graph.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+public final class PoolStatistics {
+
+    private final long borrowCount;
+    private final long createdCount;
+    private final long destroyedCount;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+    private final int activeCount;
+    private final int idleCount;
+
+    public PoolStatistics(long borrowCount, long createdCount, long destroyedCount, long totalWaitNanos,
+        long maxWaitNanos, int activeCount, int idleCount) {
+        this.borrowCount = borrowCount;
+        this.createdCount = createdCount;
+        this.destroyedCount = destroyedCount;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+        this.activeCount = activeCount;
+        this.idleCount = idleCount;
+    }
+
+    /**
+     * @return the number of times a connection was obtained from the pool
+     */
+    public long getBorrowCount() {
+        return borrowCount;
+    }
+
+    /**
+     * @return the number of physical connections opened by the pool
+     */
+    public long getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * @return the number of physical connections closed by the pool because they were idle for too long or failed
+     * the validation
+     */
+    public long getDestroyedCount() {
+        return destroyedCount;
+    }
+
+    /**
+     * @return the total time spent waiting for a connection to become available
+     */
+    public long getTotalWaitTime(TimeUnit unit) {
+        return unit.convert(totalWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the longest time spent waiting for a connection to become available
+     */
+    public long getMaxWaitTime(TimeUnit unit) {
+        return unit.convert(maxWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the average time spent waiting for a connection or 0 if no connection has been borrowed yet
+     */
+    public double getAverageWaitTime(TimeUnit unit) {
+        return borrowCount == 0 ? 0 : (double) getTotalWaitTime(unit) / borrowCount;
+    }
+
+    /**
+     * @return the number of connections in use at the time the snapshot was taken
+     */
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    /**
+     * @return the number of idle connections at the time the snapshot was taken
+     */
+    public int getIdleCount() {
+        return idleCount;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("PoolStatistics");
+        sb.append("[borrowed=").append(borrowCount);
+        sb.append(", created=").append(createdCount);
+        sb.append(", destroyed=").append(destroyedCount);
+        sb.append(", totalWaitNanos=").append(totalWaitNanos);
+        sb.append(", maxWaitNanos=").append(maxWaitNanos);
+        sb.append(", active=").append(activeCount);
+        sb.append(", idle=").append(idleCount);
+        sb.append(']');
+        return sb.toString();
+    }
+}
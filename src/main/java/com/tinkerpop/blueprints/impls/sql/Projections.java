@@ -0,0 +1,92 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * The generation of the SQL of the projections of the properties of the elements matched by a query and the reading
+ * of their rows.
+ * <p/>
+ * Each projected property is pivoted out of the properties table by a left join on the element and the name of the
+ * property, which the unique constraint of the properties table makes a single index lookup per element and
+ * property. The value columns of the joined properties follow the id of the element in the select list, so
+ * the whole projection is read by the one query of the elements.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+final class Projections {
+
+    private Projections() {
+
+    }
+
+    /**
+     * Appends the part of the shape of a query identifying the projected properties.
+     */
+    static void appendShape(StringBuilder shape, List<String> keys) {
+        for (String key : keys) {
+            shape.append(key.length()).append(':').append(key);
+        }
+        shape.append('|');
+    }
+
+    /**
+     * @return the list of the value columns of the projected properties, starting with a comma, to append to the select
+     * list of the id of the elements
+     */
+    static String columns(List<String> keys, PropertyStorage storage) {
+        StringBuilder bld = new StringBuilder();
+        String[] columns = storage.valueColumns().split(", ");
+        for (int i = 0; i < keys.size(); ++i) {
+            for (String column : columns) {
+                bld.append(", pj").append(i).append('.').append(column);
+            }
+        }
+        return bld.toString();
+    }
+
+    /**
+     * @param idColumn the column holding the ids of the elements the properties are joined to
+     *
+     * @return the left joins of the projected properties
+     */
+    static String joins(String idColumn, List<String> keys, String propsTable, String propsTableFK) {
+        StringBuilder bld = new StringBuilder();
+        for (int i = 0; i < keys.size(); ++i) {
+            if (i > 0) {
+                bld.append(' ');
+            }
+            bld.append("LEFT JOIN ").append(propsTable).append(" pj").append(i).append(" ON pj").append(i).append('.')
+                .append(propsTableFK).append(" = ").append(idColumn).append(" AND pj").append(i).append(".name = ")
+                .append(SchemaManager.literal(keys.get(i)));
+        }
+        return bld.toString();
+    }
+
+    /**
+     * @return the generator of the rows from the id of the element in the first column followed by the
+     * {@link #columns(List, PropertyStorage) value columns} of the properties
+     */
+    static ElementGenerator<Row> generator(final List<String> keys, final PropertyStorage storage) {
+        final int width = storage.valueColumns().split(", ").length;
+        return new ElementGenerator<Row>() {
+            @Override
+            public Row generate(SqlGraph graph, ResultSet rs) {
+                try {
+                    Object[] values = new Object[keys.size()];
+                    for (int i = 0; i < values.length; ++i) {
+                        //the value type, the last of the value columns, is only null if the property is missing
+                        int firstColumn = 2 + i * width;
+                        values[i] = rs.getObject(firstColumn + width - 1) == null ? null :
+                            storage.read(rs, firstColumn);
+                    }
+                    return new Row(rs.getLong(1), keys, values);
+                } catch (SQLException e) {
+                    throw new SqlGraphException(e);
+                }
+            }
+        };
+    }
+}
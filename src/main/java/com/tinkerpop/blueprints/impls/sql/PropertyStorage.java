@@ -0,0 +1,359 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * The layout of the value columns of the property tables.
+ * <p/>
+ * The value columns start with distinct letters, which identify the column a filter value is compared with in the
+ * query shapes.
+ * <p/>
+ * In both layouts, the string values are accompanied by their 64-bit {@link #stringHash(String) hash} in the indexed
+ * <code>string_hash</code> column. The equality filters on the string columns that can't be indexed efficiently
+ * probe the hash first and only then compare the full values.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+enum PropertyStorage {
+    /**
+     * All numbers are stored in a single <code>numeric_value NUMERIC</code> column and all strings in a single
+     * <code>string_value TEXT</code> column.
+     */
+    LEGACY("string_value, numeric_value, value_type", "string_hash", "numeric_value") {
+        @Override
+        Object read(ResultSet rs, int firstColumn) throws SQLException {
+            return ValueType.read(rs, firstColumn);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, int firstParameter, Object value, ValueType valueType)
+            throws SQLException {
+            stmt.setObject(firstParameter, valueType.isNumeric() ? null : value);
+            stmt.setObject(firstParameter + 1, valueType.isNumeric() ? value : null);
+            stmt.setInt(firstParameter + 2, valueType.ordinal());
+            bindHash(stmt, firstParameter + 3, value, valueType);
+        }
+
+        @Override
+        String column(Object value) {
+            ValueType vt = ValueType.of(value, false);
+            return vt != null && vt.isNumeric() ? "numeric_value" : "string_value";
+        }
+
+        @Override
+        String rangeExpression(String table, Object value) {
+            return table + "." + column(value);
+        }
+
+        @Override
+        String stringExpression(String table) {
+            return table + ".string_value";
+        }
+
+        @Override
+        String intervalColumn() {
+            return "numeric_value";
+        }
+
+        @Override
+        Object intervalValue(Object value) {
+            if (value instanceof Boolean) {
+                return (Boolean) value ? 1L : 0L;
+            } else if (value instanceof Float || value instanceof Double) {
+                return ((Number) value).doubleValue();
+            } else if (value instanceof Number) {
+                //the numeric column holds the integers exactly
+                return ((Number) value).longValue();
+            }
+
+            return null;
+        }
+
+        @Override
+        boolean isHashed(String column) {
+            //H2 can't index TEXT at all and the indexes of the other databases would be needlessly large
+            return "string_value".equals(column);
+        }
+    },
+
+    /**
+     * The integral numbers and booleans are stored in a <code>long_value BIGINT</code> column and, like all the other
+     * numbers, in a <code>double_value DOUBLE PRECISION</code> column, so that the numbers of different types can be
+     * compared with each other. The strings up to {@link #MAX_INDEXED_STRING_LENGTH} characters are stored in an
+     * indexable <code>string_value VARCHAR</code> column and the longer ones in a <code>text_value TEXT</code>
+     * column. All the values are read using the primitive getters of the result set.
+     */
+    TYPED("string_value, text_value, long_value, double_value, value_type", "string_value", "string_hash", "long_value",
+        "double_value") {
+        @Override
+        Object read(ResultSet rs, int firstColumn) throws SQLException {
+            ValueType valueType = ValueType.values()[rs.getInt(firstColumn + 4)];
+            switch (valueType) {
+            case BOOLEAN:
+                return rs.getLong(firstColumn + 2) != 0;
+            case BYTE:
+                return (byte) rs.getLong(firstColumn + 2);
+            case SHORTINT:
+                return (short) rs.getLong(firstColumn + 2);
+            case INT:
+                return (int) rs.getLong(firstColumn + 2);
+            case LONG:
+                return rs.getLong(firstColumn + 2);
+            case FLOAT:
+                return (float) rs.getDouble(firstColumn + 3);
+            case DOUBLE:
+                return rs.getDouble(firstColumn + 3);
+            case CHARACTER:
+                return rs.getString(firstColumn).charAt(0);
+            case STRING:
+                String value = rs.getString(firstColumn);
+                return value != null ? value : rs.getString(firstColumn + 1);
+            default:
+                return null;
+            }
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, int firstParameter, Object value, ValueType valueType)
+            throws SQLException {
+            String string = null;
+            String text = null;
+            Long integral = null;
+            Double floating = null;
+
+            switch (valueType) {
+            case BOOLEAN:
+                integral = (Boolean) value ? 1L : 0L;
+                floating = integral.doubleValue();
+                break;
+            case BYTE:
+            case SHORTINT:
+            case INT:
+            case LONG:
+                integral = ((Number) value).longValue();
+                floating = integral.doubleValue();
+                break;
+            case FLOAT:
+            case DOUBLE:
+                floating = ((Number) value).doubleValue();
+                break;
+            case CHARACTER:
+                string = value.toString();
+                break;
+            case STRING:
+                if (((String) value).length() <= MAX_INDEXED_STRING_LENGTH) {
+                    string = (String) value;
+                } else {
+                    text = (String) value;
+                }
+                break;
+            default:
+                break;
+            }
+
+            stmt.setString(firstParameter, string);
+            stmt.setString(firstParameter + 1, text);
+            if (integral == null) {
+                stmt.setNull(firstParameter + 2, Types.BIGINT);
+            } else {
+                stmt.setLong(firstParameter + 2, integral);
+            }
+            if (floating == null) {
+                stmt.setNull(firstParameter + 3, Types.DOUBLE);
+            } else {
+                stmt.setDouble(firstParameter + 3, floating);
+            }
+            stmt.setInt(firstParameter + 4, valueType.ordinal());
+            bindHash(stmt, firstParameter + 5, value, valueType);
+        }
+
+        @Override
+        String column(Object value) {
+            ValueType vt = ValueType.of(value, false);
+            if (vt == null || !vt.isNumeric()) {
+                return value instanceof String && ((String) value).length() > MAX_INDEXED_STRING_LENGTH ?
+                    "text_value" : "string_value";
+            }
+
+            if (value instanceof Number && !(value instanceof Float || value instanceof Double)) {
+                //the doubles represent the integers exactly only up to 2^53, the larger ones can only be found
+                //precisely among the integral values
+                long l = ((Number) value).longValue();
+                if (l > MAX_EXACT_DOUBLE || l < -MAX_EXACT_DOUBLE) {
+                    return "long_value";
+                }
+            }
+
+            return "double_value";
+        }
+
+        @Override
+        String rangeExpression(String table, Object value) {
+            String column = column(value);
+            if ("double_value".equals(column) || "long_value".equals(column)) {
+                return table + "." + column;
+            }
+
+            return stringExpression(table);
+        }
+
+        @Override
+        String stringExpression(String table) {
+            //a string can be stored in either of the columns
+            return "COALESCE(" + table + ".string_value, " + table + ".text_value)";
+        }
+
+        @Override
+        String intervalColumn() {
+            return "double_value";
+        }
+
+        @Override
+        Object intervalValue(Object value) {
+            if (value instanceof Boolean) {
+                return (Boolean) value ? 1.0 : 0.0;
+            } else if (value instanceof Number) {
+                //rounded the same way as the integers are when they are stored
+                return ((Number) value).doubleValue();
+            }
+
+            return null;
+        }
+
+        @Override
+        boolean isHashed(String column) {
+            return "text_value".equals(column);
+        }
+    };
+
+    /**
+     * The maximum length of the strings stored in the indexed <code>string_value</code> column of the typed storage.
+     * Must be kept in sync with the conversion scripts.
+     */
+    static final int MAX_INDEXED_STRING_LENGTH = 512;
+
+    private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String valueColumns;
+    private final String storedColumns;
+    private final String[] keyIndexColumns;
+
+    PropertyStorage(String valueColumns, String... keyIndexColumns) {
+        this.valueColumns = valueColumns;
+        this.storedColumns = valueColumns + ", string_hash";
+        this.keyIndexColumns = keyIndexColumns;
+    }
+
+    /**
+     * @return the comma separated value columns of the property tables followed by the <code>value_type</code>
+     * column, in the order expected by {@link #read(ResultSet, int)}
+     */
+    String valueColumns() {
+        return valueColumns;
+    }
+
+    /**
+     * @return the {@link #valueColumns() value columns} followed by the <code>string_hash</code> column, in the
+     * order expected by {@link #bind(PreparedStatement, int, Object, ValueType)}
+     */
+    String storedColumns() {
+        return storedColumns;
+    }
+
+    /**
+     * @return the <code>column = ?, ...</code> list setting all the {@link #storedColumns() stored columns}
+     */
+    String storedAssignments() {
+        return storedColumns.replace(",", " = ?,") + " = ?";
+    }
+
+    /**
+     * @return the number of the {@link #storedColumns() stored columns}
+     */
+    int storedColumnCount() {
+        return storedColumns.split(",").length;
+    }
+
+    /**
+     * @return the columns the filters on the keys with a key index look up the values in
+     */
+    String[] keyIndexColumns() {
+        return keyIndexColumns.clone();
+    }
+
+    /**
+     * The FNV-1a hash of the UTF-16 code units of the string. It is stored in the database, so it must never
+     * change.
+     */
+    static long stringHash(String value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static void bindHash(PreparedStatement stmt, int parameter, Object value, ValueType valueType)
+        throws SQLException {
+        if (valueType.isNumeric()) {
+            stmt.setNull(parameter, Types.BIGINT);
+        } else {
+            stmt.setLong(parameter, stringHash(value.toString()));
+        }
+    }
+
+    /**
+     * Reads a property value from the result set positioned on a row containing the {@link #valueColumns() value
+     * columns}.
+     *
+     * @param firstColumn the index of the first value column
+     */
+    abstract Object read(ResultSet rs, int firstColumn) throws SQLException;
+
+    /**
+     * Binds the value to the parameters corresponding to the {@link #storedColumns() stored columns}, setting the
+     * columns that don't store the value to null.
+     */
+    abstract void bind(PreparedStatement stmt, int firstParameter, Object value, ValueType valueType)
+        throws SQLException;
+
+    /**
+     * @return the column that the provided value is compared with for equality
+     */
+    abstract String column(Object value);
+
+    /**
+     * @return the expression the provided value is compared with using the other comparison operators
+     */
+    abstract String rangeExpression(String table, Object value);
+
+    /**
+     * @return the expression holding the string values of the properties
+     */
+    abstract String stringExpression(String table);
+
+    /**
+     * @return the column the bounds of the intervals are compared with
+     */
+    abstract String intervalColumn();
+
+    /**
+     * @return the value as stored in the {@link #intervalColumn() interval column}, either a {@link Long} or
+     * a {@link Double}, or null if the value is not stored in the column
+     */
+    abstract Object intervalValue(Object value);
+
+    /**
+     * @return true if the equality comparisons with the column should probe the <code>string_hash</code> column first
+     */
+    abstract boolean isHashed(String column);
+}
@@ -4,23 +4,55 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.tinkerpop.blueprints.Contains;
 import com.tinkerpop.blueprints.Predicate;
 import com.tinkerpop.blueprints.Query;
 
 /**
+ * The property filters of a query and the generation of the SQL evaluating them.
+ * <p/>
+ * The generated SQL only depends on the {@link #appendShape(StringBuilder, Set) shape} of the filters, not on the actual
+ * values, which are bound as parameters. Each parameter of the generated statement is accompanied by a
+ * {@link Binding} describing where its value comes from, so that the SQL can be {@link SqlAndParams#compile()
+ * compiled} once and bound with the values of any other query of the same shape.
+ * <p/>
+ * The equality and IN comparisons with the string columns that the {@link PropertyStorage} marks as
+ * {@link PropertyStorage#isHashed(String) hashed} first probe the indexed <code>string_hash</code> column and then
+ * compare the full values to rule out the collisions.
+ *
  * @author Lukas Krejci
  * @since 1.0
  */
 final class QueryFilters {
 
+    /**
+     * The estimated selectivity of the filters, lower is more selective.
+     */
+    private static final int SELECTIVITY_EQUAL = 0;
+    private static final int SELECTIVITY_IN = 1;
+    private static final int SELECTIVITY_RANGE = 2;
+    private static final int SELECTIVITY_ANY = 3;
+    private static final int SELECTIVITY_ABSENT = 4;
+
+    private final PropertyStorage storage;
     private final Map<String, List<OperatorAndValue>> filters = new HashMap<>();
 
+    /**
+     * @param storage the layout of the property tables the filters are evaluated against
+     */
+    QueryFilters(PropertyStorage storage) {
+        this.storage = storage;
+    }
+
     public Map<String, List<OperatorAndValue>> getFilters() {
         return filters;
     }
@@ -47,6 +79,10 @@ final class QueryFilters {
         }
 
         if (isPredicateSupported(predicate)) {
+            if (predicate instanceof Contains) {
+                //the values are addressed by their index when binding the compiled queries
+                value = toList((Iterable<?>) value);
+            }
             addFilter(filters, key, new OperatorAndValue(predicate, value));
         } else {
             throw new IllegalArgumentException("predicate not supported: " + predicate);
@@ -66,14 +102,55 @@ final class QueryFilters {
         }
     }
 
-    SqlAndParams generateStatement(String select, String mainTable, String propsTable, String propsTableFK,
-        List<String> specialProps, String mainTableWhereClause) throws SQLException {
+    /**
+     * Appends the shape of the filters to the provided builder. The shape captures everything the generated SQL
+     * depends on apart from the values themselves - the filtered properties and whether they have a key index, the
+     * operators and the number of the values and the columns they are compared with.
+     * <p/>
+     * The filters are visited in the iteration order of the map, so the same filters added in a different order may
+     * produce a different shape. That only costs a separate cache entry, the SQL generated for either is valid for
+     * both.
+     */
+    void appendShape(StringBuilder bld, Set<String> indexedKeys) {
+        for (Map.Entry<String, List<OperatorAndValue>> e : filters.entrySet()) {
+            //prefixed by the length so that no property name can be mistaken for the rest of the shape
+            bld.append(e.getKey().length()).append(':').append(e.getKey());
+            if (indexedKeys.contains(e.getKey())) {
+                bld.append('#');
+            }
+            for (OperatorAndValue opValue : e.getValue()) {
+                bld.append('/').append(((Enum<?>) opValue.operator).name());
+                if (opValue.operator instanceof Contains) {
+                    for (Object v : (List<?>) opValue.object) {
+                        bld.append(columnCode(v));
+                    }
+                } else if (opValue.operator != CustomPredicates.INTERVAL) {
+                    bld.append(columnCode(opValue.object));
+                }
+            }
+            bld.append(';');
+        }
+    }
+
+    /**
+     * @param mainTableJoin the joins of the main table with the other tables, without parameters, or null
+     * @param indexedKeys   the keys of the properties that have a key index
+     */
+    SqlAndParams generateStatement(String select, String mainTable, String mainTableJoin, String propsTable,
+        String propsTableFK, List<String> specialProps, String mainTableWhereClause,
+        SqlGraph.FilterCompilation compilation, Set<String> indexedKeys) throws SQLException {
+
+        if (compilation == SqlGraph.FilterCompilation.JOIN) {
+            return generateJoinStatement(select, mainTable, mainTableJoin, propsTable, propsTableFK, specialProps,
+                mainTableWhereClause, indexedKeys);
+        }
 
         StringBuilder bld = new StringBuilder(select);
 
         bld.append(" FROM ").append(mainTable);
+        appendJoin(bld, mainTableJoin);
 
-        List<Object> params = new ArrayList<>();
+        Parameters params = new Parameters(indexedKeys);
 
         boolean whereClausePresent = false;
 
@@ -107,6 +184,408 @@ final class QueryFilters {
         return new SqlAndParams(bld, params);
     }
 
+    /**
+     * Generates the statement joining the properties table once for each filtered property instead of probing it
+     * using a subquery for each filter. Because an element can have at most one property with a given name, the joins
+     * don't multiply the rows of the main table.
+     * <p/>
+     * The joins are ordered by the estimated selectivity of the filters on the properties. Unless the main table is
+     * already restricted by a selective condition, the most selective property lookup drives the query. Of the
+     * equally selective ones, the keys with a key index are looked up first.
+     * <p/>
+     * All the parameters are bound in the where clause, after the parameters of the main table where clause.
+     */
+    private SqlAndParams generateJoinStatement(String select, String mainTable, String mainTableJoin,
+        String propsTable, String propsTableFK, List<String> specialProps, String mainTableWhereClause,
+        final Set<String> indexedKeys) {
+
+        Parameters params = new Parameters(indexedKeys);
+        StringBuilder where = new StringBuilder();
+        boolean selectiveMainFilter = false;
+
+        if (mainTableWhereClause != null) {
+            where.append(mainTableWhereClause);
+            selectiveMainFilter = true;
+        }
+
+        List<Map.Entry<String, List<OperatorAndValue>>> joined = new ArrayList<>();
+        List<Map.Entry<String, List<OperatorAndValue>>> probed = new ArrayList<>();
+
+        for (Map.Entry<String, List<OperatorAndValue>> e : filters.entrySet()) {
+            if (specialProps.contains(e.getKey())) {
+                List<OperatorAndValue> opValues = e.getValue();
+                for (int i = 0; i < opValues.size(); ++i) {
+                    and(where);
+                    appendFilter(mainTable, propsTable, propsTableFK, where, params, e.getKey(), i, true);
+                    selectiveMainFilter |= selectivity(opValues.get(i)) <= SELECTIVITY_IN;
+                }
+            } else if (selectivity(e) < SELECTIVITY_ABSENT) {
+                joined.add(e);
+            } else {
+                probed.add(e);
+            }
+        }
+
+        Collections.sort(joined, new Comparator<Map.Entry<String, List<OperatorAndValue>>>() {
+            @Override
+            public int compare(Map.Entry<String, List<OperatorAndValue>> a, Map.Entry<String, List<OperatorAndValue>> b) {
+                int ret = Integer.compare(selectivity(a), selectivity(b));
+                if (ret == 0) {
+                    ret = Boolean.compare(!indexedKeys.contains(a.getKey()), !indexedKeys.contains(b.getKey()));
+                }
+                return ret;
+            }
+        });
+
+        StringBuilder bld = new StringBuilder(select);
+        int firstJoin = 0;
+        if (!selectiveMainFilter && !joined.isEmpty()) {
+            bld.append(" FROM ").append(propsTable).append(" pf0 JOIN ").append(mainTable).append(" ON ")
+                .append(mainTable).append(".id = pf0.").append(propsTableFK);
+            firstJoin = 1;
+        } else {
+            bld.append(" FROM ").append(mainTable);
+        }
+        appendJoin(bld, mainTableJoin);
+
+        for (int i = firstJoin; i < joined.size(); ++i) {
+            bld.append(" JOIN ").append(propsTable).append(" pf").append(i).append(" ON pf").append(i).append(".")
+                .append(propsTableFK).append(" = ").append(mainTable).append(".id");
+        }
+
+        for (int i = 0; i < joined.size(); ++i) {
+            Map.Entry<String, List<OperatorAndValue>> e = joined.get(i);
+            String alias = "pf" + i;
+
+            and(where);
+            where.append(alias).append(".name = ").append(params.name(e.getKey()));
+
+            List<OperatorAndValue> opValues = e.getValue();
+            for (int j = 0; j < opValues.size(); ++j) {
+                if (opValues.get(j).operator == CustomPredicates.DOES_NOT_EXIST) {
+                    //contradicts the other filters on the property
+                    where.append(" AND 1 = 0");
+                } else {
+                    appendPropertyCondition(alias, where, params, e.getKey(), j, opValues.get(j));
+                }
+            }
+        }
+
+        for (Map.Entry<String, List<OperatorAndValue>> e : probed) {
+            for (int i = 0; i < e.getValue().size(); ++i) {
+                and(where);
+                appendFilter(mainTable, propsTable, propsTableFK, where, params, e.getKey(), i, false);
+            }
+        }
+
+        if (where.length() > 0) {
+            bld.append(" WHERE ").append(where);
+        }
+
+        return new SqlAndParams(bld, params);
+    }
+
+    /**
+     * @return true if the property is compared with a number, using other operator than inequality, or filtered by
+     * an interval
+     */
+    boolean isNumericRangeFiltered(String key) {
+        List<OperatorAndValue> opValues = filters.get(key);
+        if (opValues == null) {
+            return false;
+        }
+
+        for (OperatorAndValue opValue : opValues) {
+            if (numericRangeOperator(opValue) != null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Appends the conditions on the column holding the values of the property converted to doubles that are implied
+     * by the numeric comparisons and intervals on the property. The conversion only preserves the order of the values
+     * loosely, so the conditions are non-strict and the filters themselves need to be evaluated as well.
+     */
+    void appendNumericRange(String key, String column, StringBuilder bld, Parameters params) {
+        List<OperatorAndValue> opValues = filters.get(key);
+        if (opValues == null) {
+            return;
+        }
+
+        for (int i = 0; i < opValues.size(); ++i) {
+            String op = numericRangeOperator(opValues.get(i));
+            if (op == null) {
+                continue;
+            }
+
+            if (opValues.get(i).operator == CustomPredicates.INTERVAL) {
+                bld.append(" AND ").append(column).append(" >= ? AND ").append(column).append(" <= ?");
+                params.addValue(key, i, 0);
+                params.addValue(key, i, 1);
+            } else {
+                bld.append(" AND ").append(column).append(" ").append(op).append(" ?");
+                params.addValue(key, i, 0);
+            }
+        }
+    }
+
+    /**
+     * @return the non-strict operator the double values of the property can be compared with to evaluate the filter
+     * approximately or null if the filter is not a numeric comparison
+     */
+    private static String numericRangeOperator(OperatorAndValue opValue) {
+        Predicate operator = opValue.operator;
+        if (operator == CustomPredicates.INTERVAL) {
+            Interval interval = (Interval) opValue.object;
+            //of the lower bound, the upper one is compared using <=
+            return isNumeric(interval.from) && isNumeric(interval.to) ? ">=" : null;
+        }
+
+        if (!(operator instanceof Query.Compare || operator instanceof com.tinkerpop.blueprints.Compare) ||
+            !isNumeric(opValue.object)) {
+            return null;
+        }
+
+        switch (sqlOperator(operator)) {
+        case "=":
+            return "=";
+        case ">":
+        case ">=":
+            return ">=";
+        case "<":
+        case "<=":
+            return "<=";
+        default:
+            return null;
+        }
+    }
+
+    private static boolean isNumeric(Object value) {
+        ValueType vt = ValueType.of(value, false);
+        return vt != null && vt != ValueType.NULL && vt.isNumeric();
+    }
+
+    private static void appendJoin(StringBuilder bld, String join) {
+        if (join != null) {
+            bld.append(" ").append(join);
+        }
+    }
+
+    /**
+     * Appends the condition on the value of the property joined under the provided alias, if the filter restricts the
+     * value.
+     */
+    private void appendPropertyCondition(String alias, StringBuilder bld, Parameters params, String name,
+        int filterIndex, OperatorAndValue opValue) {
+        Predicate operator = opValue.operator;
+        Object value = opValue.object;
+
+        if (operator == CustomPredicates.EXISTS) {
+            return;
+        }
+
+        if (operator == CustomPredicates.INTERVAL) {
+            String column = alias + "." + storage.intervalColumn();
+            bld.append(" AND ").append(column).append(" >= ? AND ").append(column).append(" < ?");
+            params.addValue(name, filterIndex, 0);
+            params.addValue(name, filterIndex, 1);
+            return;
+        }
+
+        if (operator instanceof Contains) {
+            bld.append(" AND ");
+            appendContainsCondition(alias, bld, params, name, filterIndex, (Contains) operator, (List<?>) value);
+            return;
+        }
+
+        String op = sqlOperator(operator);
+        if (isHashProbed(op, value)) {
+            bld.append(" AND ").append(alias).append(".string_hash = ?");
+            params.addHash(name, filterIndex, 0);
+        }
+        bld.append(" AND ").append(comparedExpression(alias, op, value)).append(" ").append(op).append(" ?");
+        params.addValue(name, filterIndex, 0);
+    }
+
+    /**
+     * Appends the condition of the {@link Contains} filter on the value of the property in the row under the provided
+     * alias. Both the compilations use it, so that they return the same results.
+     * <p/>
+     * The values are compared with the column they'd be stored in, so that the database doesn't need to convert
+     * them, and the strings in the hashed column probe the indexed hash first. A value stored in another column than
+     * the ones of the values is not in the collection.
+     */
+    private void appendContainsCondition(String alias, StringBuilder bld, Parameters params, String name,
+        int filterIndex, Contains operator, List<?> values) {
+        //only the indices of the values are collected so that they can be bound by their position
+        Map<String, List<Integer>> byColumn = new LinkedHashMap<>();
+        for (int i = 0; i < values.size(); ++i) {
+            String column = storage.column(values.get(i));
+            List<Integer> indices = byColumn.get(column);
+            if (indices == null) {
+                indices = new ArrayList<>();
+                byColumn.put(column, indices);
+            }
+            indices.add(i);
+        }
+
+        if (byColumn.isEmpty()) {
+            //nothing is in an empty collection
+            bld.append(operator == Contains.IN ? "1 = 0" : "1 = 1");
+            return;
+        }
+
+        if (operator == Contains.IN) {
+            bld.append("(");
+            String or = "";
+            for (Map.Entry<String, List<Integer>> e : byColumn.entrySet()) {
+                bld.append(or);
+                if (storage.isHashed(e.getKey())) {
+                    bld.append("(");
+                    appendIn(alias + ".string_hash IN ", name, filterIndex, e.getValue(), true, bld, params);
+                    bld.append(" AND ");
+                    appendIn(alias + "." + e.getKey() + " IN ", name, filterIndex, e.getValue(), false, bld, params);
+                    bld.append(")");
+                } else {
+                    appendIn(alias + "." + e.getKey() + " IN ", name, filterIndex, e.getValue(), false, bld, params);
+                }
+                or = " OR ";
+            }
+            bld.append(")");
+        } else {
+            String and = "";
+            for (Map.Entry<String, List<Integer>> e : byColumn.entrySet()) {
+                String column = alias + "." + e.getKey();
+                bld.append(and).append("(").append(column).append(" IS NULL OR ");
+                appendIn(column + " NOT IN ", name, filterIndex, e.getValue(), false, bld, params);
+                bld.append(")");
+                and = " AND ";
+            }
+        }
+    }
+
+    /**
+     * @return the estimated selectivity of the filters on a property, lower is more selective
+     */
+    private static int selectivity(Map.Entry<String, List<OperatorAndValue>> propertyFilters) {
+        int ret = SELECTIVITY_ABSENT;
+        boolean onlyAbsent = true;
+        for (OperatorAndValue opValue : propertyFilters.getValue()) {
+            int s = selectivity(opValue);
+            if (s < SELECTIVITY_ABSENT) {
+                onlyAbsent = false;
+                ret = Math.min(ret, s);
+            }
+        }
+
+        return onlyAbsent ? SELECTIVITY_ABSENT : ret;
+    }
+
+    private static int selectivity(OperatorAndValue opValue) {
+        Predicate operator = opValue.operator;
+        if (operator == CustomPredicates.DOES_NOT_EXIST) {
+            return SELECTIVITY_ABSENT;
+        } else if (operator == CustomPredicates.EXISTS || operator == Contains.NOT_IN) {
+            return SELECTIVITY_ANY;
+        } else if (operator == CustomPredicates.INTERVAL) {
+            return SELECTIVITY_RANGE;
+        } else if (operator == Contains.IN) {
+            return SELECTIVITY_IN;
+        }
+
+        String op = sqlOperator(operator);
+        if ("=".equals(op)) {
+            return SELECTIVITY_EQUAL;
+        } else if ("<>".equals(op)) {
+            return SELECTIVITY_ANY;
+        } else {
+            return SELECTIVITY_RANGE;
+        }
+    }
+
+    /**
+     * Appends the IN list of the values, or their hashes, at the provided indices.
+     */
+    private static void appendIn(String prefix, String name, int filterIndex, List<Integer> indices, boolean hashes,
+        StringBuilder bld, Parameters params) {
+        if (indices.isEmpty()) {
+            return;
+        }
+
+        bld.append(prefix).append("(");
+        for (int i = 0; i < indices.size(); ++i) {
+            bld.append(i == 0 ? "?" : ", ?");
+            int idx = indices.get(i);
+            if (hashes) {
+                params.addHash(name, filterIndex, idx);
+            } else {
+                params.addValue(name, filterIndex, idx);
+            }
+        }
+        bld.append(")");
+    }
+
+    private static void and(StringBuilder where) {
+        if (where.length() > 0) {
+            where.append(" AND ");
+        }
+    }
+
+    /**
+     * @return the code of the column the value is compared with for equality
+     */
+    private char columnCode(Object value) {
+        return storage.column(value).charAt(0);
+    }
+
+    /**
+     * @return the column or expression of the property table the value is compared with using the operator
+     */
+    private String comparedExpression(String table, String operator, Object value) {
+        return "=".equals(operator) ? table + "." + storage.column(value) : storage.rangeExpression(table, value);
+    }
+
+    /**
+     * @return true if the comparison of the value using the operator should probe the <code>string_hash</code> column
+     */
+    private boolean isHashProbed(String operator, Object value) {
+        return "=".equals(operator) && storage.isHashed(storage.column(value));
+    }
+
+    private static List<Object> toList(Iterable<?> values) {
+        List<Object> ret = new ArrayList<>();
+        for (Object v : values) {
+            ret.add(v);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the SQL operator corresponding to one of the comparison predicates
+     */
+    private static String sqlOperator(Predicate operator) {
+        String name = ((Enum<?>) operator).name();
+        switch (name) {
+        case "EQUAL":
+            return "=";
+        case "GREATER_THAN":
+            return ">";
+        case "GREATER_THAN_EQUAL":
+            return ">=";
+        case "LESS_THAN":
+            return "<";
+        case "LESS_THAN_EQUAL":
+            return "<=";
+        case "NOT_EQUAL":
+            return "<>";
+        default:
+            throw new IllegalArgumentException("Not a comparison: " + operator);
+        }
+    }
+
     private void addFilter(Map<String, List<OperatorAndValue>> filters, String property, OperatorAndValue opValue) {
         List<OperatorAndValue> propFilters = filters.get(property);
         if (propFilters == null) {
@@ -123,27 +602,23 @@ final class QueryFilters {
     }
 
     private void appendFilters(String mainTable, String propsTable, String propsTableFK, StringBuilder bld,
-        List<Object> params, String name, List<QueryFilters.OperatorAndValue> opValues, List<String> namesOnMainTable) {
-
-        Iterator<QueryFilters.OperatorAndValue> it = opValues.iterator();
+        Parameters params, String name, List<QueryFilters.OperatorAndValue> opValues, List<String> namesOnMainTable) {
 
         boolean isOnMainTable = namesOnMainTable.contains(name);
 
-        if (it.hasNext()) {
-            appendFilter(mainTable, propsTable, propsTableFK, bld, params, name, it.next(), isOnMainTable);
-        }
-
-        while (it.hasNext()) {
-            bld.append(" AND ");
-            appendFilter(mainTable, propsTable, propsTableFK, bld, params, name, it.next(), isOnMainTable);
+        for (int i = 0; i < opValues.size(); ++i) {
+            if (i > 0) {
+                bld.append(" AND ");
+            }
+            appendFilter(mainTable, propsTable, propsTableFK, bld, params, name, i, isOnMainTable);
         }
     }
 
     private void appendFilter(String mainTable, String propsTable, String propsTableFK, StringBuilder bld,
-        List<Object> params, String name, QueryFilters.OperatorAndValue opValue, boolean isOnMainTable) {
+        Parameters params, String name, int filterIndex, boolean isOnMainTable) {
+        QueryFilters.OperatorAndValue opValue = filters.get(name).get(filterIndex);
         Predicate operator = opValue.operator;
         Object value = opValue.object;
-        ValueType valueType = ValueType.of(value, false);
 
         if (operator instanceof QueryFilters.CustomPredicates) {
             switch ((QueryFilters.CustomPredicates) operator) {
@@ -153,8 +628,7 @@ final class QueryFilters {
                     bld.append("1 = 1"); //this is just to produce valid SQL
                 } else {
                     propertyMatchPrologue(true, bld, mainTable, propsTable, propsTableFK)
-                        .append(propsTable).append(".name = ?)");
-                    params.add(name);
+                        .append(propsTable).append(".name = ").append(params.name(name)).append(")");
                 }
                 break;
             case DOES_NOT_EXIST:
@@ -163,8 +637,7 @@ final class QueryFilters {
                     bld.append("1 = 0");
                 } else {
                     propertyMatchPrologue(false, bld, mainTable, propsTable, propsTableFK)
-                        .append(propsTable).append(".name = ?)");
-                    params.add(name);
+                        .append(propsTable).append(".name = ").append(params.name(name)).append(")");
                 }
                 break;
             case INTERVAL:
@@ -174,113 +647,54 @@ final class QueryFilters {
                     mainPropertyComparison("<", bld, mainTable, name);
                 } else {
                     propertyMatchPrologue(true, bld, mainTable, propsTable, propsTableFK)
-                        .append(propsTable).append(".name = ? AND ")
-                        .append(propsTable).append(".numeric_value >= ? AND ")
-                        .append(propsTable).append(".numeric_value < ?)");
-                    params.add(name);
+                        .append(propsTable).append(".name = ").append(params.name(name)).append(" AND ")
+                        .append(propsTable).append(".").append(storage.intervalColumn()).append(" >= ? AND ")
+                        .append(propsTable).append(".").append(storage.intervalColumn()).append(" < ?)");
                 }
-                params.add(((QueryFilters.Interval) value).from);
-                params.add(((QueryFilters.Interval) value).to);
-                break;
-            }
-        } else if (operator instanceof Query.Compare) {
-            if (!isOnMainTable) {
-                params.add(name);
-            }
-            params.add(value);
-            String op = null;
-            switch ((Query.Compare) operator) {
-            case EQUAL:
-                op = "=";
-                break;
-            case GREATER_THAN:
-                op = ">";
-                break;
-            case GREATER_THAN_EQUAL:
-                op = ">=";
-                break;
-            case LESS_THAN:
-                op = "<";
-                break;
-            case LESS_THAN_EQUAL:
-                op = "<=";
-                break;
-            case NOT_EQUAL:
-                op = "<>";
+                params.addValue(name, filterIndex, 0);
+                params.addValue(name, filterIndex, 1);
                 break;
             }
+        } else if (operator instanceof Query.Compare || operator instanceof com.tinkerpop.blueprints.Compare) {
+            String op = sqlOperator(operator);
 
             if (isOnMainTable) {
+                params.addValue(name, filterIndex, 0);
                 mainPropertyComparison(op, bld, mainTable, name);
             } else {
-                propertyComparison(op, valueType, bld, mainTable, propsTable, propsTableFK);
-            }
-        } else if (operator instanceof com.tinkerpop.blueprints.Compare) {
-            if (!isOnMainTable) {
-                params.add(name);
-            }
-            params.add(value);
-            String op = null;
-            switch ((com.tinkerpop.blueprints.Compare) operator) {
-            case EQUAL:
-                op = "=";
-                break;
-            case GREATER_THAN:
-                op = ">";
-                break;
-            case GREATER_THAN_EQUAL:
-                op = ">=";
-                break;
-            case LESS_THAN:
-                op = "<";
-                break;
-            case LESS_THAN_EQUAL:
-                op = "<=";
-                break;
-            case NOT_EQUAL:
-                op = "<>";
-                break;
-            }
-            if (isOnMainTable) {
-                mainPropertyComparison(op, bld, mainTable, name);
-            } else {
-                propertyComparison(op, valueType, bld, mainTable, propsTable, propsTableFK);
+                String nameParam = params.name(name);
+                String compared = comparedExpression(propsTable, op, value);
+                if (isHashProbed(op, value)) {
+                    params.addHash(name, filterIndex, 0);
+                    compared = propsTable + ".string_hash = ? AND " + compared;
+                }
+                params.addValue(name, filterIndex, 0);
+                propertyComparison(op, nameParam, compared, bld, mainTable, propsTable, propsTableFK);
             }
         } else if (operator instanceof Contains) {
-            Iterable<?> col = (Iterable<?>) value;
-
-            StringBuilder collection = null;
+            List<?> col = (List<?>) value;
 
-            Iterator<?> it = col.iterator();
-            if (it.hasNext()) {
-                collection = new StringBuilder("(");
-                collection.append("?");
-                if (!isOnMainTable) {
-                    params.add(name);
+            if (isOnMainTable) {
+                if (col.isEmpty()) {
+                    bld.append(operator == Contains.IN ? "1 = 0" : "1 = 1");
+                    return;
                 }
-                params.add(it.next());
-            }
 
-            if (collection != null) {
-                while (it.hasNext()) {
-                    collection.append(", ?");
-                    params.add(it.next());
+                StringBuilder collection = new StringBuilder("(");
+                for (int i = 0; i < col.size(); ++i) {
+                    collection.append(i == 0 ? "?" : ", ?");
+                    params.addValue(name, filterIndex, i);
                 }
-
                 collection.append(")");
 
-                if (!isOnMainTable) {
-                    collection.append(")");
-                }
-
                 //trailing space important so that we don't have to special-case the replace below
-                String op = operator == Contains.IN ? "IN " : "NOT IN ";
-                if (isOnMainTable) {
-                    mainPropertyComparison(op, bld, mainTable, name);
-                } else {
-                    propertyComparison(op, valueType, bld, mainTable, propsTable, propsTableFK);
-                }
+                mainPropertyComparison(operator == Contains.IN ? "IN " : "NOT IN ", bld, mainTable, name);
                 bld.replace(bld.length() - 2, bld.length(), collection.toString());
+            } else {
+                propertyMatchPrologue(true, bld, mainTable, propsTable, propsTableFK)
+                    .append(propsTable).append(".name = ").append(params.name(name)).append(" AND ");
+                appendContainsCondition(propsTable, bld, params, name, filterIndex, (Contains) operator, col);
+                bld.append(")");
             }
         }
     }
@@ -293,12 +707,11 @@ final class QueryFilters {
         return bld;
     }
 
-    private void propertyComparison(String operator, ValueType valueType, StringBuilder bld, String mainTable,
-        String propsTable, String propsTableFK) {
+    private void propertyComparison(String operator, String nameParam, String compared, StringBuilder bld,
+        String mainTable, String propsTable, String propsTableFK) {
         propertyMatchPrologue(true, bld, mainTable, propsTable, propsTableFK)
-            .append(propsTable).append(".name = ? AND ")
-            .append(propsTable).append(valueType.isNumeric() ? ".numeric_value" : ".string_value")
-            .append(" ").append(operator).append(" ?)");
+            .append(propsTable).append(".name = ").append(nameParam).append(" AND ")
+            .append(compared).append(" ").append(operator).append(" ?)");
     }
 
     private void mainPropertyComparison(String operator, StringBuilder bld, String mainTable, String name) {
@@ -341,15 +754,189 @@ final class QueryFilters {
             this.operator = operator;
             this.object = object;
         }
+
+        /**
+         * @return the value of the filter at the given index - the bounds of an interval or the elements of
+         * a collection, the value itself otherwise
+         */
+        Object component(int index) {
+            if (object instanceof Interval) {
+                return index == 0 ? ((Interval) object).from : ((Interval) object).to;
+            } else if (operator instanceof Contains) {
+                return ((List<?>) object).get(index);
+            } else {
+                return object;
+            }
+        }
+    }
+
+    /**
+     * Describes where the value of a statement parameter comes from.
+     */
+    static final class Binding {
+        /**
+         * The filtered property or null for a parameter supplied by the caller of {@link CompiledQuery#bind}.
+         */
+        private final String key;
+
+        /**
+         * The index of the filter in the list of the filters on the property or -1 for the name of the property.
+         */
+        private final int filterIndex;
+
+        /**
+         * The index of the value in the filter or the index of the parameter supplied by the caller.
+         */
+        private final int component;
+
+        /**
+         * Whether the parameter is the {@link PropertyStorage#stringHash(String) hash} of the string value.
+         */
+        private final boolean hash;
+
+        private Binding(String key, int filterIndex, int component, boolean hash) {
+            this.key = key;
+            this.filterIndex = filterIndex;
+            this.component = component;
+            this.hash = hash;
+        }
+
+        Object resolve(QueryFilters filters, Object[] externals) {
+            if (key == null) {
+                return externals[component];
+            } else if (filterIndex < 0) {
+                return key;
+            } else {
+                Object value = toParameter(filters.filters.get(key).get(filterIndex).component(component));
+                return hash ? PropertyStorage.stringHash((String) value) : value;
+            }
+        }
+
+        /**
+         * Converts the values that are stored differently than they are represented in Java, so that they can be
+         * compared with the stored ones.
+         */
+        private static Object toParameter(Object value) {
+            if (value instanceof Boolean) {
+                return (Boolean) value ? 1 : 0;
+            } else if (value instanceof Character) {
+                return value.toString();
+            } else {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * The bindings of the parameters of a statement being generated.
+     */
+    static final class Parameters {
+        final List<Binding> bindings = new ArrayList<>();
+        private final Set<String> indexedKeys;
+
+        /**
+         * @param indexedKeys the keys with a key index, whose names are inlined in the statement
+         */
+        Parameters(Set<String> indexedKeys) {
+            this.indexedKeys = indexedKeys;
+        }
+
+        /**
+         * @return the SQL the name of the property is compared with - the name itself for the keys with a key index,
+         * so that the database can match the comparison with the partial indexes of the key, a parameter otherwise
+         */
+        String name(String key) {
+            if (indexedKeys.contains(key)) {
+                return SchemaManager.literal(key);
+            }
+
+            bindings.add(new Binding(key, -1, 0, false));
+            return "?";
+        }
+
+        void addValue(String key, int filterIndex, int component) {
+            bindings.add(new Binding(key, filterIndex, component, false));
+        }
+
+        void addHash(String key, int filterIndex, int component) {
+            bindings.add(new Binding(key, filterIndex, component, true));
+        }
+
+        /**
+         * Inserts a parameter supplied by the caller when binding the compiled query.
+         *
+         * @param position the position of the parameter in the statement
+         * @param index    the index of the parameter among the parameters supplied by the caller
+         */
+        void insertExternal(int position, int index) {
+            bindings.add(position, new Binding(null, -1, index, false));
+        }
+
+        /**
+         * Inserts the parameters of another part of the statement.
+         *
+         * @param position the position of the first of the parameters in the statement
+         */
+        void insertAll(int position, Parameters other) {
+            bindings.addAll(position, other.bindings);
+        }
+
+        void addAll(Parameters other) {
+            bindings.addAll(other.bindings);
+        }
     }
 
     static class SqlAndParams {
         final StringBuilder sql;
-        final List<Object> params;
+        final Parameters params;
 
-        SqlAndParams(StringBuilder sql, List<Object> params) {
+        SqlAndParams(StringBuilder sql, Parameters params) {
             this.sql = sql;
             this.params = params;
         }
+
+        CompiledQuery compile() {
+            return new CompiledQuery(sql.toString(),
+                params.bindings.toArray(new Binding[params.bindings.size()]));
+        }
+    }
+
+    /**
+     * The SQL generated for a query shape together with the plan of binding its parameters.
+     */
+    static final class CompiledQuery {
+        final String sql;
+        private final Binding[] bindings;
+
+        private CompiledQuery(String sql, Binding[] bindings) {
+            this.sql = sql;
+            this.bindings = bindings;
+        }
+
+        /**
+         * Binds the parameters of the statement prepared from the {@link #sql} with the values of the provided
+         * filters, which must have the same shape as the filters the SQL was generated from.
+         *
+         * @param externals the parameters supplied by the caller, in the order of their indices
+         */
+        void bind(PreparedStatement stmt, QueryFilters filters, Object... externals) throws SQLException {
+            for (int i = 0; i < bindings.length; ++i) {
+                stmt.setObject(i + 1, bindings[i].resolve(filters, externals));
+            }
+        }
+
+        /**
+         * Resolves the parameters like {@link #bind(PreparedStatement, QueryFilters, Object...)} does, for the SQL
+         * embedded in a larger statement.
+         *
+         * @return the values of the parameters in the order they appear in the {@link #sql}
+         */
+        Object[] parameters(QueryFilters filters, Object... externals) {
+            Object[] ret = new Object[bindings.length];
+            for (int i = 0; i < bindings.length; ++i) {
+                ret[i] = bindings[i].resolve(filters, externals);
+            }
+            return ret;
+        }
     }
 }
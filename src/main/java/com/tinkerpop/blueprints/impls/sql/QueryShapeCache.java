@@ -0,0 +1,69 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of the SQL compiled for the query shapes, shared by a graph and all its transactions.
+ * <p/>
+ * The key is a string describing the shape of a query - the element type, direction, filtered keys, operators, the
+ * number and types of the values and the limit. Queries of the same shape reuse the SQL and its binding plan instead
+ * of generating it again. Because the SQL is the same, they also hit the same prepared statement in the
+ * {@link Statements} of the connection.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+final class QueryShapeCache {
+
+    private final int maxSize;
+    private final LinkedHashMap<String, QueryFilters.CompiledQuery> queries;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param maxSize the maximum number of cached shapes, 0 disables the cache
+     */
+    QueryShapeCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("sql.queryShapeCacheSize must not be negative");
+        }
+
+        this.maxSize = maxSize;
+        this.queries = new LinkedHashMap<String, QueryFilters.CompiledQuery>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, QueryFilters.CompiledQuery> eldest) {
+                if (size() > QueryShapeCache.this.maxSize) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the query compiled for the shape or null if there is none in the cache
+     */
+    synchronized QueryFilters.CompiledQuery get(String shape) {
+        QueryFilters.CompiledQuery ret = queries.get(shape);
+        if (ret == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+
+        return ret;
+    }
+
+    synchronized void put(String shape, QueryFilters.CompiledQuery query) {
+        if (maxSize > 0) {
+            queries.put(shape, query);
+        }
+    }
+
+    synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(hitCount, missCount, evictionCount, queries.size());
+    }
+}
@@ -0,0 +1,251 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.tinkerpop.blueprints.Direction;
+
+/**
+ * The traversals of the neighborhood of a vertex, walking the edges breadth-first in the database rather than the
+ * client issuing a query per vertex per hop.
+ * <p/>
+ * On PostgreSQL, each traversal is compiled to a single <code>WITH RECURSIVE</code> query over the edges table. The
+ * recursive part of the query extends the walks from the start vertex by one edge of the allowed labels at a time, up
+ * to the maximum depth, and is a <code>UNION</code>, so each vertex is produced at most once per depth.
+ * <p/>
+ * Elsewhere (H2 only supports <code>UNION ALL</code>, which would enumerate every distinct walk, and that grows
+ * exponentially with the depth in dense graphs) the levels are expanded one after the other using
+ * {@link SqlGraph#neighbors(long[], Direction, String...)}, i.e. a query per chunk of each level, and the visited
+ * vertices are remembered so that each of them is expanded only once. That costs a round trip per level (and per
+ * chunk of it) on H2, but keeps the work proportional to the number of edges in the neighborhood. The queries used on
+ * PostgreSQL are generated by the <code>*Query</code> methods so that they can be checked without the database.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+final class RecursiveTraversals {
+
+    private final SqlGraph graph;
+    private final Statements statements;
+    private final boolean postgres;
+
+    RecursiveTraversals(SqlGraph graph, Statements statements) throws SQLException {
+        this.graph = graph;
+        this.statements = statements;
+        this.postgres = "PostgreSQL".equals(statements.getConnection().getMetaData().getDatabaseProductName());
+    }
+
+    /**
+     * @return the ids of the vertices at most maxDepth edges away from the start vertex, other than the start vertex,
+     * ordered by their distance and id
+     */
+    long[] withinDepth(long startId, int maxDepth, Direction direction, String... labels) throws SQLException {
+        if (!postgres) {
+            List<long[]> levels = levels(startId, maxDepth, direction, labels, null);
+            long[] ids = new long[0];
+            for (int i = 1; i < levels.size(); ++i) {
+                long[] level = levels.get(i);
+                ids = Arrays.copyOf(ids, ids.length + level.length);
+                System.arraycopy(level, 0, ids, ids.length - level.length, level.length);
+            }
+            return ids;
+        }
+
+        List<Object> params = new ArrayList<>();
+        return readIds(withinDepthQuery(startId, maxDepth, direction, labels, params), params);
+    }
+
+    /**
+     * @return the ids of the vertices the shortest walk to which from the start vertex has exactly the provided number
+     * of edges, ordered by id
+     */
+    long[] atDepth(long startId, int depth, Direction direction, String... labels) throws SQLException {
+        if (!postgres) {
+            List<long[]> levels = levels(startId, depth, direction, labels, null);
+            return levels.size() > depth ? levels.get(depth) : new long[0];
+        }
+
+        List<Object> params = new ArrayList<>();
+        return readIds(atDepthQuery(startId, depth, direction, labels, params), params);
+    }
+
+    /**
+     * @return true if the target vertex is at most maxDepth edges away from the start vertex
+     */
+    boolean isReachable(long startId, long targetId, int maxDepth, Direction direction, String... labels)
+        throws SQLException {
+        if (!postgres) {
+            for (long[] level : levels(startId, maxDepth, direction, labels, targetId)) {
+                if (Arrays.binarySearch(level, targetId) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        List<Object> params = new ArrayList<>();
+        PreparedStatement stmt = prepare(isReachableQuery(startId, targetId, maxDepth, direction, labels, params),
+            params);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next();
+        } finally {
+            statements.release(stmt);
+        }
+    }
+
+    /**
+     * Expands the levels of the neighborhood of the start vertex one after the other, each of them only by the vertices
+     * not reached by the previous ones.
+     *
+     * @param targetId the id of the vertex to stop the expansion at once it is reached or null to expand all the levels
+     *
+     * @return the sorted ids of the vertices first reached at each depth, starting with the start vertex at depth 0,
+     * or no levels at all if the start vertex doesn't exist
+     */
+    private List<long[]> levels(long startId, int maxDepth, Direction direction, String[] labels, Long targetId) {
+        List<long[]> levels = new ArrayList<>();
+        if (graph.getVertex(startId) == null) {
+            return levels;
+        }
+
+        LongHashSet visited = new LongHashSet();
+        visited.add(startId);
+        long[] frontier = {startId};
+        levels.add(frontier);
+
+        for (int depth = 0; depth < maxDepth && frontier.length > 0; ++depth) {
+            if (targetId != null && Arrays.binarySearch(frontier, targetId) >= 0) {
+                break;
+            }
+
+            LongHashSet next = new LongHashSet();
+            for (Neighbor n : graph.neighbors(frontier, direction, labels)) {
+                if (visited.add(n.getTargetId())) {
+                    next.add(n.getTargetId());
+                }
+            }
+
+            frontier = next.toArray();
+            Arrays.sort(frontier);
+            levels.add(frontier);
+        }
+
+        return levels;
+    }
+
+    /**
+     * Generates the query of {@link #withinDepth(long, int, Direction, String...)} for PostgreSQL.
+     *
+     * @param params the list to add the values of the parameters of the query to, in the order of the placeholders
+     */
+    String withinDepthQuery(long startId, int maxDepth, Direction direction, String[] labels, List<Object> params) {
+        return recursive(startId, maxDepth, direction, labels, params)
+            .append(" SELECT id FROM r GROUP BY id HAVING MIN(depth) > 0 ORDER BY MIN(depth), id").toString();
+    }
+
+    /**
+     * Generates the query of {@link #atDepth(long, int, Direction, String...)} for PostgreSQL.
+     *
+     * @param params the list to add the values of the parameters of the query to, in the order of the placeholders
+     */
+    String atDepthQuery(long startId, int depth, Direction direction, String[] labels, List<Object> params) {
+        return recursive(startId, depth, direction, labels, params)
+            .append(" SELECT id FROM r GROUP BY id HAVING MIN(depth) = ").append(value(depth, params))
+            .append(" ORDER BY id").toString();
+    }
+
+    /**
+     * Generates the query of {@link #isReachable(long, long, int, Direction, String...)} for PostgreSQL.
+     *
+     * @param params the list to add the values of the parameters of the query to, in the order of the placeholders
+     */
+    String isReachableQuery(long startId, long targetId, int maxDepth, Direction direction, String[] labels,
+        List<Object> params) {
+        return recursive(startId, maxDepth, direction, labels, params)
+            .append(" SELECT 1 FROM r WHERE id = ").append(value(targetId, params)).append(" LIMIT 1").toString();
+    }
+
+    /**
+     * Generates the recursive query <code>r(id, depth)</code> of the vertices reachable from the start vertex.
+     */
+    private StringBuilder recursive(long startId, int maxDepth, Direction direction, String[] labels,
+        List<Object> params) {
+        //the id of the vertex on the other side of the edge than the vertex reached so far
+        String next;
+        String join;
+        switch (direction) {
+        case OUT:
+            next = "e.vertex_in";
+            join = "e.vertex_out = r.id";
+            break;
+        case IN:
+            next = "e.vertex_out";
+            join = "e.vertex_in = r.id";
+            break;
+        default:
+            next = "CASE WHEN e.vertex_out = r.id THEN e.vertex_in ELSE e.vertex_out END";
+            join = "e.vertex_out = r.id OR e.vertex_in = r.id";
+        }
+
+        //the anchor is read from the vertices table so that the types of the columns match the recursive part
+        StringBuilder sql = new StringBuilder("WITH RECURSIVE r(id, depth) AS (SELECT id, 0 FROM ")
+            .append(graph.getVerticesTableName()).append(" WHERE id = ").append(value(startId, params));
+
+        sql.append(" UNION SELECT ").append(next).append(", r.depth + 1 FROM r JOIN ")
+            .append(graph.getEdgesTableName()).append(" e ON ").append(join).append(" WHERE r.depth < ")
+            .append(value(maxDepth, params));
+
+        if (labels.length > 0) {
+            sql.append(" AND e.label IN (");
+            for (int i = 0; i < labels.length; ++i) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(value(labels[i], params));
+            }
+            sql.append(")");
+        }
+
+        return sql.append(")");
+    }
+
+    /**
+     * @return the parameter placeholder for the value
+     */
+    private static String value(Object value, List<Object> params) {
+        params.add(value);
+        return "?";
+    }
+
+    private PreparedStatement prepare(String sql, List<Object> params) throws SQLException {
+        PreparedStatement stmt = statements.getQuery(sql);
+        for (int i = 0; i < params.size(); ++i) {
+            stmt.setObject(i + 1, params.get(i));
+        }
+
+        return stmt;
+    }
+
+    private long[] readIds(String sql, List<Object> params) throws SQLException {
+        long[] ids = new long[16];
+        int size = 0;
+
+        PreparedStatement stmt = prepare(sql, params);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
+                }
+                ids[size++] = rs.getLong(1);
+            }
+        } finally {
+            statements.release(stmt);
+        }
+
+        return Arrays.copyOf(ids, size);
+    }
+}
@@ -1,38 +1,98 @@
 package com.tinkerpop.blueprints.impls.sql;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import com.tinkerpop.blueprints.CloseableIterable;
 
 /**
+ * Iterates over the elements generated from the rows of the result set of a query.
+ * <p/>
+ * The query is executed when the iterable is created. If the result set is scrollable, each new iterator starts
+ * over from the beginning of it. Forward-only result sets are streamed from the database and can only be traversed
+ * once, so a new iterator executes the query again. Only one iterator should therefore be used at a time.
+ * <p/>
+ * If the prefetch size is positive, the rows are read in pages of that size and the properties of all the elements
+ * in a page are loaded using a single query before the elements are handed out. This avoids a separate query per
+ * element when the properties of the elements are read during the iteration.
+ *
  * @author Lukas Krejci
  * @since 1.0
  */
 class ResultSetIterable<T> implements CloseableIterable<T> {
     private final ElementGenerator<? extends T> generator;
     private final SqlGraph graph;
-    private final ResultSet rs;
+    private final Statements statements;
+    private final PreparedStatement stmt;
+    private ResultSet rs;
+    private boolean closed;
+    private boolean fresh;
     private final long artificialLimit;
+    private final int prefetchSize;
+    private final List<String> prefetchKeys;
 
     private ResultSetIterable() {
         generator = null;
         graph = null;
-        rs = null;
+        statements = null;
+        stmt = null;
         artificialLimit = -1;
+        prefetchSize = 0;
+        prefetchKeys = null;
     }
 
-    ResultSetIterable(ElementGenerator<? extends T> generator, SqlGraph graph, ResultSet rs) {
-        this(generator, graph, rs, -1);
+    ResultSetIterable(ElementGenerator<? extends T> generator, SqlGraph graph, PreparedStatement stmt) {
+        this(generator, graph, stmt, -1);
     }
 
-    ResultSetIterable(ElementGenerator<? extends T> generator, SqlGraph graph, ResultSet rs, long artificialLimit) {
+    ResultSetIterable(ElementGenerator<? extends T> generator, SqlGraph graph, Statements statements,
+        PreparedStatement stmt) {
+        this(generator, graph, statements, stmt, -1, graph.getPrefetchSize(), null);
+    }
+
+    ResultSetIterable(ElementGenerator<? extends T> generator, SqlGraph graph, PreparedStatement stmt,
+        long artificialLimit) {
+        this(generator, graph, stmt, artificialLimit, graph.getPrefetchSize(), null);
+    }
+
+    /**
+     * @param stmt            the query to execute, owned by the iterable from now on
+     * @param artificialLimit the maximum number of elements to return or -1 for no limit
+     * @param prefetchSize    the number of elements to prefetch the properties of at once, 0 to not prefetch at all
+     * @param prefetchKeys    the names of the properties to prefetch, null to prefetch all of them
+     */
+    ResultSetIterable(ElementGenerator<? extends T> generator, SqlGraph graph, PreparedStatement stmt,
+        long artificialLimit, int prefetchSize, List<String> prefetchKeys) {
+        this(generator, graph, null, stmt, artificialLimit, prefetchSize, prefetchKeys);
+    }
+
+    /**
+     * @param statements the statements the query was obtained from using {@link Statements#getQuery(String)}, the
+     *                   query is released back to them when the iterable is closed. If null, the query is closed.
+     */
+    ResultSetIterable(ElementGenerator<? extends T> generator, SqlGraph graph, Statements statements,
+        PreparedStatement stmt, long artificialLimit, int prefetchSize, List<String> prefetchKeys) {
         this.generator = generator;
         this.graph = graph;
-        this.rs = rs;
+        this.statements = statements;
+        this.stmt = stmt;
         this.artificialLimit = artificialLimit;
+        this.prefetchSize = prefetchSize;
+        this.prefetchKeys = prefetchKeys;
+
+        try {
+            this.rs = stmt.executeQuery();
+            this.fresh = true;
+        } catch (SQLException e) {
+            close();
+            throw new SqlGraphException(e);
+        }
     }
 
     public static <T> ResultSetIterable<T> empty() {
@@ -66,33 +126,35 @@ class ResultSetIterable<T> implements CloseableIterable<T> {
     @Override
     public Iterator<T> iterator() {
         try {
-            rs.beforeFirst();
+            if (fresh) {
+                fresh = false;
+            } else if (rs.getType() == ResultSet.TYPE_FORWARD_ONLY) {
+                rs.close();
+                rs = stmt.executeQuery();
+            } else {
+                rs.beforeFirst();
+            }
         } catch (SQLException e) {
             throw new SqlGraphException(e);
         }
 
+        final ResultSet rs = this.rs;
+
         return new Iterator<T>() {
 
-            T next;
+            final ArrayDeque<T> page = new ArrayDeque<>();
             long cnt;
 
             @Override
             public boolean hasNext() {
-                if (artificialLimit >= 0 && cnt >= artificialLimit) {
-                    return false;
-                }
                 advance();
-                return next != null;
+                return !page.isEmpty();
             }
 
             @Override
             public T next() {
-                try {
-                    advance();
-                    return next;
-                } finally {
-                    next = null;
-                }
+                advance();
+                return page.poll();
             }
 
             @Override
@@ -101,15 +163,29 @@ class ResultSetIterable<T> implements CloseableIterable<T> {
             }
 
             private void advance() {
-                if (next == null) {
-                    try {
-                        if (rs.next()) {
-                            next = generator.generate(graph, rs);
-                            cnt++;
+                if (!page.isEmpty()) {
+                    return;
+                }
+
+                int pageSize = Math.max(1, prefetchSize);
+                List<SqlElement> elements = prefetchSize > 0 ? new ArrayList<SqlElement>(pageSize) : null;
+
+                try {
+                    while (page.size() < pageSize && (artificialLimit < 0 || cnt < artificialLimit) && rs.next()) {
+                        T e = generator.generate(graph, rs);
+                        page.add(e);
+                        cnt++;
+
+                        if (elements != null && e instanceof SqlElement) {
+                            elements.add((SqlElement) e);
                         }
-                    } catch (SQLException e) {
-                        throw new SqlGraphException(e);
                     }
+                } catch (SQLException e) {
+                    throw new SqlGraphException(e);
+                }
+
+                if (elements != null) {
+                    SqlElement.prefetchProperties(graph, elements, prefetchKeys);
                 }
             }
         };
@@ -117,10 +193,25 @@ class ResultSetIterable<T> implements CloseableIterable<T> {
 
     @Override
     public void close() {
+        //a cached statement must not be released twice, it could have been handed out again in the meantime
+        if (closed) {
+            return;
+        }
+        closed = true;
+
         try {
-            rs.close();
+            if (rs != null) {
+                rs.close();
+            }
+            if (statements == null) {
+                stmt.close();
+            }
         } catch (SQLException e) {
             throw new SqlGraphException(e);
+        } finally {
+            if (statements != null) {
+                statements.release(stmt);
+            }
         }
     }
 
@@ -0,0 +1,94 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The id of an element and the values of some of its properties, as returned by the projections of
+ * {@link SqlGraphQuery#select(Class, String...)} and {@link SqlVertexQuery#select(String...)} without creating
+ * the element.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+public final class Row {
+
+    private final long id;
+    private final List<String> keys;
+    private final Object[] values;
+
+    /**
+     * @param keys   the keys of the projected properties, shared by all the rows of a projection
+     * @param values the values of the properties in the order of the keys, null for the missing ones
+     */
+    Row(long id, List<String> keys, Object[] values) {
+        this.id = id;
+        this.keys = keys;
+        this.values = values;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the keys of the projected properties
+     */
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return the value of the property at the index in the {@link #getKeys() keys} or null if the element doesn't
+     * have it
+     */
+    public Object get(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return the value of the property or null if the element doesn't have it
+     *
+     * @throws IllegalArgumentException if the property wasn't projected
+     */
+    public Object get(String key) {
+        int index = keys.indexOf(key);
+        if (index < 0) {
+            throw new IllegalArgumentException("The property '" + key + "' is not projected.");
+        }
+
+        return values[index];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        Row row = (Row) o;
+
+        return id == row.id && keys.equals(row.keys) && Arrays.equals(values, row.values);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + keys.hashCode();
+        result = 31 * result + Arrays.hashCode(values);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("Row[id=").append(id);
+        for (int i = 0; i < values.length; ++i) {
+            sb.append(", ").append(keys.get(i)).append('=').append(values[i]);
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+}
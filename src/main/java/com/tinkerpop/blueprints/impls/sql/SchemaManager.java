@@ -0,0 +1,477 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Creates the schema of the graph and keeps it up to date.
+ * <p/>
+ * The version of the schema is stored in the metadata table. The schema creation scripts create the version 1 of the
+ * schema, which is then upgraded by running the migration scripts, <code>migration-&lt;version&gt;.sql</code>, one
+ * by one until the schema reaches the {@link #CURRENT_VERSION}. A schema created before the versioning was
+ * introduced is considered to be at version 1.
+ * <p/>
+ * Like the schema creation scripts, the migrations can be specialized for a database by prefixing their names with
+ * the database product name, e.g. <code>PostgreSQL-migration-2.sql</code>. The statements of the migrations are
+ * executed in the autocommit mode so that they can build the indexes without blocking the writes to the tables on
+ * the databases that support it. The steps of a migration that can't be expressed in SQL, like computing the
+ * {@link PropertyStorage#stringHash(String) hashes} of the existing string values in the version 3, are performed in
+ * Java after its script.
+ * <p/>
+ * The {@link PropertyStorage layout} of the property tables is recorded in the metadata table as well. The tables are
+ * created with the legacy layout and converted to the typed one using the <code>typed-storage.sql</code> script if
+ * the graph is configured to use it.
+ * <p/>
+ * The key indexes are recorded in the metadata table, too, under <code>key.index.&lt;vertex|edge&gt;.&lt;key&gt;</code>.
+ * On PostgreSQL, each key index consists of the partial indexes of the {@link PropertyStorage#keyIndexColumns() key
+ * index columns} restricted to the rows of the key, built concurrently so that the writes to the property tables can
+ * continue while they are being built. The other databases can't build partial indexes. Because the strings are
+ * looked up using their indexed hashes, only the numbers of the legacy layout on H2, whose schema doesn't index them,
+ * need an index built for the key indexes, which is then shared by all the indexed keys.
+ * <p/>
+ * The {@link VertexCentricIndexes vertex-centric indexes} are recorded under
+ * <code>vertex.centric.index.&lt;definition&gt;</code>. Their entries in the vertex-centric index table, created by
+ * the version 4 of the schema, are populated from the existing edges when they are created and removed when they are
+ * dropped. The graphs read the declared indexes at the start of each transaction and maintain the entries of the
+ * edges they write from then on.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+final class SchemaManager {
+
+    static final int CURRENT_VERSION = 5;
+
+    static final String VERSION_KEY = "schema.version";
+
+    static final String STORAGE_KEY = "property.storage";
+
+    static final String KEY_INDEX_PREFIX = "key.index.";
+
+    private static final String KEY_INDEX_SEQUENCE_KEY = "key.index.sequence";
+
+    static final String VERTEX_CENTRIC_INDEX_PREFIX = "vertex.centric.index.";
+
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+
+    private final SqlGraph graph;
+    private final Connection connection;
+    private final String dbName;
+
+    SchemaManager(SqlGraph graph, Connection connection) throws SQLException {
+        this.graph = graph;
+        this.connection = connection;
+        this.dbName = connection.getMetaData().getDatabaseProductName();
+    }
+
+    void createOrUpgrade() throws SQLException, IOException {
+        if (!tableExists(graph.getVerticesTableName())) {
+            runScript("schema.sql", false);
+        }
+
+        if (!tableExists(graph.getMetadataTableName())) {
+            runScript("metadata.sql", false);
+            setMetadata(VERSION_KEY, "1");
+        }
+
+        connection.commit();
+
+        int version = Integer.parseInt(getMetadata(VERSION_KEY));
+        if (version > CURRENT_VERSION) {
+            throw new IllegalStateException("The schema version " + version + " is newer than the supported version "
+                + CURRENT_VERSION + ".");
+        }
+
+        String storage = getMetadata(STORAGE_KEY);
+        PropertyStorage current = storage == null ? PropertyStorage.LEGACY :
+            PropertyStorage.valueOf(storage.toUpperCase(Locale.ENGLISH));
+
+        while (version < CURRENT_VERSION) {
+            version++;
+            runScript("migration-" + version + ".sql", true);
+            if (version == 3) {
+                backfillStringHashes(graph.getVertexPropertiesTableName(), "vertex_id", current);
+                backfillStringHashes(graph.getEdgePropertiesTableName(), "edge_id", current);
+            }
+            setMetadata(VERSION_KEY, Integer.toString(version));
+            connection.commit();
+        }
+
+        if (current != graph.getPropertyStorage()) {
+            if (current != PropertyStorage.LEGACY) {
+                throw new IllegalStateException("The property tables use the " + storage +
+                    " storage, which can't be converted to " + graph.getPropertyStorage() + ".");
+            }
+
+            runScript("typed-storage.sql", false);
+            setMetadata(STORAGE_KEY, graph.getPropertyStorage().name().toLowerCase(Locale.ENGLISH));
+            connection.commit();
+        }
+    }
+
+    /**
+     * Computes the hashes of the string values of the properties that don't have them yet.
+     */
+    private void backfillStringHashes(String table, String elementIdColumn, PropertyStorage storage)
+        throws SQLException {
+        String select = "SELECT " + elementIdColumn + ", name, " + storage.stringExpression(table) + " FROM " + table +
+            " WHERE value_type IN (" + ValueType.CHARACTER.ordinal() + ", " + ValueType.STRING.ordinal() +
+            ") AND string_hash IS NULL";
+        String update = "UPDATE " + table + " SET string_hash = ? WHERE " + elementIdColumn + " = ? AND name = ?";
+
+        try (PreparedStatement read = connection.prepareStatement(select);
+             PreparedStatement write = connection.prepareStatement(update);
+             ResultSet rs = read.executeQuery()) {
+
+            int batched = 0;
+            while (rs.next()) {
+                write.setLong(1, PropertyStorage.stringHash(rs.getString(3)));
+                write.setLong(2, rs.getLong(1));
+                write.setString(3, rs.getString(2));
+                write.addBatch();
+                if (++batched == BACKFILL_BATCH_SIZE) {
+                    write.executeBatch();
+                    batched = 0;
+                }
+            }
+
+            if (batched > 0) {
+                write.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * @param elementType either <code>vertex</code> or <code>edge</code>
+     *
+     * @return the keys of the properties of the element type that have a key index
+     */
+    Set<String> getIndexedKeys(String elementType) throws SQLException {
+        String prefix = KEY_INDEX_PREFIX + elementType + ".";
+        Set<String> ret = new HashSet<>();
+        try (PreparedStatement st = connection.prepareStatement(
+            "SELECT name FROM " + graph.getMetadataTableName() + " WHERE name LIKE ?")) {
+            st.setString(1, prefix + "%");
+            try (ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    ret.add(rs.getString(1).substring(prefix.length()));
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Builds the indexes for the key and records it among the indexed keys. Commits the current transaction.
+     *
+     * @param elementType     either <code>vertex</code> or <code>edge</code>
+     * @param propertiesTable the table of the properties of the element type
+     */
+    void createKeyIndex(String elementType, String propertiesTable, String key) throws SQLException {
+        connection.commit();
+
+        String metadataKey = KEY_INDEX_PREFIX + elementType + "." + key;
+        if (getMetadata(metadataKey) != null) {
+            return;
+        }
+
+        String sequence = getMetadata(KEY_INDEX_SEQUENCE_KEY);
+        int number = sequence == null ? 1 : Integer.parseInt(sequence) + 1;
+        setMetadata(KEY_INDEX_SEQUENCE_KEY, Integer.toString(number));
+        connection.commit();
+
+        List<String> ddl = new ArrayList<>();
+        if (supportsPartialIndexes()) {
+            for (String column : graph.getPropertyStorage().keyIndexColumns()) {
+                ddl.add("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + keyIndexName(propertiesTable, number, column) +
+                    " ON " + propertiesTable + " (" + column + ") WHERE name = " + literal(key));
+            }
+        } else if (needsSharedKeyIndex()) {
+            ddl.add("CREATE INDEX IF NOT EXISTS " + sharedKeyIndexName(propertiesTable) + " ON " + propertiesTable +
+                " (name, numeric_value)");
+        }
+
+        executeAutoCommitted(ddl);
+
+        setMetadata(metadataKey, Integer.toString(number));
+        connection.commit();
+    }
+
+    /**
+     * Drops the indexes of the key and removes it from the indexed keys. Commits the current transaction.
+     *
+     * @param elementType     either <code>vertex</code> or <code>edge</code>
+     * @param propertiesTable the table of the properties of the element type
+     */
+    void dropKeyIndex(String elementType, String propertiesTable, String key) throws SQLException {
+        connection.commit();
+
+        String metadataKey = KEY_INDEX_PREFIX + elementType + "." + key;
+        String number = getMetadata(metadataKey);
+        if (number == null) {
+            return;
+        }
+
+        deleteMetadata(metadataKey);
+        connection.commit();
+
+        List<String> ddl = new ArrayList<>();
+        if (supportsPartialIndexes()) {
+            for (String column : graph.getPropertyStorage().keyIndexColumns()) {
+                ddl.add("DROP INDEX CONCURRENTLY IF EXISTS " +
+                    keyIndexName(propertiesTable, Integer.parseInt(number), column));
+            }
+        } else if (needsSharedKeyIndex() && getIndexedKeys(elementType).isEmpty()) {
+            ddl.add("DROP INDEX IF EXISTS " + sharedKeyIndexName(propertiesTable));
+        }
+
+        executeAutoCommitted(ddl);
+    }
+
+    /**
+     * @return the declared vertex-centric indexes
+     */
+    Set<VertexCentricIndexes.Definition> getVertexCentricIndexes() throws SQLException {
+        Set<VertexCentricIndexes.Definition> ret = new HashSet<>();
+        try (PreparedStatement st = connection.prepareStatement(
+            "SELECT name FROM " + graph.getMetadataTableName() + " WHERE name LIKE ?")) {
+            st.setString(1, VERTEX_CENTRIC_INDEX_PREFIX + "%");
+            try (ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    ret.add(VertexCentricIndexes.Definition
+                        .decode(rs.getString(1).substring(VERTEX_CENTRIC_INDEX_PREFIX.length())));
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Populates the vertex-centric index from the existing edges and records it among the declared indexes. Commits
+     * the current transaction.
+     * <p/>
+     * The transactions that read the declared indexes before the index was recorded don't index the edges they
+     * write. The index is therefore populated again after it has been recorded, picking up the edges committed while
+     * it was being populated for the first time. Only the edges committed after that by the transactions that already
+     * were writing edge properties when the index was recorded can be missed.
+     */
+    void createVertexCentricIndex(VertexCentricIndexes.Definition index) throws SQLException {
+        connection.commit();
+
+        String metadataKey = VERTEX_CENTRIC_INDEX_PREFIX + index.encode();
+        if (getMetadata(metadataKey) != null) {
+            return;
+        }
+
+        populateVertexCentricIndex(index, 0);
+        setMetadata(metadataKey, "");
+        connection.commit();
+
+        populateVertexCentricIndex(index, 0);
+        connection.commit();
+    }
+
+    /**
+     * Inserts the missing entries of the vertex-centric index for the edges with the id greater or equal to the
+     * provided one.
+     */
+    void populateVertexCentricIndex(VertexCentricIndexes.Definition index, long firstEdgeId) throws SQLException {
+        String column = graph.getPropertyStorage().intervalColumn();
+        try (PreparedStatement st = connection.prepareStatement("INSERT INTO " +
+            graph.getVertexCentricIndexTableName() + " (vertex_id, direction, label, name, sort_value, edge_id) " +
+            "SELECT e." + index.vertexColumn() + ", " + index.directionCode() + ", e.label, p.name, p." + column +
+            ", e.id FROM " + graph.getEdgesTableName() + " e JOIN " + graph.getEdgePropertiesTableName() +
+            " p ON p.edge_id = e.id WHERE e.label = ? AND p.name = ? AND p." + column + " IS NOT NULL AND e.id >= ?" +
+            " AND NOT EXISTS (SELECT 1 FROM " + graph.getVertexCentricIndexTableName() + " vc WHERE vc.edge_id = e.id" +
+            " AND vc.name = p.name AND vc.direction = ?)")) {
+            st.setString(1, index.label);
+            st.setString(2, index.key);
+            st.setLong(3, firstEdgeId);
+            st.setInt(4, index.directionCode());
+            st.executeUpdate();
+        }
+    }
+
+    /**
+     * Removes the vertex-centric index from the declared indexes and deletes its entries. Commits the current
+     * transaction.
+     */
+    void dropVertexCentricIndex(VertexCentricIndexes.Definition index) throws SQLException {
+        connection.commit();
+
+        String metadataKey = VERTEX_CENTRIC_INDEX_PREFIX + index.encode();
+        if (getMetadata(metadataKey) == null) {
+            return;
+        }
+
+        deleteMetadata(metadataKey);
+        try (PreparedStatement st = connection.prepareStatement("DELETE FROM " +
+            graph.getVertexCentricIndexTableName() + " WHERE direction = ? AND label = ? AND name = ?")) {
+            st.setInt(1, index.directionCode());
+            st.setString(2, index.label);
+            st.setString(3, index.key);
+            st.executeUpdate();
+        }
+        connection.commit();
+    }
+
+    private boolean supportsPartialIndexes() {
+        return "PostgreSQL".equals(dbName);
+    }
+
+    private boolean needsSharedKeyIndex() {
+        return "H2".equals(dbName) && graph.getPropertyStorage() == PropertyStorage.LEGACY;
+    }
+
+    private static String keyIndexName(String propertiesTable, int number, String column) {
+        return "idx_" + propertiesTable + "_k" + number + "_" + column;
+    }
+
+    /**
+     * Named like the index of the numbers in the legacy schema of the other databases, so that the conversion to the
+     * typed layout replaces it.
+     */
+    private static String sharedKeyIndexName(String propertiesTable) {
+        return "idx_" + propertiesTable + "_3";
+    }
+
+    /**
+     * @return the string as an SQL literal
+     */
+    static String literal(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    private void executeAutoCommitted(List<String> statements) throws SQLException {
+        boolean originalAutoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(true);
+        try (Statement st = connection.createStatement()) {
+            for (String sql : statements) {
+                st.executeUpdate(sql);
+            }
+        } finally {
+            connection.setAutoCommit(originalAutoCommit);
+        }
+    }
+
+    /**
+     * @return the value stored under the key in the metadata table or null if there is none
+     */
+    String getMetadata(String key) throws SQLException {
+        try (PreparedStatement st = connection.prepareStatement(
+            "SELECT string_value FROM " + graph.getMetadataTableName() + " WHERE name = ?")) {
+            st.setString(1, key);
+            try (ResultSet rs = st.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    void setMetadata(String key, String value) throws SQLException {
+        String table = graph.getMetadataTableName();
+        try (PreparedStatement st = connection.prepareStatement(
+            "UPDATE " + table + " SET string_value = ? WHERE name = ?")) {
+            st.setString(1, value);
+            st.setString(2, key);
+            if (st.executeUpdate() != 0) {
+                return;
+            }
+        }
+
+        try (PreparedStatement st = connection.prepareStatement(
+            "INSERT INTO " + table + " (name, string_value) VALUES (?, ?)")) {
+            st.setString(1, key);
+            st.setString(2, value);
+            st.executeUpdate();
+        }
+    }
+
+    void deleteMetadata(String key) throws SQLException {
+        try (PreparedStatement st = connection.prepareStatement(
+            "DELETE FROM " + graph.getMetadataTableName() + " WHERE name = ?")) {
+            st.setString(1, key);
+            st.executeUpdate();
+        }
+    }
+
+    private boolean tableExists(String tableName) throws SQLException {
+        //a failed statement aborts the whole transaction on some databases
+        Savepoint savepoint = connection.setSavepoint();
+        try (Statement st = connection.createStatement()) {
+            st.execute("SELECT 1 FROM " + tableName + " WHERE 1 = 0");
+            connection.releaseSavepoint(savepoint);
+            return true;
+        } catch (SQLException e) {
+            connection.rollback(savepoint);
+            return false;
+        }
+    }
+
+    private void runScript(String name, boolean autoCommit) throws SQLException, IOException {
+        String contents = loadScript(name);
+
+        boolean originalAutoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(autoCommit);
+        try (Statement st = connection.createStatement()) {
+            for (String inst : contents.split(";")) {
+                // we ensure that there is no spaces before or after the request string
+                // in order to not execute empty statements
+                if (!inst.trim().isEmpty()) {
+                    st.executeUpdate(inst);
+                }
+            }
+        } finally {
+            connection.setAutoCommit(originalAutoCommit);
+        }
+    }
+
+    private String loadScript(String name) throws IOException {
+        InputStream stream = getClass().getClassLoader().getResourceAsStream(dbName + "-" + name);
+        if (stream == null) {
+            stream = getClass().getClassLoader().getResourceAsStream(name);
+        }
+
+        if (stream == null) {
+            throw new AssertionError("Could not load the script " + name + ".");
+        }
+
+        String contents;
+        try (InputStreamReader rdr = new InputStreamReader(stream, "UTF-8")) {
+            StringBuilder bld = new StringBuilder();
+            char[] buffer = new char[512];
+
+            int cnt;
+            while ((cnt = rdr.read(buffer)) != -1) {
+                bld.append(buffer, 0, cnt);
+            }
+
+            contents = bld.toString();
+        }
+
+        //strip the comments so that they don't get split on semicolons
+        contents = contents.replaceAll("(?m)^\\s*--.*$", "");
+
+        contents = contents.replace("%VERTICES%", graph.getVerticesTableName());
+        contents = contents.replace("%VERTEX_PROPERTIES%", graph.getVertexPropertiesTableName());
+        contents = contents.replace("%EDGES%", graph.getEdgesTableName());
+        contents = contents.replace("%EDGE_PROPERTIES%", graph.getEdgePropertiesTableName());
+        contents = contents.replace("%METADATA%", graph.getMetadataTableName());
+        contents = contents.replace("%VERTEX_CENTRIC_INDEX%", graph.getVertexCentricIndexTableName());
+
+        return contents;
+    }
+}
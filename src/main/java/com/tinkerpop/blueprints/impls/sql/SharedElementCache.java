@@ -0,0 +1,113 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The second-level cache shared by a graph and all the transactions started from it using
+ * {@link SqlGraph#newTransaction()}.
+ * <p/>
+ * The cache only ever contains committed data. The transactions don't publish the elements they have modified and
+ * evict them from this cache when they commit. To prevent a transaction that read an element before a concurrent
+ * commit from publishing the stale data after the commit evicted it, each eviction advances an epoch. The data read
+ * from the database can only be published if the epoch didn't change since the read started.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+final class SharedElementCache {
+
+    private final ElementCache<CachedElement> vertices;
+    private final ElementCache<CachedElement> edges;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile long epoch;
+
+    SharedElementCache(ElementCache<CachedElement> vertices, ElementCache<CachedElement> edges) {
+        this.vertices = vertices;
+        this.edges = edges;
+    }
+
+    /**
+     * @return the current epoch, which needs to be obtained before reading the data to be published from the database
+     */
+    long getEpoch() {
+        return epoch;
+    }
+
+    CachedElement getVertex(long id) {
+        return vertices.get(id);
+    }
+
+    CachedElement getEdge(long id) {
+        return edges.get(id);
+    }
+
+    void publishVertex(long id, Map<String, Object> properties, long epoch) {
+        publish(vertices, id, new CachedElement(0, 0, null, properties), epoch);
+    }
+
+    void publishEdge(long id, long inVertexId, long outVertexId, String label, Map<String, Object> properties,
+        long epoch) {
+        publish(edges, id, new CachedElement(inVertexId, outVertexId, label, properties), epoch);
+    }
+
+    /**
+     * Evicts the modified elements and advances the epoch.
+     */
+    void invalidate(long[] vertexIds, long[] edgeIds) {
+        if (vertexIds.length == 0 && edgeIds.length == 0) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            epoch++;
+            for (long id : vertexIds) {
+                vertices.remove(id);
+            }
+            for (long id : edgeIds) {
+                edges.remove(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    CacheStatistics getStatistics() {
+        CacheStatistics v = vertices.getStatistics();
+        CacheStatistics e = edges.getStatistics();
+        return new CacheStatistics(v.getHitCount() + e.getHitCount(), v.getMissCount() + e.getMissCount(),
+            v.getEvictionCount() + e.getEvictionCount(), v.getSize() + e.getSize());
+    }
+
+    private void publish(ElementCache<CachedElement> cache, long id, CachedElement element, long epoch) {
+        lock.readLock().lock();
+        try {
+            if (this.epoch == epoch) {
+                cache.put(id, element);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The committed state of an element. For vertices, only the properties are relevant.
+     */
+    static final class CachedElement {
+        final long inVertexId;
+        final long outVertexId;
+        final String label;
+        final Map<String, Object> properties;
+
+        CachedElement(long inVertexId, long outVertexId, String label, Map<String, Object> properties) {
+            this.inVertexId = inVertexId;
+            this.outVertexId = outVertexId;
+            this.label = label;
+            this.properties = Collections.unmodifiableMap(new HashMap<>(properties));
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A loader for inserting large amounts of new vertices, edges and properties into a {@link SqlGraph}.
+ * <p/>
+ * Instead of issuing one or more statements per element, the loader collects the inserts into JDBC batches of
+ * a configurable size and commits the transaction of the graph after a configurable number of elements. The ids of
+ * the new elements are assigned by the loader itself so that edges and properties can refer to the elements that
+ * have not been flushed to the database yet.
+ * <p/>
+ * Because the ids are assigned on the client, the loader must be the only one adding elements to the graph while it
+ * is in use. The loader only ever inserts data, so each property can only be set once on each element. The properties
+ * can also be set on the elements that existed before the loader was created, which are then evicted from the
+ * {@link SqlGraph#getSharedCacheStatistics() shared cache} when the loader commits.
+ * <p/>
+ * In the thread-isolated mode, the loader works in the transaction of the thread that created it and must only be
+ * used by that thread.
+ * <p/>
+ * The batches are always flushed in the order vertices, edges, vertex properties and edge properties so that
+ * the foreign keys are never violated. Calling {@link #close()} flushes and commits the remaining data.
+ * <p/>
+ * The entries of the {@link SqlGraph#createVertexCentricIndex(String, String, com.tinkerpop.blueprints.Direction)
+ * vertex-centric indexes} of the loaded edges are inserted all at once when the loader is closed, so the queries using
+ * the indexes only see the loaded edges after that.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+public final class SqlBulkLoader implements Closeable {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_COMMIT_INTERVAL = 100000;
+
+    private final SqlGraph graph;
+    private final Statements statements;
+    private final int batchSize;
+    private final int commitInterval;
+
+    private final Batch vertices;
+    private final Batch edges;
+    private final Batch vertexProperties;
+    private final Batch edgeProperties;
+
+    private long nextVertexId;
+    private long nextEdgeId;
+    private final long firstVertexId;
+    private final long firstEdgeId;
+
+    private long loadedElementCount;
+    private long loadedPropertyCount;
+    private long uncommittedCount;
+    private final long startTime;
+    private boolean closed;
+
+    public SqlBulkLoader(SqlGraph graph) {
+        this(graph, DEFAULT_BATCH_SIZE, DEFAULT_COMMIT_INTERVAL);
+    }
+
+    /**
+     * @param graph          the graph to load the data into
+     * @param batchSize      the maximum number of inserts sent to the database in one batch
+     * @param commitInterval the number of elements and properties after which the transaction is committed. The
+     *                       commits only happen when the batches are flushed.
+     */
+    public SqlBulkLoader(SqlGraph graph, int batchSize, int commitInterval) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+
+        if (commitInterval < 1) {
+            throw new IllegalArgumentException("commitInterval must be positive");
+        }
+
+        //the statements belong to the transaction of the calling thread in the thread-isolated mode
+        this.graph = graph.current();
+        this.statements = this.graph.getStatements();
+        this.batchSize = batchSize;
+        this.commitInterval = commitInterval;
+
+        try {
+            nextVertexId = maxId(statements.getMaxVertexId()) + 1;
+            nextEdgeId = maxId(statements.getMaxEdgeId()) + 1;
+            firstVertexId = nextVertexId;
+            firstEdgeId = nextEdgeId;
+
+            vertices = new Batch(statements.getInsertVertex());
+            edges = new Batch(statements.getInsertEdge());
+            vertexProperties = new Batch(statements.getVertexProperties().getInsert());
+            edgeProperties = new Batch(statements.getEdgeProperties().getInsert());
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * @return the id of the new vertex
+     */
+    public long addVertex() {
+        checkOpen();
+
+        long id = nextVertexId++;
+        try {
+            vertices.stmt.setLong(1, id);
+            added(vertices, true);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+
+        return id;
+    }
+
+    /**
+     * @return the id of the new edge
+     */
+    public long addEdge(long outVertexId, long inVertexId, String label) {
+        if (label == null) {
+            throw new IllegalArgumentException("null label");
+        }
+
+        checkOpen();
+
+        long id = nextEdgeId++;
+        try {
+            edges.stmt.setLong(1, id);
+            edges.stmt.setLong(2, inVertexId);
+            edges.stmt.setLong(3, outVertexId);
+            edges.stmt.setString(4, label);
+            added(edges, true);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+
+        return id;
+    }
+
+    public void setVertexProperty(long vertexId, String key, Object value) {
+        ValueType valueType = SqlElement.checkProperty(key, value, SqlVertex.DISALLOWED_PROPERTY_NAMES);
+        checkOpen();
+
+        if (vertexId < firstVertexId) {
+            graph.markVertexModified(vertexId);
+        }
+
+        try {
+            statements.getVertexProperties().bindInsert(vertexProperties.stmt, vertexId, key, value, valueType);
+            added(vertexProperties, false);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    public void setEdgeProperty(long edgeId, String key, Object value) {
+        ValueType valueType = SqlElement.checkProperty(key, value, SqlEdge.DISALLOWED_PROPERTY_NAMES);
+        checkOpen();
+
+        if (edgeId < firstEdgeId) {
+            graph.markEdgeModified(edgeId);
+        }
+
+        try {
+            statements.getEdgeProperties().bindInsert(edgeProperties.stmt, edgeId, key, value, valueType);
+            added(edgeProperties, false);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    /**
+     * Sends all the pending inserts to the database. The transaction is committed if the commit interval has been
+     * reached.
+     */
+    public void flush() {
+        checkOpen();
+
+        try {
+            vertices.execute();
+            edges.execute();
+            vertexProperties.execute();
+            edgeProperties.execute();
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+
+        if (uncommittedCount >= commitInterval) {
+            graph.commit();
+            uncommittedCount = 0;
+        }
+    }
+
+    /**
+     * @return the number of vertices and edges added through this loader
+     */
+    public long getLoadedElementCount() {
+        return loadedElementCount;
+    }
+
+    /**
+     * @return the number of properties set through this loader
+     */
+    public long getLoadedPropertyCount() {
+        return loadedPropertyCount;
+    }
+
+    /**
+     * @return the average number of vertices and edges added per second since this loader was created
+     */
+    public double getElementsPerSecond() {
+        long elapsed = System.nanoTime() - startTime;
+        return elapsed == 0 ? 0 : loadedElementCount * 1_000_000_000d / elapsed;
+    }
+
+    /**
+     * Flushes the pending inserts, commits the transaction and releases the resources held by the loader.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        try {
+            flush();
+            synchronizeIdSequences();
+            populateVertexCentricIndexes();
+            graph.commit();
+        } finally {
+            closed = true;
+            statements.release(vertices.stmt);
+            statements.release(edges.stmt);
+            statements.release(vertexProperties.stmt);
+            statements.release(edgeProperties.stmt);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("SqlBulkLoader");
+        sb.append("[elements=").append(loadedElementCount);
+        sb.append(", properties=").append(loadedPropertyCount);
+        sb.append(", elementsPerSecond=").append((long) getElementsPerSecond());
+        sb.append(']');
+        return sb.toString();
+    }
+
+    private void added(Batch batch, boolean element) throws SQLException {
+        batch.stmt.addBatch();
+        batch.size++;
+        uncommittedCount++;
+
+        if (element) {
+            loadedElementCount++;
+        } else {
+            loadedPropertyCount++;
+        }
+
+        if (batch.size >= batchSize) {
+            flush();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The bulk loader has been closed.");
+        }
+    }
+
+    private long maxId(PreparedStatement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        } finally {
+            statements.release(stmt);
+        }
+    }
+
+    private void populateVertexCentricIndexes() {
+        if (nextEdgeId == firstEdgeId) {
+            return;
+        }
+
+        try {
+            SchemaManager schema = new SchemaManager(graph, statements.getConnection());
+            for (VertexCentricIndexes.Definition index : graph.getVertexCentricIndexSet()) {
+                schema.populateVertexCentricIndex(index, firstEdgeId);
+            }
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    /**
+     * The ids were inserted explicitly, bypassing the sequences generating the ids of the elements normally. Some
+     * databases (like H2) advance the sequence automatically in that case, Postgres needs to be told.
+     */
+    private void synchronizeIdSequences() {
+        Connection connection = statements.getConnection();
+        try {
+            if (!"PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())) {
+                return;
+            }
+
+            try (Statement st = connection.createStatement()) {
+                for (String table : new String[]{graph.getVerticesTableName(), graph.getEdgesTableName()}) {
+                    st.execute("SELECT setval(pg_get_serial_sequence('" + table + "', 'id'), (SELECT MAX(id) FROM " +
+                        table + "))");
+                }
+            }
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    private static final class Batch {
+        final PreparedStatement stmt;
+        int size;
+
+        Batch(PreparedStatement stmt) {
+            this.stmt = stmt;
+        }
+
+        void execute() throws SQLException {
+            if (size > 0) {
+                stmt.executeBatch();
+                size = 0;
+            }
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package com.tinkerpop.blueprints.impls.sql;
 
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
@@ -26,7 +26,7 @@ public final class SqlEdge extends SqlElement implements Edge {
                 long vout = rs.getLong(3);
                 String lbl = rs.getString(4);
 
-                return new SqlEdge(graph, id, vin, vout, lbl);
+                return graph.edgeFor(id, vin, vout, lbl);
             } catch (SQLException e) {
                 throw new SqlGraphException(e);
             }
@@ -54,11 +54,7 @@ public final class SqlEdge extends SqlElement implements Edge {
 
     @Override
     public void remove() {
-        try (PreparedStatement stmt = graph.getStatements().getRemoveEdge(getId())) {
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            throw new SqlGraphException(e);
-        }
+        graph.removeEdge(getId().longValue());
     }
 
     @Override
@@ -76,6 +72,31 @@ public final class SqlEdge extends SqlElement implements Edge {
         return DISALLOWED_PROPERTY_NAMES;
     }
 
+    @Override
+    protected Statements.PropertyStatements getPropertyStatements() {
+        return graph.getStatements().getEdgeProperties();
+    }
+
+    @Override
+    protected void markModified() {
+        graph.markEdgeModified(getId());
+    }
+
+    @Override
+    protected long lastPropertyWrite() {
+        return graph.lastEdgePropertyWrite(getId());
+    }
+
+    @Override
+    protected long recordPropertyWrite() {
+        return graph.recordEdgePropertyWrite(getId());
+    }
+
+    @Override
+    protected void publishProperties(Map<String, Object> properties, long epoch) {
+        graph.publishEdge(getId(), inVertexId, outVertexId, label, properties, epoch);
+    }
+
     @Override
     public Vertex getVertex(Direction direction) throws IllegalArgumentException {
         SqlVertex v = null;
@@ -99,6 +120,26 @@ public final class SqlEdge extends SqlElement implements Edge {
         return v;
     }
 
+    /**
+     * @return the id of the vertex in the provided direction, either {@link Direction#OUT} or {@link Direction#IN}
+     */
+    long getVertexId(Direction direction) {
+        return direction == Direction.OUT ? outVertexId : inVertexId;
+    }
+
+    @Override
+    public void setProperty(String key, Object value) {
+        super.setProperty(key, value);
+        graph.updateVertexCentricIndexes(this, key, value);
+    }
+
+    @Override
+    public <T> T removeProperty(String key) {
+        T value = super.removeProperty(key);
+        graph.updateVertexCentricIndexes(this, key, null);
+        return value;
+    }
+
     @Override
     public String getLabel() {
         return label;
@@ -3,8 +3,11 @@ package com.tinkerpop.blueprints.impls.sql;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.tinkerpop.blueprints.Element;
@@ -19,6 +22,27 @@ abstract class SqlElement implements Element {
     protected final SqlGraph graph;
     private final Long id;
 
+    /**
+     * The cached property values. A key mapped to null is known not to be present on the element.
+     */
+    private Map<String, Object> properties;
+
+    /**
+     * Whether {@link #properties} contain all the properties of the element.
+     */
+    private boolean propertiesComplete;
+
+    /**
+     * The property cache generation of the graph the properties were cached in.
+     */
+    private long propertiesGeneration;
+
+    /**
+     * The sequence number of the last property write to this element, through any of its instances, the cached
+     * properties reflect.
+     */
+    private long propertiesWrite;
+
     protected SqlElement(SqlGraph graph, Long id) {
         if (id == null) {
             throw new IllegalArgumentException("id can't be null");
@@ -33,38 +57,88 @@ abstract class SqlElement implements Element {
     protected abstract String getPropertyTableElementIdName();
 
     protected abstract List<String> getDisallowedPropertyNames();
+
+    protected abstract Statements.PropertyStatements getPropertyStatements();
+
+    /**
+     * Tells the graph that this element is being modified in its current transaction.
+     */
+    protected abstract void markModified();
+
+    /**
+     * @return the sequence number of the last property write to this element in the current transaction, made
+     * through any of the instances of the element, or 0 if there was none
+     */
+    protected abstract long lastPropertyWrite();
+
+    /**
+     * Records a property write to this element in the current transaction.
+     *
+     * @return the sequence number of the write
+     */
+    protected abstract long recordPropertyWrite();
+
+    /**
+     * Offers all the properties of this element, as read from the database, to the second-level cache of the graph.
+     *
+     * @param epoch the epoch of the second-level cache obtained before the properties were read
+     */
+    protected abstract void publishProperties(Map<String, Object> properties, long epoch);
+
     @Override
     @SuppressWarnings("unchecked")
     public <T> T getProperty(String key) {
-        String sql = "SELECT string_value, numeric_value, value_type FROM " + getPropertiesTableName() + " WHERE " +
-            getPropertyTableElementIdName() + " = ? AND name = ?";
+        synchronized (this) {
+            if (isPropertyKnown(key)) {
+                return (T) properties.get(key);
+            }
+        }
 
-        try (PreparedStatement stmt = graph.getConnection().prepareStatement(sql)) {
-            stmt.setLong(1, id);
-            stmt.setString(2, key);
+        if (graph.getPropertyLoading() == SqlGraph.PropertyLoading.EAGER) {
+            return (T) loadProperties().get(key);
+        }
 
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (!rs.next()) {
-                    return null;
-                }
+        Object value = null;
+        long generation = graph.getPropertyCacheGeneration();
+        long write = lastPropertyWrite();
 
-                int valueTypeInt = rs.getInt(3);
-                ValueType valueType = ValueType.values()[valueTypeInt];
+        Statements.PropertyStatements statements = getPropertyStatements();
+        PreparedStatement stmt = null;
+        try {
+            stmt = statements.getGet(id, key);
 
-                return (T) valueType.convertFromDBType(rs.getObject(valueType.isNumeric() ? 2 : 1));
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    value = statements.getStorage().read(rs, 1);
+                }
             }
         } catch (SQLException e) {
             throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
         }
+
+        cacheProperty(key, value, generation, write, write);
+
+        return (T) value;
     }
 
     @Override
     public Set<String> getPropertyKeys() {
-        String sql =
-            "SELECT name FROM " + getPropertiesTableName() + " WHERE " + getPropertyTableElementIdName() + " = ?";
+        synchronized (this) {
+            if (validProperties() != null && propertiesComplete) {
+                return keysOf(properties);
+            }
+        }
 
-        try (PreparedStatement stmt = graph.getConnection().prepareStatement(sql)) {
-            stmt.setLong(1, id);
+        if (graph.getPropertyLoading() == SqlGraph.PropertyLoading.EAGER) {
+            return keysOf(loadProperties());
+        }
+
+        Statements.PropertyStatements statements = getPropertyStatements();
+        PreparedStatement stmt = null;
+        try {
+            stmt = statements.getGetKeys(id);
 
             Set<String> ret = new HashSet<>();
 
@@ -77,71 +151,276 @@ abstract class SqlElement implements Element {
             return ret;
         } catch (SQLException e) {
             throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
         }
     }
 
     @Override
     public void setProperty(String key, Object value) {
-        if (key == null || key.isEmpty()) {
-            throw new IllegalArgumentException("empty key");
+        ValueType valueType = checkProperty(key, value, getDisallowedPropertyNames());
+
+        markModified();
+        long generation = graph.getPropertyCacheGeneration();
+        long write = lastPropertyWrite();
+
+        Statements.PropertyStatements statements = getPropertyStatements();
+        PreparedStatement stmt = null;
+        try {
+            stmt = statements.getUpdate(id, key, value, valueType);
+            boolean updated = stmt.executeUpdate() != 0;
+            statements.release(stmt);
+            stmt = null;
+
+            if (!updated) {
+                stmt = statements.getInsert(id, key, value, valueType);
+                stmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
         }
 
-        if (getDisallowedPropertyNames().contains(key)) {
-            throw new IllegalArgumentException("disallowed property name");
+        cacheProperty(key, value, generation, write, recordPropertyWrite());
+    }
+
+    @Override
+    public <T> T removeProperty(String key) {
+        T value = getProperty(key);
+
+        markModified();
+        long generation = graph.getPropertyCacheGeneration();
+        long write = lastPropertyWrite();
+
+        Statements.PropertyStatements statements = getPropertyStatements();
+        PreparedStatement stmt = null;
+        try {
+            stmt = statements.getRemove(id, key);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
         }
 
-        if (value == null) {
-            throw new IllegalArgumentException("null value not allowed");
+        cacheProperty(key, null, generation, write, recordPropertyWrite());
+
+        return value;
+    }
+
+    /**
+     * Loads all the properties of this element from the database in one go and caches them.
+     *
+     * @return the loaded properties, private to the caller
+     */
+    private Map<String, Object> loadProperties() {
+        long generation = graph.getPropertyCacheGeneration();
+        long write = lastPropertyWrite();
+        long epoch = graph.getSharedCacheEpoch();
+        Map<String, Object> loaded = new HashMap<>();
+
+        Statements.PropertyStatements statements = getPropertyStatements();
+        PreparedStatement stmt = null;
+        try {
+            stmt = statements.getGetAll(id);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    loaded.put(rs.getString(1), statements.getStorage().read(rs, 2));
+                }
+            }
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
         }
 
-        ValueType valueType = ValueType.of(value, true);
-        if (valueType == null) {
-            throw new IllegalArgumentException(
-                "Unsupported value type " + value.getClass() + ". Only primitive types and string are supported.");
+        if (cacheProperties(loaded, null, generation, write)) {
+            publishProperties(loaded, epoch);
         }
 
-        String sql = "UPDATE " + getPropertiesTableName() + " SET " +
-            (valueType.isNumeric() ? "numeric_value" : "string_value") + " = ?, value_type = ? WHERE " +
-            getPropertyTableElementIdName() + " = ? AND name = ?";
+        return loaded;
+    }
 
-        try (PreparedStatement stmt = graph.getConnection().prepareStatement(sql)) {
-            stmt.setObject(1, value);
-            stmt.setInt(2, valueType.ordinal());
-            stmt.setLong(3, id);
-            stmt.setString(4, key);
+    /**
+     * Loads the properties of all the provided elements using a single query and caches them on the elements.
+     *
+     * @param elements the elements to load the properties of, all of the same type
+     * @param names    the names of the properties to load or null to load all of them
+     */
+    static void prefetchProperties(SqlGraph graph, List<? extends SqlElement> elements, List<String> names) {
+        if (elements.isEmpty()) {
+            return;
+        }
+
+        long generation = graph.getPropertyCacheGeneration();
+        long epoch = graph.getSharedCacheEpoch();
+
+        long[] ids = new long[elements.size()];
+        long[] writes = new long[ids.length];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = elements.get(i).getId();
+            writes[i] = elements.get(i).lastPropertyWrite();
+        }
 
-            if (stmt.executeUpdate() == 0) {
-                sql = "INSERT INTO " + getPropertiesTableName() + " (" + getPropertyTableElementIdName() +
-                    ", name, string_value, numeric_value, value_type) VALUES (?, ?, ?, ?, ?)";
+        Map<Long, Map<String, Object>> loaded = new HashMap<>();
 
-                try (PreparedStatement stmt2 = graph.getConnection().prepareStatement(sql)) {
-                    stmt2.setLong(1, id);
-                    stmt2.setString(2, key);
-                    stmt2.setObject(3, valueType.isNumeric() ? null : value);
-                    stmt2.setObject(4, valueType.isNumeric() ? value : null);
-                    stmt2.setInt(5, valueType.ordinal());
+        Statements.PropertyStatements statements = elements.get(0).getPropertyStatements();
+        PreparedStatement stmt = null;
+        try {
+            stmt = statements.getGetAllIn(ids, ids.length, names);
 
-                    stmt2.executeUpdate();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    long id = rs.getLong(1);
+                    Map<String, Object> props = loaded.get(id);
+                    if (props == null) {
+                        props = new HashMap<>();
+                        loaded.put(id, props);
+                    }
+                    props.put(rs.getString(2), statements.getStorage().read(rs, 3));
                 }
             }
         } catch (SQLException e) {
             throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
+        }
+
+        Map<String, Object> none = Collections.emptyMap();
+        for (int i = 0; i < ids.length; ++i) {
+            SqlElement e = elements.get(i);
+            Map<String, Object> props = loaded.get(ids[i]);
+            props = props == null ? none : props;
+            if (e.cacheProperties(props, names, generation, writes[i]) && names == null) {
+                e.publishProperties(props, epoch);
+            }
         }
     }
 
-    @Override
-    public <T> T removeProperty(String key) {
-        T value = getProperty(key);
+    /**
+     * Initializes the property cache of this element with all its properties, e.g. from the second-level cache.
+     */
+    void seedProperties(Map<String, Object> properties) {
+        cacheProperties(properties, null, graph.getPropertyCacheGeneration(), lastPropertyWrite());
+    }
 
-        String sql = "DELETE FROM " + getPropertiesTableName() + " WHERE " + getPropertyTableElementIdName() + " = ? AND name = ?";
-        try (PreparedStatement stmt = graph.getConnection().prepareStatement(sql)) {
-            stmt.setLong(1, id);
-            stmt.setString(2, key);
-            stmt.executeUpdate();
-            return value;
-        } catch (SQLException e) {
-            throw new SqlGraphException(e);
+    /**
+     * Caches the properties loaded from the database.
+     *
+     * @param loaded     the loaded properties
+     * @param names      the names of the properties that were loaded or null if all of them were
+     * @param generation the property cache generation of the graph before the properties were loaded
+     * @param write      the {@link #lastPropertyWrite() last property write} before the properties were loaded
+     * @return false if the properties were not cached because the transaction has been concluded or the element
+     * written to in the meantime
+     */
+    private synchronized boolean cacheProperties(Map<String, Object> loaded, List<String> names, long generation,
+        long write) {
+        if (generation != graph.getPropertyCacheGeneration() || write != lastPropertyWrite()) {
+            return false;
+        }
+
+        if (names == null) {
+            properties = new HashMap<>(loaded);
+            propertiesComplete = true;
+            propertiesGeneration = generation;
+            propertiesWrite = write;
+        } else {
+            for (String name : names) {
+                cacheProperty(name, loaded.get(name), generation, write, write);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Remembers the value of the property. A null value means that the element doesn't have the property.
+     *
+     * @param generation the property cache generation of the graph before the value was read from or written to the
+     *                   database
+     * @param before     the {@link #lastPropertyWrite() last property write} before the value was read or written
+     * @param after      the last property write after the value was read or the write of the value
+     */
+    private synchronized void cacheProperty(String key, Object value, long generation, long before, long after) {
+        if (generation != graph.getPropertyCacheGeneration() || after != lastPropertyWrite()) {
+            return;
+        }
+
+        if (validProperties(before) == null) {
+            properties = new HashMap<>();
+            propertiesComplete = false;
+            propertiesGeneration = generation;
+        }
+
+        properties.put(key, value);
+        propertiesWrite = after;
+    }
+
+    private boolean isPropertyKnown(String key) {
+        return validProperties() != null && (propertiesComplete || properties.containsKey(key));
+    }
+
+    /**
+     * @return the cached properties or null if they were not loaded yet or have been invalidated by the conclusion of
+     * the transaction or a write through another instance of this element
+     */
+    private Map<String, Object> validProperties() {
+        return validProperties(lastPropertyWrite());
+    }
+
+    /**
+     * @param write the last property write the cached properties must reflect to be valid
+     */
+    private Map<String, Object> validProperties(long write) {
+        if (properties != null && (propertiesGeneration != graph.getPropertyCacheGeneration() ||
+            propertiesWrite != write)) {
+            properties = null;
+            propertiesComplete = false;
+        }
+
+        return properties;
+    }
+
+    private static Set<String> keysOf(Map<String, Object> properties) {
+        Set<String> ret = new HashSet<>();
+        for (Map.Entry<String, Object> e : properties.entrySet()) {
+            if (e.getValue() != null) {
+                ret.add(e.getKey());
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Checks that the property can be stored on an element.
+     *
+     * @return the value type to store the value as
+     * @throws IllegalArgumentException if the key or the value are not valid
+     */
+    static ValueType checkProperty(String key, Object value, List<String> disallowedPropertyNames) {
+        if (key == null || key.isEmpty()) {
+            throw new IllegalArgumentException("empty key");
         }
+
+        if (disallowedPropertyNames.contains(key)) {
+            throw new IllegalArgumentException("disallowed property name");
+        }
+
+        if (value == null) {
+            throw new IllegalArgumentException("null value not allowed");
+        }
+
+        ValueType valueType = ValueType.of(value, true);
+        if (valueType == null) {
+            throw new IllegalArgumentException(
+                "Unsupported value type " + value.getClass() + ". Only primitive types and string are supported.");
+        }
+
+        return valueType;
     }
 
     @Override
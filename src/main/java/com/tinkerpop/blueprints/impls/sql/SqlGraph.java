@@ -4,28 +4,36 @@ import java.beans.BeanInfo;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
 import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
 import com.tinkerpop.blueprints.Features;
+import com.tinkerpop.blueprints.KeyIndexableGraph;
+import com.tinkerpop.blueprints.Parameter;
 import com.tinkerpop.blueprints.ThreadedTransactionalGraph;
 import com.tinkerpop.blueprints.TransactionalGraph;
 import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.ExceptionFactory;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationConverter;
@@ -36,8 +44,13 @@ import org.apache.commons.configuration.MapConfiguration;
  * @author Lukas Krejci
  * @since 1.0
  */
-public final class SqlGraph implements ThreadedTransactionalGraph {
+public final class SqlGraph implements ThreadedTransactionalGraph, KeyIndexableGraph {
     private static final Features FEATURES = new Features();
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+    private static final int DEFAULT_ELEMENT_CACHE_SIZE = 10000;
+    private static final int DEFAULT_QUERY_SHAPE_CACHE_SIZE = 256;
+    private static final int NEIGHBORS_CHUNK_SIZE = 512;
+    private static final int NEIGHBORS_PAGE_SIZE = 4096;
 
     static {
         FEATURES.supportsSerializableObjectProperty = false;
@@ -63,9 +76,9 @@ public final class SqlGraph implements ThreadedTransactionalGraph {
         FEATURES.ignoresSuppliedIds = true;
         FEATURES.supportsTransactions = true;
         FEATURES.supportsIndices = false;
-        FEATURES.supportsKeyIndices = false;
-        FEATURES.supportsVertexKeyIndex = false;
-        FEATURES.supportsEdgeKeyIndex = false;
+        FEATURES.supportsKeyIndices = true;
+        FEATURES.supportsVertexKeyIndex = true;
+        FEATURES.supportsEdgeKeyIndex = true;
         FEATURES.supportsEdgeRetrieval = true;
         FEATURES.supportsVertexProperties = true;
         FEATURES.supportsEdgeProperties = true;
@@ -74,14 +87,74 @@ public final class SqlGraph implements ThreadedTransactionalGraph {
     }
 
     private final DataSource dataSource;
+    private final ConnectionPool connectionPool;
+    private final boolean ownsConnectionPool;
+    private volatile ConnectionPool.PooledConnection pooledConnection;
     private volatile Connection connection;
     private volatile Statements statements;
     private final String verticesTableName;
     private final String edgesTableName;
     private final String vertexPropertiesTableName;
     private final String edgePropertiesTableName;
+    private final String metadataTableName;
+    private final String vertexCentricIndexTableName;
+    private final int statementCacheSize;
+    private final PropertyLoading propertyLoading;
+    private final PropertyStorage propertyStorage;
+    private final FilterCompilation filterCompilation;
+    private final QueryShapeCache queryShapeCache;
+    private final IndexedKeys indexedKeys;
+    private final VertexCentricIndexes vertexCentricIndexes;
+    private final int prefetchSize;
+    private final int adjacencyPageSize;
+    private final boolean streamResults;
+    private final int fetchSize;
+    private final Class<?> elementCacheClass;
+    private final int elementCacheSize;
+    private final AtomicLong propertyCacheGeneration = new AtomicLong();
+
+    private final ElementCache<SqlVertex> vertexCache;
+    private final ElementCache<SqlEdge> edgeCache;
 
-    private final WeakHashMap<Long, WeakReference<SqlVertex>> vertexCache = new WeakHashMap<>();
+    /**
+     * The cache of committed elements shared with the parent graph and all its transactions or null if disabled.
+     */
+    private final SharedElementCache sharedCache;
+
+    /**
+     * The ids of the elements modified in the current transaction, only tracked if the shared cache is enabled.
+     */
+    private final LongHashSet modifiedVertexIds = new LongHashSet();
+    private final LongHashSet modifiedEdgeIds = new LongHashSet();
+
+    /**
+     * The sequence numbers of the last property writes to the elements written in the current transaction. Once the
+     * element cache evicts an element that is still in use, a second instance of it can be created, so the instances
+     * compare these numbers to notice the writes made through the other ones.
+     */
+    private final LongLongHashMap vertexPropertyWrites = new LongLongHashMap();
+    private final LongLongHashMap edgePropertyWrites = new LongLongHashMap();
+    private final AtomicLong propertyWriteSequence = new AtomicLong();
+
+    /**
+     * In the thread-isolated mode, the transactions of the threads using this graph, to which all the calls are
+     * delegated. Null otherwise.
+     */
+    private final ThreadLocal<SqlGraph> threadTransactions;
+
+    /**
+     * In the thread-isolated mode, the transactions of the threads that currently hold a connection. Null otherwise.
+     */
+    private final Set<SqlGraph> activeThreadTransactions;
+
+    /**
+     * If this is the transaction of a thread using a graph in the thread-isolated mode, that graph and the thread.
+     * Null otherwise.
+     */
+    private final SqlGraph isolatingGraph;
+    private final Thread owner;
+
+    private final Features features;
 
     /**
      * Instantiates a new SQL graph configured from the provided configuration object.
@@ -98,6 +171,68 @@ public final class SqlGraph implements ThreadedTransactionalGraph {
      * "vertex_properties".</li>
      * <li><code>sql.edgePropertiesTable</code> - the name of the table for edge properties. Defaults to
      * "edge_properties".</li>
+     * <li><code>sql.metadataTable</code> - the name of the table holding the version of the schema and other
+     * metadata about the graph. Defaults to "graph_metadata".</li>
+     * <li><code>sql.vertexCentricIndexTable</code> - the name of the table holding the entries of the
+     * {@link #createVertexCentricIndex(String, String, Direction) vertex-centric indexes}. Defaults to
+     * "vertex_centric_index".</li>
+     * <li><code>sql.statementCacheSize</code> - the maximum number of idle prepared statements kept for reuse on
+     * a connection. Defaults to 64.</li>
+     * <li><code>sql.propertyLoading</code> - either <code>eager</code> to load all the properties of an element in
+     * one query the first time any of them is accessed, or <code>lazy</code> to only load the properties that are
+     * actually accessed, one by one. The loaded properties are cached on the element in both cases. Defaults to
+     * <code>eager</code>.</li>
+     * <li><code>sql.propertyStorage</code> - either <code>legacy</code> to store all the numeric property values in
+     * a single <code>NUMERIC</code> column and the strings in a <code>TEXT</code> column, or <code>typed</code> to
+     * store them in indexable <code>BIGINT</code>, <code>DOUBLE PRECISION</code> and <code>VARCHAR</code> columns,
+     * with only the strings longer than 512 characters stored as <code>TEXT</code>. {@link #createSchemaIfNeeded()}
+     * converts the property tables of an existing graph to the typed layout. The conversion can't be reverted.
+     * Defaults to <code>legacy</code>.</li>
+     * <li><code>sql.filterCompilation</code> - either <code>join</code> to evaluate the property filters of the
+     * queries by joining the property tables, starting with the most selective filter, or <code>subquery</code> to
+     * evaluate each filter using a correlated subquery. Defaults to <code>join</code>.</li>
+     * <li><code>sql.queryShapeCacheSize</code> - the maximum number of query shapes (the element type, direction,
+     * filtered keys, operators, number and types of the values and the limit) for which the generated SQL is kept,
+     * so that the queries of the same shape only bind their values to a cached prepared statement. The cache is
+     * shared by this graph and all its transactions. Defaults to 256, 0 disables the cache.</li>
+     * <li><code>sql.prefetchSize</code> - when iterating over vertices or edges, load the properties of this many
+     * elements at once using a single query. Defaults to 0, which disables the prefetching.</li>
+     * <li><code>sql.adjacencyPageSize</code> - the number of edges read at once by the vertex queries and
+     * {@link SqlVertex#getEdges(Direction, String...)} and {@link SqlVertex#getVertices(Direction, String...)}, each
+     * page using a separate query that continues after the last edge of the previous one. The queries can set it
+     * using {@link SqlVertexQuery#pageSize(int)}. Defaults to 0, which reads all the edges using a single query.
+     * {@link #neighbors(long[], Direction, String...)} always reads the edges in pages, of 4096 edges unless this is
+     * set.</li>
+     * <li><code>sql.streamResults</code> - if true, the results of the queries are read using forward-only
+     * result sets so that the driver can stream them instead of loading them into memory in full. Each iteration
+     * over such results then executes the query again. Defaults to false.</li>
+     * <li><code>sql.fetchSize</code> - the number of rows to fetch from the database at once when reading the
+     * results of the queries. Defaults to 0, which leaves the choice to the driver.</li>
+     * <li><code>sql.elementCache.size</code> - the maximum number of vertices and, separately, edges cached by
+     * the graph along with their properties. Defaults to 10000.</li>
+     * <li><code>sql.elementCache.class</code> - the {@link ElementCache} implementation to use. Defaults to
+     * {@link StripedLruElementCache}.</li>
+     * <li><code>sql.sharedCache.size</code> - the maximum number of vertices and, separately, edges kept in
+     * a second-level cache shared by this graph and all the transactions started from it using
+     * {@link #newTransaction()}. The cache only contains committed data and the elements are evicted from it when
+     * a transaction modifying them is committed. Defaults to 0, which disables the cache.</li>
+     * <li><code>sql.pool.maxSize</code> - the maximum number of connections in the pool used by this graph and
+     * the transactions started from it. The pooled connections keep their prepared statements across transactions.
+     * Defaults to 0, which disables the pool so that each transaction opens its own connection.</li>
+     * <li><code>sql.pool.minSize</code> - the number of connections not closed by the pool even if they are idle
+     * for too long. The connections are only opened when needed. Defaults to 0.</li>
+     * <li><code>sql.pool.maxIdleTime</code> - the number of milliseconds after which an idle connection is closed.
+     * Defaults to 600000.</li>
+     * <li><code>sql.pool.maxWait</code> - the maximum number of milliseconds to wait for a connection when all of
+     * them are in use. Defaults to 30000.</li>
+     * <li><code>sql.pool.validationTimeout</code> - the timeout in seconds of the validation of an idle connection
+     * before it is reused. Defaults to 5, 0 disables the validation.</li>
+     * <li><code>sql.threadIsolatedTransactions</code> - if true, each thread using the graph transparently works in
+     * its own transaction with its own connection, which is best combined with the connection pool. The
+     * {@link #commit()} and {@link #rollback()} methods then only conclude the transaction of the calling thread and
+     * the elements obtained in one thread should not be passed to other threads. A thread keeps its connection until
+     * it terminates or shuts the graph down. The transactions of the threads that terminate without concluding them
+     * are rolled back. Defaults to false, in which case all the threads share the same transaction.</li>
      * </ul>
      *
      * @param configuration the configuration to use
@@ -112,6 +247,64 @@ public final class SqlGraph implements ThreadedTransactionalGraph {
         edgesTableName = configuration.getString("sql.edgesTable", "edges");
         vertexPropertiesTableName = configuration.getString("sql.vertexPropertiesTable", "vertex_properties");
         edgePropertiesTableName = configuration.getString("sql.edgePropertiesTable", "edge_properties");
+        metadataTableName = configuration.getString("sql.metadataTable", "graph_metadata");
+        vertexCentricIndexTableName = configuration.getString("sql.vertexCentricIndexTable", "vertex_centric_index");
+        statementCacheSize = configuration.getInt("sql.statementCacheSize", DEFAULT_STATEMENT_CACHE_SIZE);
+        if (statementCacheSize < 1) {
+            throw new IllegalArgumentException("sql.statementCacheSize must be positive");
+        }
+        propertyLoading = PropertyLoading
+            .valueOf(configuration.getString("sql.propertyLoading", "eager").toUpperCase(Locale.ENGLISH));
+        propertyStorage = PropertyStorage
+            .valueOf(configuration.getString("sql.propertyStorage", "legacy").toUpperCase(Locale.ENGLISH));
+        filterCompilation = FilterCompilation
+            .valueOf(configuration.getString("sql.filterCompilation", "join").toUpperCase(Locale.ENGLISH));
+        queryShapeCache = new QueryShapeCache(
+            configuration.getInt("sql.queryShapeCacheSize", DEFAULT_QUERY_SHAPE_CACHE_SIZE));
+        indexedKeys = new IndexedKeys();
+        vertexCentricIndexes = new VertexCentricIndexes();
+        prefetchSize = configuration.getInt("sql.prefetchSize", 0);
+        if (prefetchSize < 0) {
+            throw new IllegalArgumentException("sql.prefetchSize must not be negative");
+        }
+        adjacencyPageSize = configuration.getInt("sql.adjacencyPageSize", 0);
+        if (adjacencyPageSize < 0) {
+            throw new IllegalArgumentException("sql.adjacencyPageSize must not be negative");
+        }
+        streamResults = configuration.getBoolean("sql.streamResults", false);
+        fetchSize = configuration.getInt("sql.fetchSize", 0);
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException("sql.fetchSize must not be negative");
+        }
+        elementCacheSize = configuration.getInt("sql.elementCache.size", DEFAULT_ELEMENT_CACHE_SIZE);
+        elementCacheClass = Class.forName(
+            configuration.getString("sql.elementCache.class", StripedLruElementCache.class.getName()));
+        vertexCache = newElementCache();
+        edgeCache = newElementCache();
+        int sharedCacheSize = configuration.getInt("sql.sharedCache.size", 0);
+        if (sharedCacheSize < 0) {
+            throw new IllegalArgumentException("sql.sharedCache.size must not be negative");
+        }
+        sharedCache = sharedCacheSize == 0 ? null : new SharedElementCache(
+            this.<SharedElementCache.CachedElement>newElementCache(sharedCacheSize),
+            this.<SharedElementCache.CachedElement>newElementCache(sharedCacheSize));
+        int poolSize = configuration.getInt("sql.pool.maxSize", 0);
+        connectionPool = poolSize == 0 ? null : new ConnectionPool(this, configuration.getInt("sql.pool.minSize", 0),
+            poolSize, configuration.getLong("sql.pool.maxIdleTime", 600000),
+            configuration.getLong("sql.pool.maxWait", 30000), configuration.getInt("sql.pool.validationTimeout", 5));
+        ownsConnectionPool = true;
+        if (configuration.getBoolean("sql.threadIsolatedTransactions", false)) {
+            threadTransactions = new ThreadLocal<>();
+            activeThreadTransactions = Collections.newSetFromMap(new ConcurrentHashMap<SqlGraph, Boolean>());
+            features = FEATURES.copyFeatures();
+            features.supportsThreadIsolatedTransactions = true;
+        } else {
+            threadTransactions = null;
+            activeThreadTransactions = null;
+            features = FEATURES;
+        }
+        isolatingGraph = null;
+        owner = null;
     }
 
     public SqlGraph(Map<String, Object> configuration) throws Exception {
@@ -145,74 +338,242 @@ public final class SqlGraph implements ThreadedTransactionalGraph {
     }
 
     public SqlGraph(DataSource dataSource) {
-        this(dataSource, null);
-    }
-
-    private SqlGraph(DataSource dataSource, Connection connection) {
         this.dataSource = dataSource;
-        this.connection = connection;
         verticesTableName = "vertices";
         edgesTableName = "edges";
         vertexPropertiesTableName = "vertex_properties";
         edgePropertiesTableName = "edge_properties";
+        metadataTableName = "graph_metadata";
+        vertexCentricIndexTableName = "vertex_centric_index";
+        statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+        propertyLoading = PropertyLoading.EAGER;
+        propertyStorage = PropertyStorage.LEGACY;
+        filterCompilation = FilterCompilation.JOIN;
+        queryShapeCache = new QueryShapeCache(DEFAULT_QUERY_SHAPE_CACHE_SIZE);
+        indexedKeys = new IndexedKeys();
+        vertexCentricIndexes = new VertexCentricIndexes();
+        prefetchSize = 0;
+        adjacencyPageSize = 0;
+        streamResults = false;
+        fetchSize = 0;
+        elementCacheSize = DEFAULT_ELEMENT_CACHE_SIZE;
+        elementCacheClass = StripedLruElementCache.class;
+        vertexCache = newElementCache();
+        edgeCache = newElementCache();
+        sharedCache = null;
+        connectionPool = null;
+        ownsConnectionPool = false;
+        threadTransactions = null;
+        activeThreadTransactions = null;
+        isolatingGraph = null;
+        owner = null;
+        features = FEATURES;
+    }
+
+    /**
+     * @param connection       the connection of the transaction or null to obtain one when it is first needed
+     * @param pooledConnection the pooled connection the connection belongs to, if any
+     * @param owner            the thread if this is the transaction of a thread using the parent graph in
+     *                         the thread-isolated mode, null otherwise
+     */
+    private SqlGraph(SqlGraph parent, Connection connection, ConnectionPool.PooledConnection pooledConnection,
+        Thread owner) {
+        this.dataSource = parent.dataSource;
+        this.connectionPool = parent.connectionPool;
+        this.ownsConnectionPool = false;
+        this.threadTransactions = null;
+        this.activeThreadTransactions = null;
+        this.isolatingGraph = owner == null ? null : parent;
+        this.owner = owner;
+        this.features = FEATURES;
+        this.pooledConnection = pooledConnection;
+        this.connection = connection;
+        verticesTableName = parent.verticesTableName;
+        edgesTableName = parent.edgesTableName;
+        vertexPropertiesTableName = parent.vertexPropertiesTableName;
+        edgePropertiesTableName = parent.edgePropertiesTableName;
+        metadataTableName = parent.metadataTableName;
+        vertexCentricIndexTableName = parent.vertexCentricIndexTableName;
+        statementCacheSize = parent.statementCacheSize;
+        propertyLoading = parent.propertyLoading;
+        propertyStorage = parent.propertyStorage;
+        filterCompilation = parent.filterCompilation;
+        queryShapeCache = parent.queryShapeCache;
+        indexedKeys = parent.indexedKeys;
+        vertexCentricIndexes = new VertexCentricIndexes();
+        prefetchSize = parent.prefetchSize;
+        adjacencyPageSize = parent.adjacencyPageSize;
+        streamResults = parent.streamResults;
+        fetchSize = parent.fetchSize;
+        elementCacheSize = parent.elementCacheSize;
+        elementCacheClass = parent.elementCacheClass;
+        vertexCache = newElementCache();
+        edgeCache = newElementCache();
+        sharedCache = parent.sharedCache;
+        if (pooledConnection != null) {
+            statements = pooledConnection.statements;
+        } else if (connection != null) {
+            statements = new Statements(this, connection);
+        }
     }
 
+    /**
+     * Creates the tables of the graph if they don't exist yet and upgrades the existing ones to the latest version
+     * of the schema.
+     */
     public void createSchemaIfNeeded() throws SQLException, IOException {
+        if (threadTransactions != null) {
+            current().createSchemaIfNeeded();
+            return;
+        }
+
         ensureConnection();
+        new SchemaManager(this, connection).createOrUpgrade();
+    }
 
-        try (Statement st = connection.createStatement()) {
-            st.execute("SELECT 1 FROM " + getVerticesTableName());
+    /**
+     * Creates an index of the values of the property with the provided key. The filters on the key then look the
+     * values up in the index.
+     * <p/>
+     * On PostgreSQL, the index is built concurrently, without blocking the writes to the properties. The current
+     * transaction is committed before the index is built.
+     */
+    @Override
+    public <T extends Element> void createKeyIndex(String key, Class<T> elementClass, Parameter... indexParameters) {
+        if (threadTransactions != null) {
+            current().createKeyIndex(key, elementClass, indexParameters);
             return;
-        } catch (SQLException ignored) {
-            //good, the schema doesn't exist. Let's continue
         }
 
-        String dbName = connection.getMetaData().getDatabaseProductName();
-        String script = dbName + "-schema.sql";
-        InputStream schemaStream = getClass().getClassLoader().getResourceAsStream(script);
-        if (schemaStream == null) {
-            schemaStream = getClass().getClassLoader().getResourceAsStream("schema.sql");
+        String elementType = indexedElementType(elementClass);
+        try {
+            commit();
+            new SchemaManager(this, getConnection()).createKeyIndex(elementType, propertiesTableName(elementClass), key);
+            reloadIndexedKeys(elementClass);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
         }
+    }
 
-        if (schemaStream == null) {
-            throw new AssertionError("Could not load the schema creation script.");
+    /**
+     * Drops the index of the values of the property with the provided key. The current transaction is committed
+     * before the index is dropped.
+     */
+    @Override
+    public <T extends Element> void dropKeyIndex(String key, Class<T> elementClass) {
+        if (threadTransactions != null) {
+            current().dropKeyIndex(key, elementClass);
+            return;
         }
 
-        String contents = null;
-        try (InputStreamReader rdr = new InputStreamReader(schemaStream)) {
-            StringBuilder bld = new StringBuilder();
-            char[] buffer = new char[512];
+        String elementType = indexedElementType(elementClass);
+        try {
+            commit();
+            new SchemaManager(this, getConnection()).dropKeyIndex(elementType, propertiesTableName(elementClass), key);
+            reloadIndexedKeys(elementClass);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
 
-            int cnt;
-            while ((cnt = rdr.read(buffer)) != -1) {
-                bld.append(buffer, 0, cnt);
-            }
+    @Override
+    public <T extends Element> Set<String> getIndexedKeys(Class<T> elementClass) {
+        indexedElementType(elementClass);
+        return getIndexedKeySet(elementClass);
+    }
 
-            contents = bld.toString();
+    /**
+     * Creates a vertex-centric index of the numeric values of the property with the provided key on the edges with
+     * the label, looked up from the vertices in the direction. {@link Direction#BOTH} creates the indexes for both the
+     * outgoing and the incoming edges.
+     * <p/>
+     * The vertex queries of a single label in the indexed direction then use the index to order the edges by the
+     * property ({@link SqlVertexQuery#orderBy(String, Order)}) and to filter them by the ranges of its values, so
+     * that the cost of a query with a limit depends on the limit rather than on the number of the edges of the
+     * vertex. The values that aren't numbers or booleans aren't indexed.
+     * <p/>
+     * The current transaction is committed before the index is created.
+     */
+    public void createVertexCentricIndex(String label, String key, Direction direction) {
+        if (threadTransactions != null) {
+            current().createVertexCentricIndex(label, key, direction);
+            return;
         }
 
-        contents = contents.replace("%VERTICES%", verticesTableName);
-        contents = contents.replace("%VERTEX_PROPERTIES%", vertexPropertiesTableName);
-        contents = contents.replace("%EDGES%", edgesTableName);
-        contents = contents.replace("%EDGE_PROPERTIES%", edgePropertiesTableName);
+        checkVertexCentricIndex(label, key, direction);
+        try {
+            commit();
+            SchemaManager schema = new SchemaManager(this, getConnection());
+            for (VertexCentricIndexes.Definition index : vertexCentricIndexDefinitions(label, key, direction)) {
+                schema.createVertexCentricIndex(index);
+            }
+            reloadVertexCentricIndexes();
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
 
-        String[] inst = contents.split(";");
-        Statement st = connection.createStatement();
+    /**
+     * Drops the vertex-centric index of the property with the provided key on the edges with the label.
+     * {@link Direction#BOTH} drops the indexes of both directions. The current transaction is committed before the
+     * index is dropped.
+     */
+    public void dropVertexCentricIndex(String label, String key, Direction direction) {
+        if (threadTransactions != null) {
+            current().dropVertexCentricIndex(label, key, direction);
+            return;
+        }
 
-        for (int i = 0; i < inst.length; i++) {
-            // we ensure that there is no spaces before or after the request string
-            // in order to not execute empty statements
-            if (!inst[i].trim().equals("")) {
-                st.executeUpdate(inst[i]);
+        checkVertexCentricIndex(label, key, direction);
+        try {
+            commit();
+            SchemaManager schema = new SchemaManager(this, getConnection());
+            for (VertexCentricIndexes.Definition index : vertexCentricIndexDefinitions(label, key, direction)) {
+                schema.dropVertexCentricIndex(index);
             }
+            reloadVertexCentricIndexes();
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    private static void checkVertexCentricIndex(String label, String key, Direction direction) {
+        if (label == null) {
+            throw new IllegalArgumentException("null label");
+        }
+
+        if (key == null) {
+            throw new IllegalArgumentException("null key");
+        }
+
+        if (direction == null) {
+            throw new IllegalArgumentException("null direction");
         }
     }
 
+    private static List<VertexCentricIndexes.Definition> vertexCentricIndexDefinitions(String label, String key,
+        Direction direction) {
+        List<VertexCentricIndexes.Definition> ret = new ArrayList<>(2);
+        if (direction != Direction.IN) {
+            ret.add(new VertexCentricIndexes.Definition(Direction.OUT, label, key));
+        }
+        if (direction != Direction.OUT) {
+            ret.add(new VertexCentricIndexes.Definition(Direction.IN, label, key));
+        }
+
+        return ret;
+    }
+
     @Override
     public TransactionalGraph newTransaction() {
         try {
-            Connection conn = newConnection();
-            return new SqlGraph(dataSource, conn);
+            if (connectionPool != null) {
+                ConnectionPool.PooledConnection pc = connectionPool.borrow();
+                return new SqlGraph(this, pc.connection, pc, null);
+            }
+
+            Connection conn = openConnection();
+            return new SqlGraph(this, conn, null, null);
         } catch (SQLException e) {
             throw new SqlGraphException(e);
         }
@@ -229,9 +590,19 @@ public final class SqlGraph implements ThreadedTransactionalGraph {
 
     @Override
     public void commit() {
+        if (threadTransactions != null) {
+            current().commit();
+            return;
+        }
+
+        if (isolatingGraph != null && connection == null) {
+            //the thread hasn't used the graph yet
+            return;
+        }
+
         try {
             ensureConnection();
-            connection.commit();
+            commitConnection();
         } catch (SQLException e) {
             throw new SqlGraphException(e);
         }
@@ -239,9 +610,25 @@ public final class SqlGraph implements ThreadedTransactionalGraph {
 
     @Override
     public void rollback() {
+        if (threadTransactions != null) {
+            current().rollback();
+            return;
+        }
+
+        if (isolatingGraph != null && connection == null) {
+            return;
+        }
+
         try {
             ensureConnection();
+            propertyCacheGeneration.incrementAndGet();
+            vertexCache.clear();
+            edgeCache.clear();
+            vertexCentricIndexes.clear();
             connection.rollback();
+            clearPropertyWrites();
+            takeModifiedIds(modifiedVertexIds);
+            takeModifiedIds(modifiedEdgeIds);
         } catch (SQLException e) {
             throw new SqlGraphException(e);
         }
@@ -249,78 +636,113 @@ public final class SqlGraph implements ThreadedTransactionalGraph {
 
     @Override
     public Features getFeatures() {
-        return FEATURES;
+        return features;
     }
 
     @Override
     public Vertex addVertex(Object id) {
+        if (threadTransactions != null) {
+            return current().addVertex(id);
+        }
+
         ensureConnection();
-        try (PreparedStatement stmt = statements.getAddVertex()) {
+        PreparedStatement stmt = null;
+        try {
+            stmt = statements.getAddVertex();
             if (stmt.executeUpdate() == 0) {
                 return null;
             }
             try (ResultSet rs = stmt.getGeneratedKeys()) {
-                return cache(statements.fromVertexResultSet(rs));
+                SqlVertex v = statements.fromVertexResultSet(this, rs);
+                if (v != null) {
+                    markVertexModified(v.getId());
+                }
+                return v;
             }
         } catch (SQLException e) {
             throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
         }
     }
 
     @Override
     public SqlVertex getVertex(Object id) {
+        if (threadTransactions != null) {
+            return current().getVertex(id);
+        }
+
         Long realId = getId(id);
 
         if (realId == null) {
             return null;
         }
 
-        WeakReference<SqlVertex> ref = vertexCache.get(realId);
-
-        SqlVertex v = ref == null ? null : ref.get();
+        SqlVertex v = vertexCache.get(realId);
         if (v != null) {
             return v;
         }
 
+        SharedElementCache.CachedElement cached = sharedVertex(realId);
+        if (cached != null) {
+            return cacheVertex(realId, cached);
+        }
+
         ensureConnection();
-        try (PreparedStatement stmt = statements.getGetVertex(realId)) {
+        PreparedStatement stmt = null;
+        try {
+            stmt = statements.getGetVertex(realId);
             if (!stmt.execute()) {
                 return null;
             }
 
             try (ResultSet rs = stmt.getResultSet()) {
-                return cache(statements.fromVertexResultSet(rs));
+                return rs.next() ? cacheVertex(realId, null) : null;
             }
         } catch (SQLException e) {
             throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
         }
     }
 
     @Override
     public void removeVertex(Vertex vertex) {
-        ensureConnection();
-        try (PreparedStatement stmt = statements.getRemoveVertex((Long) vertex.getId())) {
-            if (stmt.executeUpdate() == 0) {
-                throw new IllegalStateException("Vertex with id " + vertex.getId() + " doesn't exist.");
-            }
-            vertexCache.remove(vertex.getId());
-        } catch (SQLException e) {
-            throw new SqlGraphException(e);
+        if (threadTransactions != null) {
+            current().removeVertex(vertex);
+            return;
+        }
+
+        if (!removeVertex((Long) vertex.getId())) {
+            throw new IllegalStateException("Vertex with id " + vertex.getId() + " doesn't exist.");
         }
     }
 
     @Override
     public CloseableIterable<Vertex> getVertices() {
+        if (threadTransactions != null) {
+            return current().getVertices();
+        }
+
         ensureConnection();
         try {
-            PreparedStatement stmt = statements.getAllVertices();
+            return new ResultSetIterable<Vertex>(SqlVertex.GENERATOR, this, statements, statements.getAllVertices());
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
 
-            if (!stmt.execute()) {
-                stmt.close();
-                return ResultSetIterable.empty();
-            }
+    /**
+     * Reads the ids of all the vertices without creating the vertices.
+     */
+    public IdIterator vertexIds() {
+        if (threadTransactions != null) {
+            return current().vertexIds();
+        }
 
-            return new ResultSetIterable<Vertex>(SqlVertex.GENERATOR, this, stmt.getResultSet());
+        ensureConnection();
+        try {
+            return new IdIterator(statements, statements.getAllVertices(), -1);
         } catch (SQLException e) {
             throw new SqlGraphException(e);
         }
@@ -333,50 +755,69 @@ public final class SqlGraph implements ThreadedTransactionalGraph {
 
     @Override
     public SqlEdge addEdge(Object id, Vertex outVertex, Vertex inVertex, String label) {
+        if (threadTransactions != null) {
+            return current().addEdge(id, outVertex, inVertex, label);
+        }
+
         if (label == null) {
             throw new IllegalArgumentException("null label");
         }
 
         ensureConnection();
 
-        try (PreparedStatement stmt = statements
-            .getAddEdge((Long) inVertex.getId(), (Long) outVertex.getId(), label)) {
+        long inVertexId = (Long) inVertex.getId();
+        long outVertexId = (Long) outVertex.getId();
+
+        PreparedStatement stmt = null;
+        try {
+            stmt = statements.getAddEdge(inVertexId, outVertexId, label);
 
             if (stmt.executeUpdate() == 0) {
                 return null;
             }
 
-            long eid = -1;
             try (ResultSet rs = stmt.getGeneratedKeys()) {
                 if (!rs.next()) {
                     return null;
                 }
 
-                eid = rs.getLong(1);
-            }
-
-            try (ResultSet rs = statements.getGetEdge(eid).executeQuery()) {
-                if (!rs.next()) {
-                    return null;
-                }
-
-                return SqlEdge.GENERATOR.generate(this, rs);
+                long edgeId = rs.getLong(1);
+                markEdgeModified(edgeId);
+                return edgeFor(edgeId, inVertexId, outVertexId, label);
             }
         } catch (SQLException e) {
             throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
         }
     }
 
     @Override
     public SqlEdge getEdge(Object id) {
+        if (threadTransactions != null) {
+            return current().getEdge(id);
+        }
+
         Long eid = getId(id);
         if (eid == null) {
             return null;
         }
 
+        SqlEdge edge = edgeCache.get(eid);
+        if (edge != null) {
+            return edge;
+        }
+
+        SharedElementCache.CachedElement cached = sharedEdge(eid);
+        if (cached != null) {
+            return cacheEdge(eid, cached.inVertexId, cached.outVertexId, cached.label, cached);
+        }
+
         ensureConnection();
 
-        try (PreparedStatement stmt = statements.getGetEdge(eid)) {
+        PreparedStatement stmt = null;
+        try {
+            stmt = statements.getGetEdge(eid);
             if (!stmt.execute()) {
                 return null;
             }
@@ -385,33 +826,53 @@ public final class SqlGraph implements ThreadedTransactionalGraph {
                 if (!rs.next()) {
                     return null;
                 }
-                return SqlEdge.GENERATOR.generate(this, rs);
+                return cacheEdge(eid, rs.getLong(2), rs.getLong(3), rs.getString(4), null);
             }
         } catch (SQLException e) {
             throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
         }
     }
 
     @Override
     public void removeEdge(Edge edge) {
-        ensureConnection();
+        if (threadTransactions != null) {
+            current().removeEdge(edge);
+            return;
+        }
 
-        try (PreparedStatement stmt = statements.getRemoveEdge((Long) edge.getId())) {
-            if (stmt.executeUpdate() == 0) {
-                throw new IllegalStateException("Edge with id " + edge.getId() + " doesn't exist.");
-            }
-        } catch (SQLException e) {
-            throw new SqlGraphException(e);
+        if (!removeEdge((Long) edge.getId())) {
+            throw new IllegalStateException("Edge with id " + edge.getId() + " doesn't exist.");
         }
     }
 
     @Override
     public Iterable<Edge> getEdges() {
+        if (threadTransactions != null) {
+            return current().getEdges();
+        }
+
         ensureConnection();
 
         try {
-            PreparedStatement stmt = statements.getAllEdges();
-            return new ResultSetIterable<Edge>(SqlEdge.GENERATOR, this, stmt.executeQuery());
+            return new ResultSetIterable<Edge>(SqlEdge.GENERATOR, this, statements, statements.getAllEdges());
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    /**
+     * Reads the ids of all the edges without creating the edges.
+     */
+    public IdIterator edgeIds() {
+        if (threadTransactions != null) {
+            return current().edgeIds();
+        }
+
+        ensureConnection();
+        try {
+            return new IdIterator(statements, statements.getAllEdgeIds(), -1);
         } catch (SQLException e) {
             throw new SqlGraphException(e);
         }
@@ -422,20 +883,215 @@ public final class SqlGraph implements ThreadedTransactionalGraph {
         return query().has(key, value).edges();
     }
 
+    /**
+     * Expands a whole frontier of vertices at once. Returns the edges adjacent to any of the vertices with the
+     * provided ids in the direction, each together with the vertex it was reached from and the vertex on its other
+     * side, so that a breadth-first traversal needs a query per a chunk of the frontier rather than a query per
+     * vertex.
+     * <p/>
+     * The ids are deduplicated, sorted and looked up in chunks of up to 512 using an
+     * {@code IN} list, which is padded so that only a handful of distinct statements get prepared. The chunks are
+     * queried lazily, one after the other, as the results are iterated over, each in pages of the size set by
+     * <code>sql.adjacencyPageSize</code> or of 4096 edges if it is not set, so that the vertices with a huge number
+     * of edges are never read at once. The edges of a single chunk come ordered by their ids, except that with
+     * {@link Direction#BOTH} the incoming edges of the chunk come before the outgoing ones and the self-loops are
+     * returned in both directions, same as by {@link Vertex#getEdges(Direction, String...)}.
+     *
+     * @param ids       the ids of the vertices to expand
+     * @param direction the direction of the edges from the expanded vertices
+     * @param labels    the labels of the edges to follow, all the edges are followed if none are provided
+     */
+    public CloseableIterable<Neighbor> neighbors(long[] ids, final Direction direction, final String... labels) {
+        if (threadTransactions != null) {
+            return current().neighbors(ids, direction, labels);
+        }
+
+        if (direction == null) {
+            throw new IllegalArgumentException("null direction");
+        }
+
+        ensureConnection();
+
+        final Statements statements = this.statements;
+        final long[] vertexIds = distinctSorted(ids);
+        final int chunkCount = (vertexIds.length + NEIGHBORS_CHUNK_SIZE - 1) / NEIGHBORS_CHUNK_SIZE;
+        final Direction[] directions = direction == Direction.BOTH ? new Direction[]{Direction.IN, Direction.OUT} :
+            new Direction[]{direction};
+        final int pageSize = adjacencyPageSize > 0 ? adjacencyPageSize : NEIGHBORS_PAGE_SIZE;
+
+        //each direction of each chunk is a phase paged by the ids of the edges
+        return new KeysetPagedIterable<>(Neighbor.GENERATOR, this, statements, new KeysetPagedIterable.PageQuery() {
+            @Override
+            public PreparedStatement prepare(int phase, long afterKey) throws SQLException {
+                int from = phase / directions.length * NEIGHBORS_CHUNK_SIZE;
+                long[] chunk = Arrays.copyOfRange(vertexIds, from,
+                    Math.min(vertexIds.length, from + NEIGHBORS_CHUNK_SIZE));
+                return statements.getNeighbors(chunk, chunk.length, directions[phase % directions.length], afterKey,
+                    pageSize, labels);
+            }
+        }, chunkCount * directions.length, pageSize, 2, -1, 0, null);
+    }
+
+    /**
+     * Finds all the vertices at most the provided number of edges away from a vertex, using a single recursive query
+     * on PostgreSQL and a query per level elsewhere. The walks only follow the edges with the provided labels (any
+     * edges if no labels are given) in the direction and are cut off on reaching the maximum depth or an already
+     * visited vertex, see {@link RecursiveTraversals}.
+     *
+     * @return the ids of the vertices other than the start vertex, ordered by their distance from it and by id
+     */
+    public long[] verticesWithinDepth(long startId, int maxDepth, Direction direction, String... labels) {
+        if (threadTransactions != null) {
+            return current().verticesWithinDepth(startId, maxDepth, direction, labels);
+        }
+
+        checkTraversal(maxDepth, direction);
+        try {
+            return traversals().withinDepth(startId, maxDepth, direction, labels);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    /**
+     * Finds the vertices exactly k edges away from a vertex, i.e. the k-hop neighborhood without the vertices any
+     * closer. The edges are followed as by {@link #verticesWithinDepth(long, int, Direction, String...)}.
+     *
+     * @return the ids of the vertices ordered by id
+     */
+    public long[] verticesAtDepth(long startId, int k, Direction direction, String... labels) {
+        if (threadTransactions != null) {
+            return current().verticesAtDepth(startId, k, direction, labels);
+        }
+
+        checkTraversal(k, direction);
+        try {
+            return traversals().atDepth(startId, k, direction, labels);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    /**
+     * Checks whether one vertex can be reached from the other by following at most maxDepth edges. The edges are
+     * followed as by {@link #verticesWithinDepth(long, int, Direction, String...)}.
+     */
+    public boolean isReachable(long startId, long targetId, int maxDepth, Direction direction, String... labels) {
+        if (threadTransactions != null) {
+            return current().isReachable(startId, targetId, maxDepth, direction, labels);
+        }
+
+        checkTraversal(maxDepth, direction);
+        try {
+            return traversals().isReachable(startId, targetId, maxDepth, direction, labels);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    /**
+     * Finds the shortest path from one vertex to the other following the edges with the provided labels (any edges if
+     * no labels are given) in the direction, using a breadth-first search from both the vertices at once. Each step of
+     * the search expands the smaller of the two frontiers using {@link #neighbors(long[], Direction, String...)}.
+     *
+     * @param maxDepth the maximum number of edges of the path
+     * @return the ids of the vertices and the edges of the path or null if there is no path with at most maxDepth
+     * edges
+     */
+    public Path shortestPath(long startId, long targetId, int maxDepth, Direction direction, String... labels) {
+        if (threadTransactions != null) {
+            return current().shortestPath(startId, targetId, maxDepth, direction, labels);
+        }
+
+        checkTraversal(maxDepth, direction);
+        return new BidirectionalSearch(this, direction, labels).find(startId, targetId, maxDepth);
+    }
+
+    /**
+     * Starts a traversal from the vertices with the provided ids. The hops and the filters of the traversal are
+     * compiled into a single statement joining the edges table once per hop, see {@link Traversal}.
+     */
+    public Traversal traverse(long... startIds) {
+        return new Traversal(current(), startIds);
+    }
+
+    private static void checkTraversal(int depth, Direction direction) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must not be negative");
+        }
+
+        if (direction == null) {
+            throw new IllegalArgumentException("null direction");
+        }
+    }
+
+    RecursiveTraversals traversals() throws SQLException {
+        ensureConnection();
+        return new RecursiveTraversals(this, statements);
+    }
+
+    private static long[] distinctSorted(long[] ids) {
+        long[] ret = Arrays.copyOf(ids, ids.length);
+        Arrays.sort(ret);
+
+        int size = 0;
+        for (int i = 0; i < ret.length; ++i) {
+            if (size == 0 || ret[size - 1] != ret[i]) {
+                ret[size++] = ret[i];
+            }
+        }
+
+        return size == ret.length ? ret : Arrays.copyOf(ret, size);
+    }
+
     @Override
     public SqlGraphQuery query() {
-        return new SqlGraphQuery(this);
+        return new SqlGraphQuery(current());
     }
 
     @Override
     public void shutdown() {
-        if (connection != null) {
+        if (threadTransactions != null) {
+            //only the transaction of the calling thread is concluded, the other threads still own theirs and their
+            //connections are returned, which a closed pool then closes, once they terminate
+            SqlGraph tx = threadTransactions.get();
+            threadTransactions.remove();
+            if (tx != null) {
+                try {
+                    tx.commit();
+                } finally {
+                    tx.releaseThreadConnection();
+                }
+            }
+            reclaimAbandonedTransactions();
+        }
+
+        ConnectionPool.PooledConnection pc = pooledConnection;
+        if (pc != null) {
+            //the connection goes back to the pool and a new one is borrowed if this graph is used again
             try {
-                connection.commit();
+                commitConnection();
+            } catch (SQLException e) {
+                throw new SqlGraphException(e);
+            } finally {
+                pooledConnection = null;
+                connection = null;
+                statements = null;
+                connectionPool.release(pc);
+                if (ownsConnectionPool) {
+                    connectionPool.close();
+                }
+            }
+        } else if (connection != null) {
+            statements.close();
+            try {
+                commitConnection();
                 connection.close();
             } catch (SQLException e) {
                 throw new SqlGraphException(e);
             }
+        } else if (ownsConnectionPool && connectionPool != null) {
+            connectionPool.close();
         }
     }
 
@@ -445,15 +1101,405 @@ public final class SqlGraph implements ThreadedTransactionalGraph {
     }
 
     Connection getConnection() {
+        if (threadTransactions != null) {
+            return current().getConnection();
+        }
+
         ensureConnection();
         return connection;
     }
 
     Statements getStatements() {
-        ensureConnection();
+        if (threadTransactions != null) {
+            return current().getStatements();
+        }
+
+        ensureConnection();
         return statements;
     }
 
+    /**
+     * @return the statistics of the prepared statement cache of the connection of this graph
+     */
+    public CacheStatistics getStatementCacheStatistics() {
+        if (threadTransactions != null) {
+            return current().getStatementCacheStatistics();
+        }
+
+        ensureConnection();
+        return statements.getStatistics();
+    }
+
+    /**
+     * @return the statistics of the connection pool shared by this graph and its transactions or null if the pool is
+     * not enabled
+     */
+    public PoolStatistics getConnectionPoolStatistics() {
+        return connectionPool == null ? null : connectionPool.getStatistics();
+    }
+
+    PropertyLoading getPropertyLoading() {
+        return propertyLoading;
+    }
+
+    PropertyStorage getPropertyStorage() {
+        return propertyStorage;
+    }
+
+    FilterCompilation getFilterCompilation() {
+        return filterCompilation;
+    }
+
+    QueryShapeCache getQueryShapeCache() {
+        return queryShapeCache;
+    }
+
+    /**
+     * @return the keys of the properties of the element type that have a key index, loaded from the metadata table
+     * when first needed
+     */
+    Set<String> getIndexedKeySet(Class<? extends Element> elementClass) {
+        Set<String> ret = indexedKeys.get(elementClass);
+        if (ret == null) {
+            try {
+                ret = reloadIndexedKeys(elementClass);
+            } catch (SQLException e) {
+                throw new SqlGraphException(e);
+            }
+        }
+
+        return ret;
+    }
+
+    private Set<String> reloadIndexedKeys(Class<? extends Element> elementClass) throws SQLException {
+        indexedKeys.set(elementClass,
+            new SchemaManager(this, getConnection()).getIndexedKeys(indexedElementType(elementClass)));
+        return indexedKeys.get(elementClass);
+    }
+
+    /**
+     * @return the declared vertex-centric indexes, loaded from the metadata table when first needed in the current
+     * transaction
+     */
+    Set<VertexCentricIndexes.Definition> getVertexCentricIndexSet() {
+        Set<VertexCentricIndexes.Definition> ret = vertexCentricIndexes.get();
+        if (ret == null) {
+            try {
+                ret = reloadVertexCentricIndexes();
+            } catch (SQLException e) {
+                throw new SqlGraphException(e);
+            }
+        }
+
+        return ret;
+    }
+
+    private Set<VertexCentricIndexes.Definition> reloadVertexCentricIndexes() throws SQLException {
+        vertexCentricIndexes.set(new SchemaManager(this, getConnection()).getVertexCentricIndexes());
+        return vertexCentricIndexes.get();
+    }
+
+    /**
+     * Updates the entries of the vertex-centric indexes of the edge property after it has been set or removed.
+     *
+     * @param value the new value of the property or null if it has been removed
+     */
+    void updateVertexCentricIndexes(SqlEdge edge, String key, Object value) {
+        List<VertexCentricIndexes.Definition> indexes =
+            VertexCentricIndexes.find(getVertexCentricIndexSet(), edge.getLabel(), key);
+        if (indexes.isEmpty()) {
+            return;
+        }
+
+        Statements statements = getStatements();
+        PreparedStatement stmt = null;
+        try {
+            stmt = statements.getRemoveVertexCentricIndexEntries(edge.getId(), key);
+            stmt.executeUpdate();
+            statements.release(stmt);
+            stmt = null;
+
+            if (!(value instanceof Number || value instanceof Boolean)) {
+                return;
+            }
+
+            double sortValue = value instanceof Boolean ? ((Boolean) value ? 1 : 0) : ((Number) value).doubleValue();
+            for (VertexCentricIndexes.Definition index : indexes) {
+                stmt = statements.getAddVertexCentricIndexEntry(edge.getVertexId(index.direction),
+                    index.directionCode(), edge.getLabel(), key, sortValue, edge.getId());
+                stmt.executeUpdate();
+                statements.release(stmt);
+                stmt = null;
+            }
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
+        }
+    }
+
+    /**
+     * @return the name of the element type in the metadata of the key indexes
+     */
+    private static String indexedElementType(Class<? extends Element> elementClass) {
+        if (elementClass == null) {
+            throw ExceptionFactory.classForElementCannotBeNull();
+        } else if (Vertex.class.isAssignableFrom(elementClass)) {
+            return "vertex";
+        } else if (Edge.class.isAssignableFrom(elementClass)) {
+            return "edge";
+        } else {
+            throw ExceptionFactory.classIsNotIndexable(elementClass);
+        }
+    }
+
+    private String propertiesTableName(Class<? extends Element> elementClass) {
+        return Vertex.class.isAssignableFrom(elementClass) ? vertexPropertiesTableName : edgePropertiesTableName;
+    }
+
+    /**
+     * @return the statistics of the cache of the SQL generated for the query shapes, shared by this graph and its
+     * transactions
+     */
+    public CacheStatistics getQueryShapeCacheStatistics() {
+        return queryShapeCache.getStatistics();
+    }
+
+    int getPrefetchSize() {
+        return prefetchSize;
+    }
+
+    int getAdjacencyPageSize() {
+        return adjacencyPageSize;
+    }
+
+    boolean isStreamResults() {
+        return streamResults;
+    }
+
+    int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * The property values cached on the elements are only valid as long as this number doesn't change. It changes
+     * whenever the transaction is committed or rolled back.
+     */
+    long getPropertyCacheGeneration() {
+        return propertyCacheGeneration.get();
+    }
+
+    public CacheStatistics getVertexCacheStatistics() {
+        if (threadTransactions != null) {
+            return current().getVertexCacheStatistics();
+        }
+
+        return vertexCache.getStatistics();
+    }
+
+    public CacheStatistics getEdgeCacheStatistics() {
+        if (threadTransactions != null) {
+            return current().getEdgeCacheStatistics();
+        }
+
+        return edgeCache.getStatistics();
+    }
+
+    /**
+     * @return the statistics of the second-level cache shared by the transactions of this graph or null if the cache
+     * is not enabled
+     */
+    public CacheStatistics getSharedCacheStatistics() {
+        return sharedCache == null ? null : sharedCache.getStatistics();
+    }
+
+    /**
+     * @return the epoch of the shared cache to be obtained before reading data that should be published to it
+     */
+    long getSharedCacheEpoch() {
+        return sharedCache == null ? 0 : sharedCache.getEpoch();
+    }
+
+    /**
+     * @return the sequence number of the last property write to the vertex in this transaction, 0 if there was none
+     */
+    long lastVertexPropertyWrite(long id) {
+        return lastPropertyWrite(vertexPropertyWrites, id);
+    }
+
+    /**
+     * Records a property write to the vertex.
+     *
+     * @return the sequence number of the write
+     */
+    long recordVertexPropertyWrite(long id) {
+        return recordPropertyWrite(vertexPropertyWrites, id);
+    }
+
+    long lastEdgePropertyWrite(long id) {
+        return lastPropertyWrite(edgePropertyWrites, id);
+    }
+
+    long recordEdgePropertyWrite(long id) {
+        return recordPropertyWrite(edgePropertyWrites, id);
+    }
+
+    void markVertexModified(long id) {
+        markModified(modifiedVertexIds, id);
+    }
+
+    void markEdgeModified(long id) {
+        markModified(modifiedEdgeIds, id);
+    }
+
+    /**
+     * Publishes the properties of the vertex to the shared cache unless the vertex has been modified in this
+     * transaction.
+     */
+    void publishVertex(long id, Map<String, Object> properties, long epoch) {
+        if (sharedCache != null && !isModified(modifiedVertexIds, id)) {
+            sharedCache.publishVertex(id, properties, epoch);
+        }
+    }
+
+    /**
+     * Publishes the edge with its properties to the shared cache unless the edge has been modified in this
+     * transaction.
+     */
+    void publishEdge(long id, long inVertexId, long outVertexId, String label, Map<String, Object> properties,
+        long epoch) {
+        if (sharedCache != null && !isModified(modifiedEdgeIds, id)) {
+            sharedCache.publishEdge(id, inVertexId, outVertexId, label, properties, epoch);
+        }
+    }
+
+    /**
+     * @return the cached vertex with given id or a new one, which is then cached
+     */
+    SqlVertex vertexFor(long id) {
+        SqlVertex v = vertexCache.get(id);
+        return v != null ? v : cacheVertex(id, sharedVertex(id));
+    }
+
+    /**
+     * @return the cached edge with given id or a new one, which is then cached
+     */
+    SqlEdge edgeFor(long id, long inVertexId, long outVertexId, String label) {
+        SqlEdge e = edgeCache.get(id);
+        return e != null ? e : cacheEdge(id, inVertexId, outVertexId, label, sharedEdge(id));
+    }
+
+    /**
+     * Creates a new vertex and caches it.
+     *
+     * @param shared the state of the vertex in the shared cache or null if it is not known
+     */
+    private SqlVertex cacheVertex(long id, SharedElementCache.CachedElement shared) {
+        SqlVertex v = new SqlVertex(this, id);
+        if (shared != null) {
+            v.seedProperties(shared.properties);
+        }
+        vertexCache.put(id, v);
+        return v;
+    }
+
+    /**
+     * Creates a new edge and caches it.
+     *
+     * @param shared the state of the edge in the shared cache or null if it is not known
+     */
+    private SqlEdge cacheEdge(long id, long inVertexId, long outVertexId, String label,
+        SharedElementCache.CachedElement shared) {
+        SqlEdge e = new SqlEdge(this, id, inVertexId, outVertexId, label);
+        if (shared != null) {
+            e.seedProperties(shared.properties);
+        }
+        edgeCache.put(id, e);
+        return e;
+    }
+
+    /**
+     * @return the committed state of the vertex from the shared cache, if it is usable in this transaction
+     */
+    private SharedElementCache.CachedElement sharedVertex(long id) {
+        return sharedCache == null || isModified(modifiedVertexIds, id) ? null : sharedCache.getVertex(id);
+    }
+
+    /**
+     * @return the committed state of the edge from the shared cache, if it is usable in this transaction
+     */
+    private SharedElementCache.CachedElement sharedEdge(long id) {
+        return sharedCache == null || isModified(modifiedEdgeIds, id) ? null : sharedCache.getEdge(id);
+    }
+
+    /**
+     * Removes the vertex and evicts it and its edges from the caches.
+     *
+     * @return true if the vertex existed, false otherwise
+     */
+    boolean removeVertex(long id) {
+        ensureConnection();
+        PreparedStatement stmt = null;
+        try {
+            //the edges are removed by the database, so we need to find out what they are beforehand
+            List<Long> edgeIds = new ArrayList<>();
+            stmt = statements.getIncidentEdgeIds(id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    edgeIds.add(rs.getLong(1));
+                }
+            }
+            statements.release(stmt);
+            stmt = null;
+
+            markVertexModified(id);
+            for (Long eid : edgeIds) {
+                markEdgeModified(eid);
+            }
+
+            stmt = statements.getRemoveVertex(id);
+            boolean removed = stmt.executeUpdate() != 0;
+
+            vertexCache.remove(id);
+            for (Long eid : edgeIds) {
+                edgeCache.remove(eid);
+            }
+
+            return removed;
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
+        }
+    }
+
+    /**
+     * Removes the edge and evicts it from the cache.
+     *
+     * @return true if the edge existed, false otherwise
+     */
+    boolean removeEdge(long id) {
+        ensureConnection();
+
+        markEdgeModified(id);
+
+        PreparedStatement stmt = null;
+        try {
+            stmt = statements.getRemoveEdge(id);
+            boolean removed = stmt.executeUpdate() != 0;
+            edgeCache.remove(id);
+            return removed;
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
+        }
+    }
+
+    int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
     String getVerticesTableName() {
         return verticesTableName;
     }
@@ -470,18 +1516,180 @@ public final class SqlGraph implements ThreadedTransactionalGraph {
         return edgePropertiesTableName;
     }
 
+    String getMetadataTableName() {
+        return metadataTableName;
+    }
+
+    String getVertexCentricIndexTableName() {
+        return vertexCentricIndexTableName;
+    }
+
+    /**
+     * @return the graph of the transaction of the calling thread in the thread-isolated mode, this graph otherwise
+     */
+    SqlGraph current() {
+        if (threadTransactions == null) {
+            return this;
+        }
+
+        SqlGraph tx = threadTransactions.get();
+        if (tx == null) {
+            //the first use by the thread, the transaction obtains a connection once it needs one
+            tx = new SqlGraph(this, null, null, Thread.currentThread());
+            threadTransactions.set(tx);
+        }
+
+        return tx;
+    }
+
+    /**
+     * Rolls back the transactions of the threads that have terminated without concluding them and returns their
+     * connections.
+     */
+    private void reclaimAbandonedTransactions() {
+        for (SqlGraph tx : activeThreadTransactions) {
+            if (!tx.owner.isAlive() && activeThreadTransactions.remove(tx)) {
+                try {
+                    tx.rollback();
+                } catch (SqlGraphException ignored) {
+                    //the connection is returned anyway
+                } finally {
+                    tx.releaseThreadConnection();
+                }
+            }
+        }
+    }
+
+    /**
+     * If this is the transaction of a thread, returns its connection once the thread has terminated or shut the graph
+     * down. The connection is kept across the conclusions of the transaction, because the iterables obtained by the
+     * thread keep using its statements.
+     */
+    private void releaseThreadConnection() {
+        if (isolatingGraph == null || connection == null) {
+            return;
+        }
+
+        isolatingGraph.activeThreadTransactions.remove(this);
+
+        ConnectionPool.PooledConnection pc = pooledConnection;
+        Connection conn = connection;
+        Statements stmts = statements;
+        pooledConnection = null;
+        connection = null;
+        statements = null;
+
+        if (pc != null) {
+            connectionPool.release(pc);
+        } else {
+            stmts.close();
+            try {
+                conn.close();
+            } catch (SQLException ignored) {
+                //the transaction has been concluded already
+            }
+        }
+    }
+
     private void ensureConnection() {
         if (connection == null) {
+            final SqlGraph isolating = isolatingGraph;
             try {
-                connection = newConnection();
-                statements = new Statements(this);
+                if (connectionPool != null) {
+                    //the connections of the dead threads could be all the pool has
+                    ConnectionPool.PooledConnection pc = connectionPool.borrow(isolating == null ? null :
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                isolating.reclaimAbandonedTransactions();
+                            }
+                        });
+                    pooledConnection = pc;
+                    statements = pc.statements;
+                    connection = pc.connection;
+                } else {
+                    if (isolating != null) {
+                        isolating.reclaimAbandonedTransactions();
+                    }
+                    Connection conn = openConnection();
+                    statements = new Statements(this, conn);
+                    connection = conn;
+                }
             } catch (SQLException e) {
                 throw new SqlGraphException(e);
             }
+
+            if (isolatingGraph != null) {
+                isolatingGraph.activeThreadTransactions.add(this);
+            }
+        }
+    }
+
+    /**
+     * Commits the connection and evicts the elements modified in the transaction from the shared cache. The
+     * vertex-centric indexes are read again by the next transaction, because they could have been created or dropped
+     * by other graphs in the meantime.
+     */
+    private void commitConnection() throws SQLException {
+        connection.commit();
+        //the cached properties were read in the concluded transaction and later ones need to see other commits. Reuse
+        //of committed data across transactions is up to the shared cache.
+        propertyCacheGeneration.incrementAndGet();
+        clearPropertyWrites();
+        vertexCentricIndexes.clear();
+        if (sharedCache != null) {
+            sharedCache.invalidate(takeModifiedIds(modifiedVertexIds), takeModifiedIds(modifiedEdgeIds));
+        }
+    }
+
+    private void markModified(LongHashSet modifiedIds, long id) {
+        if (sharedCache != null) {
+            synchronized (modifiedIds) {
+                modifiedIds.add(id);
+            }
         }
     }
 
-    private Connection newConnection() throws SQLException {
+    private static boolean isModified(LongHashSet modifiedIds, long id) {
+        synchronized (modifiedIds) {
+            return modifiedIds.contains(id);
+        }
+    }
+
+    private void clearPropertyWrites() {
+        for (LongLongHashMap writes : Arrays.asList(vertexPropertyWrites, edgePropertyWrites)) {
+            synchronized (writes) {
+                writes.clear();
+            }
+        }
+    }
+
+    private long lastPropertyWrite(LongLongHashMap writes, long id) {
+        synchronized (writes) {
+            return writes.get(id, 0);
+        }
+    }
+
+    private long recordPropertyWrite(LongLongHashMap writes, long id) {
+        long write = propertyWriteSequence.incrementAndGet();
+        synchronized (writes) {
+            writes.put(id, write);
+        }
+        return write;
+    }
+
+    private static long[] takeModifiedIds(LongHashSet modifiedIds) {
+        synchronized (modifiedIds) {
+            long[] ret = modifiedIds.toArray();
+            modifiedIds.clear();
+            return ret;
+        }
+    }
+
+    /**
+     * Opens a new physical connection set up for use by a transaction.
+     */
+    Connection openConnection() throws SQLException {
         Connection conn = dataSource.getConnection();
         conn.setAutoCommit(false);
         conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
@@ -504,11 +1712,46 @@ public final class SqlGraph implements ThreadedTransactionalGraph {
         }
     }
 
-    private SqlVertex cache(SqlVertex v) {
-        if (v != null) {
-            vertexCache.put(v.getId(), new WeakReference<>(v));
+    private <T> ElementCache<T> newElementCache() {
+        return newElementCache(elementCacheSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> ElementCache<T> newElementCache(int size) {
+        try {
+            return (ElementCache<T>) elementCacheClass.getConstructor(int.class).newInstance(size);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Could not instantiate the element cache " + elementCacheClass, e);
         }
+    }
 
-        return v;
+    /**
+     * Determines how the properties of the elements are loaded from the database.
+     */
+    public enum PropertyLoading {
+        /**
+         * Each property is loaded separately when it is first accessed.
+         */
+        LAZY,
+
+        /**
+         * All properties of an element are loaded in a single query when any of them is first accessed.
+         */
+        EAGER
+    }
+
+    /**
+     * Determines how the property filters of the queries are translated to SQL.
+     */
+    public enum FilterCompilation {
+        /**
+         * Each filter is evaluated using a correlated subquery on the properties table.
+         */
+        SUBQUERY,
+
+        /**
+         * The properties table is joined once for each filtered property, starting with the most selective filter.
+         */
+        JOIN
     }
 }
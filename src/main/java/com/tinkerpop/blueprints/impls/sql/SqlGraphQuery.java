@@ -3,13 +3,18 @@ package com.tinkerpop.blueprints.impls.sql;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
 import com.tinkerpop.blueprints.GraphQuery;
 import com.tinkerpop.blueprints.Predicate;
 import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.ExceptionFactory;
 
 /**
  * @author Mike Bryant (http://github.com/mikesname)
@@ -20,12 +25,19 @@ public final class SqlGraphQuery implements GraphQuery {
 
     private final SqlGraph graph;
 
-    private QueryFilters filters = new QueryFilters();
+    private final QueryFilters filters;
 
     private int limit = -1;
+    private int prefetchSize;
+    private List<String> prefetchKeys;
+    private String orderKey;
+    private Order order;
+    private String after;
 
     SqlGraphQuery(SqlGraph graph) {
         this.graph = graph;
+        this.filters = new QueryFilters(graph.getPropertyStorage());
+        this.prefetchSize = graph.getPrefetchSize();
     }
 
     @Override
@@ -76,14 +88,94 @@ public final class SqlGraphQuery implements GraphQuery {
         return this;
     }
 
+    /**
+     * Makes the returned elements load their properties in pages of the given size, using a single query for each
+     * page.
+     *
+     * @param pageSize the number of elements to load the properties of at once, 0 disables the prefetching
+     * @param keys     the names of the properties to load, all of them are loaded if none are specified
+     */
+    public SqlGraphQuery prefetch(int pageSize, String... keys) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("negative page size");
+        }
+
+        this.prefetchSize = pageSize;
+        this.prefetchKeys = keys.length == 0 ? null : Arrays.asList(keys);
+        return this;
+    }
+
+    /**
+     * Orders the elements by their ids with the <code>id</code> key, the edges by their labels with the
+     * <code>label</code> key, or the elements by the numeric values of the property with the provided key, with
+     * the booleans ordered as 0 and 1. The elements with the same value are ordered by their ids and the elements
+     * without a numeric or boolean value of the property are left out.
+     * <p/>
+     * Together with a {@link #limit(int) limit} and {@link #after(String) cursors}, the order lets the elements be
+     * read page by page at a constant cost per page, provided the database can read the order from an index - the
+     * primary key for the ids, the index of the labels of the edges or the
+     * {@link SqlGraph#createKeyIndex(String, Class, com.tinkerpop.blueprints.Parameter[]) key index} of the property.
+     */
+    public SqlGraphQuery orderBy(String key, Order order) {
+        if (key == null) {
+            throw new IllegalArgumentException("null key");
+        }
+
+        if (order == null) {
+            throw new IllegalArgumentException("null order");
+        }
+
+        this.orderKey = key;
+        this.order = order;
+        return this;
+    }
+
+    /**
+     * Makes the query return only the elements following, in the {@link #orderBy(String, Order) order} of the
+     * query, the element the cursor was {@link #cursor(Element) made for}. The query is ordered by the ids if no
+     * other order is specified. The database seeks directly to the position of the cursor, so, unlike with an offset,
+     * the cost of a page doesn't depend on the number of the pages before it.
+     *
+     * @param cursor the cursor or null to start from the first element
+     */
+    public SqlGraphQuery after(String cursor) {
+        this.after = cursor;
+        return this;
+    }
+
+    /**
+     * Makes the cursor of the element, usually the last one of a page, in the order of the query. The cursor is
+     * a string that can be handed out to the clients and later passed to {@link #after(String)} of a query of the same
+     * order to read the next page.
+     */
+    public String cursor(Element element) {
+        Object id = element.getId();
+        if (orderKey == null || "id".equals(orderKey)) {
+            return id.toString();
+        } else if (element instanceof Edge && "label".equals(orderKey)) {
+            return id + ":" + ((Edge) element).getLabel();
+        }
+
+        //the value as it is stored, so that the ties are found exactly, prefixed by its type
+        Object value = graph.getPropertyStorage().intervalValue(element.getProperty(orderKey));
+        if (value == null) {
+            throw new IllegalArgumentException("The element " + id + " doesn't have a numeric value of the property '" +
+                orderKey + "' it is ordered by.");
+        }
+
+        return id + ":" + (value instanceof Long ? 'l' : 'd') + value;
+    }
+
     @Override
     public CloseableIterable<Edge> edges() {
         try {
-            PreparedStatement stmt = generateStatement("SELECT id, vertex_in, vertex_out, label",
+            Statements statements = graph.getStatements();
+            PreparedStatement stmt = generateStatement(statements, "SELECT id, vertex_in, vertex_out, label",
                 graph.getEdgesTableName(), graph.getEdgePropertiesTableName(), SqlEdge.getPropertyTableForeignKey(),
-                SqlEdge.DISALLOWED_PROPERTY_NAMES);
+                SqlEdge.DISALLOWED_PROPERTY_NAMES, graph.getIndexedKeySet(Edge.class), null, null, null);
 
-            return new ResultSetIterable<Edge>(SqlEdge.GENERATOR, graph, stmt.executeQuery());
+            return new ResultSetIterable<Edge>(SqlEdge.GENERATOR, graph, statements, stmt, -1, prefetchSize,
+                prefetchKeys);
         } catch (SQLException e) {
             throw new SqlGraphException(e);
         }
@@ -92,35 +184,322 @@ public final class SqlGraphQuery implements GraphQuery {
     @Override
     public CloseableIterable<Vertex> vertices() {
         try {
-            PreparedStatement stmt = generateStatement("SELECT id", graph.getVerticesTableName(),
+            Statements statements = graph.getStatements();
+            PreparedStatement stmt = generateStatement(statements, "SELECT id", graph.getVerticesTableName(),
+                graph.getVertexPropertiesTableName(), SqlVertex.getPropertyTableForeignKey(),
+                SqlVertex.DISALLOWED_PROPERTY_NAMES, graph.getIndexedKeySet(Vertex.class), null, null, null);
+
+            return new ResultSetIterable<Vertex>(SqlVertex.GENERATOR, graph, statements, stmt, -1, prefetchSize,
+                prefetchKeys);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    /**
+     * Reads the ids of the matching edges without creating the edges.
+     */
+    public IdIterator edgeIds() {
+        try {
+            Statements statements = graph.getStatements();
+            PreparedStatement stmt = generateStatement(statements, "SELECT id", graph.getEdgesTableName(),
+                graph.getEdgePropertiesTableName(), SqlEdge.getPropertyTableForeignKey(),
+                SqlEdge.DISALLOWED_PROPERTY_NAMES, graph.getIndexedKeySet(Edge.class), null, null, null);
+
+            return new IdIterator(statements, stmt, -1);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    /**
+     * Reads the ids of the matching vertices without creating the vertices.
+     */
+    public IdIterator vertexIds() {
+        try {
+            Statements statements = graph.getStatements();
+            PreparedStatement stmt = generateStatement(statements, "SELECT id", graph.getVerticesTableName(),
                 graph.getVertexPropertiesTableName(), SqlVertex.getPropertyTableForeignKey(),
-                SqlVertex.DISALLOWED_PROPERTY_NAMES);
+                SqlVertex.DISALLOWED_PROPERTY_NAMES, graph.getIndexedKeySet(Vertex.class), null, null, null);
+
+            return new IdIterator(statements, stmt, -1);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    /**
+     * Reads the ids of the matching vertices or edges together with the values of their properties with the provided
+     * keys, pivoted out of the properties table by the query of the elements, without creating the elements.
+     *
+     * @return the rows of the elements, null values stand for the missing properties
+     */
+    public <T extends Element> CloseableIterable<Row> select(Class<T> elementClass, String... keys) {
+        List<String> projected = Arrays.asList(keys.clone());
+        if (projected.contains(null)) {
+            throw new IllegalArgumentException("null key");
+        }
+
+        try {
+            Statements statements = graph.getStatements();
+            PreparedStatement stmt;
+            if (elementClass == null) {
+                throw ExceptionFactory.classForElementCannotBeNull();
+            } else if (Vertex.class.isAssignableFrom(elementClass)) {
+                stmt = generateStatement(statements, "SELECT id", graph.getVerticesTableName(),
+                    graph.getVertexPropertiesTableName(), SqlVertex.getPropertyTableForeignKey(),
+                    SqlVertex.DISALLOWED_PROPERTY_NAMES, graph.getIndexedKeySet(Vertex.class), null, null, projected);
+            } else if (Edge.class.isAssignableFrom(elementClass)) {
+                stmt = generateStatement(statements, "SELECT id", graph.getEdgesTableName(),
+                    graph.getEdgePropertiesTableName(), SqlEdge.getPropertyTableForeignKey(),
+                    SqlEdge.DISALLOWED_PROPERTY_NAMES, graph.getIndexedKeySet(Edge.class), null, null, projected);
+            } else {
+                throw new IllegalArgumentException("Unsupported element class: " + elementClass);
+            }
+
+            return new ResultSetIterable<Row>(Projections.generator(projected, graph.getPropertyStorage()), graph,
+                statements, stmt, -1, 0, null);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    /**
+     * Counts the matching vertices or edges in the database, up to the limit of the query.
+     */
+    public <T extends Element> long count(Class<T> elementClass) {
+        Statements statements = graph.getStatements();
+        PreparedStatement stmt = null;
+        try {
+            stmt = prepareAggregate(statements, elementClass, Aggregates.Function.COUNT, null);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
+        }
+    }
+
+    /**
+     * @return the minimum of the numeric values of the property of the matching elements or null if there are none
+     */
+    public <T extends Element> Double min(String key, Class<T> elementClass) {
+        return aggregate(Aggregates.Function.MIN, key, elementClass);
+    }
+
+    /**
+     * @return the maximum of the numeric values of the property of the matching elements or null if there are none
+     */
+    public <T extends Element> Double max(String key, Class<T> elementClass) {
+        return aggregate(Aggregates.Function.MAX, key, elementClass);
+    }
 
-            return new ResultSetIterable<Vertex>(SqlVertex.GENERATOR, graph, stmt.executeQuery());
+    /**
+     * @return the sum of the numeric values of the property of the matching elements or null if there are none
+     */
+    public <T extends Element> Double sum(String key, Class<T> elementClass) {
+        return aggregate(Aggregates.Function.SUM, key, elementClass);
+    }
+
+    /**
+     * @return the average of the numeric values of the property of the matching elements or null if there are none
+     */
+    public <T extends Element> Double avg(String key, Class<T> elementClass) {
+        return aggregate(Aggregates.Function.AVG, key, elementClass);
+    }
+
+    /**
+     * Counts the matching elements by the values of the property with the provided key, or of the label of
+     * the edges. The elements without the property are not counted.
+     *
+     * @return the numbers of the elements with each of the values
+     */
+    public <T extends Element> Map<Object, Long> groupCount(String key, Class<T> elementClass) {
+        Statements statements = graph.getStatements();
+        PreparedStatement stmt = null;
+        try {
+            stmt = prepareAggregate(statements, elementClass, Aggregates.Function.GROUP_COUNT, key);
+            boolean labelColumn = "label".equals(key) && Edge.class.isAssignableFrom(elementClass);
+            return Aggregates.readGroups(stmt, labelColumn, graph.getPropertyStorage());
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
+        }
+    }
+
+    private Double aggregate(Aggregates.Function function, String key, Class<? extends Element> elementClass) {
+        Statements statements = graph.getStatements();
+        PreparedStatement stmt = null;
+        try {
+            stmt = prepareAggregate(statements, elementClass, function, key);
+            return Aggregates.readNumber(stmt);
         } catch (SQLException e) {
             throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
+        }
+    }
+
+    private PreparedStatement prepareAggregate(Statements statements, Class<? extends Element> elementClass,
+        Aggregates.Function function, String key) throws SQLException {
+        if (key == null && function != Aggregates.Function.COUNT) {
+            throw new IllegalArgumentException("null key");
+        }
+
+        if (elementClass == null) {
+            throw ExceptionFactory.classForElementCannotBeNull();
+        } else if (Vertex.class.isAssignableFrom(elementClass)) {
+            return generateStatement(statements, "SELECT id", graph.getVerticesTableName(),
+                graph.getVertexPropertiesTableName(), SqlVertex.getPropertyTableForeignKey(),
+                SqlVertex.DISALLOWED_PROPERTY_NAMES, graph.getIndexedKeySet(Vertex.class), function, key, null);
+        } else if (Edge.class.isAssignableFrom(elementClass)) {
+            return generateStatement(statements, "SELECT id, label", graph.getEdgesTableName(),
+                graph.getEdgePropertiesTableName(), SqlEdge.getPropertyTableForeignKey(),
+                SqlEdge.DISALLOWED_PROPERTY_NAMES, graph.getIndexedKeySet(Edge.class), function, key, null);
+        } else {
+            throw new IllegalArgumentException("Unsupported element class: " + elementClass);
         }
     }
 
-    private PreparedStatement generateStatement(String select, String mainTable, String propsTable, String propsTableFK,
-        List<String> specialProps) throws SQLException {
+    /**
+     * Obtains the cached statement for the shape of this query and binds the values of the filters to it. The SQL is
+     * only generated if the shape is not in the shape cache of the graph yet.
+     *
+     * @param function  the aggregate to compute over the matched elements or null to return the elements
+     * @param key       the key of the aggregated property
+     * @param projected the keys of the properties to select after the columns of the elements or null
+     */
+    private PreparedStatement generateStatement(Statements statements, String select, String mainTable,
+        String propsTable, String propsTableFK, List<String> specialProps, Set<String> indexedKeys,
+        Aggregates.Function function, String key, List<String> projected) throws SQLException {
+
+        boolean labelOrder = orderKey != null && !"id".equals(orderKey) && specialProps.contains(orderKey);
+        boolean propertyOrder = orderKey != null && !"id".equals(orderKey) && !labelOrder;
+        boolean ordered = orderKey != null || after != null;
+
+        StringBuilder shape = new StringBuilder("graph|").append(mainTable).append('|').append(select).append('|')
+            .append(limit).append('|');
+        if (orderKey != null) {
+            shape.append(orderKey.length()).append(':').append(orderKey).append(order);
+        }
+        shape.append('|').append(after != null).append('|');
+        if (function != null) {
+            Aggregates.appendShape(shape, function, key);
+        }
+        if (projected != null) {
+            Projections.appendShape(shape, projected);
+        }
+        filters.appendShape(shape, indexedKeys);
+        String shapeKey = shape.toString();
+
+        QueryShapeCache shapes = graph.getQueryShapeCache();
+        QueryFilters.CompiledQuery query = shapes.get(shapeKey);
+        if (query == null) {
+            String join = null;
+            String sortColumn = mainTable + ".id";
+            if (labelOrder) {
+                sortColumn = mainTable + ".label";
+            } else if (propertyOrder) {
+                //the order key is required, like by the vertex queries
+                String column = graph.getPropertyStorage().intervalColumn();
+                join = "JOIN " + propsTable + " ob ON ob." + propsTableFK + " = " + mainTable + ".id AND ob.name = " +
+                    SchemaManager.literal(orderKey) + " AND ob." + column + " IS NOT NULL";
+                sortColumn = "ob." + column;
+            }
+
+            String direction = order == Order.DESC ? "DESC" : "ASC";
+            String comparison = order == Order.DESC ? " < ?" : " > ?";
+            String seek = null;
+            if (after != null) {
+                seek = sortColumn.equals(mainTable + ".id") ? sortColumn + comparison : "(" + sortColumn + comparison +
+                    " OR (" + sortColumn + " = ? AND " + mainTable + ".id" + comparison + "))";
+            }
 
-        QueryFilters.SqlAndParams sql = filters.generateStatement(select, mainTable, propsTable, propsTableFK,
-            specialProps, null);
+            String columns = select;
+            if (projected != null) {
+                columns += Projections.columns(projected, graph.getPropertyStorage());
+                String projection = Projections.joins(mainTable + ".id", projected, propsTable, propsTableFK);
+                join = join == null ? projection : join + " " + projection;
+            }
 
-        if (limit >= 0) {
-            sql.sql.append(" LIMIT ").append(limit);
+            QueryFilters.SqlAndParams sql = filters.generateStatement(columns, mainTable, join, propsTable,
+                propsTableFK, specialProps, seek, graph.getFilterCompilation(), indexedKeys);
+
+            if (seek != null) {
+                //the value of the cursor, twice for the ties, and the id of the cursor
+                if (labelOrder || propertyOrder) {
+                    sql.params.insertExternal(0, 0);
+                    sql.params.insertExternal(1, 0);
+                    sql.params.insertExternal(2, 1);
+                } else {
+                    sql.params.insertExternal(0, 1);
+                }
+            }
+
+            if (ordered) {
+                sql.sql.append(" ORDER BY ").append(sortColumn).append(' ').append(direction);
+                if (labelOrder || propertyOrder) {
+                    sql.sql.append(", ").append(mainTable).append(".id ").append(direction);
+                }
+            }
+
+            if (limit >= 0) {
+                sql.sql.append(" LIMIT ").append(limit);
+            }
+
+            if (function != null) {
+                boolean labelColumn = function == Aggregates.Function.GROUP_COUNT && "label".equals(key) &&
+                    mainTable.equals(graph.getEdgesTableName());
+                Aggregates.wrap(sql.sql, function, key, labelColumn, propsTable, propsTableFK,
+                    graph.getPropertyStorage());
+            }
+
+            query = sql.compile();
+            shapes.put(shapeKey, query);
         }
 
-        PreparedStatement stmt = graph.getConnection()
-            .prepareStatement(sql.sql.toString(), ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        Object[] cursor = after == null ? new Object[0] : parseCursor(labelOrder, propertyOrder);
 
-        int i = 1;
-        for (Object p : sql.params) {
-            stmt.setObject(i++, p);
+        PreparedStatement stmt = statements.getQuery(query.sql);
+        try {
+            query.bind(stmt, filters, cursor);
+        } catch (SQLException e) {
+            statements.release(stmt);
+            throw e;
         }
 
         return stmt;
     }
 
+    /**
+     * @return the value the element of the {@link #after} cursor is ordered by and its id
+     */
+    private Object[] parseCursor(boolean labelOrder, boolean propertyOrder) {
+        try {
+            if (!labelOrder && !propertyOrder) {
+                return new Object[]{null, Long.parseLong(after)};
+            }
+
+            int separator = after.indexOf(':');
+            if (separator >= 0) {
+                long id = Long.parseLong(after.substring(0, separator));
+                String value = after.substring(separator + 1);
+                if (labelOrder) {
+                    return new Object[]{value, id};
+                } else if (value.startsWith("l")) {
+                    return new Object[]{Long.valueOf(value.substring(1)), id};
+                } else if (value.startsWith("d")) {
+                    return new Object[]{Double.valueOf(value.substring(1)), id};
+                }
+            }
+        } catch (NumberFormatException e) {
+            //handled below
+        }
+
+        throw new IllegalArgumentException("Invalid cursor '" + after + "' for the order by " +
+            (orderKey == null ? "id" : orderKey) + ".");
+    }
 }
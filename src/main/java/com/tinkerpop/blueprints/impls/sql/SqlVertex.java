@@ -5,11 +5,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Vertex;
-import com.tinkerpop.blueprints.VertexQuery;
 
 /**
  * @author Mike Bryant (http://github.com/mikesname)
@@ -22,7 +22,7 @@ public final class SqlVertex extends SqlElement implements Vertex {
         @Override
         public SqlVertex generate(SqlGraph graph, ResultSet rs) {
             try {
-                return new SqlVertex(graph, rs.getLong(1));
+                return graph.vertexFor(rs.getLong(1));
             } catch (SQLException e) {
                 throw new SqlGraphException("Failed to generate SqlVertex from resultset", e);
             }
@@ -41,11 +41,7 @@ public final class SqlVertex extends SqlElement implements Vertex {
 
     @Override
     public void remove() {
-        try (PreparedStatement stmt = graph.getStatements().getRemoveVertex(getId())) {
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            throw new SqlGraphException(e);
-        }
+        graph.removeVertex(getId().longValue());
     }
 
     @Override
@@ -63,31 +59,62 @@ public final class SqlVertex extends SqlElement implements Vertex {
         return DISALLOWED_PROPERTY_NAMES;
     }
 
+    @Override
+    protected Statements.PropertyStatements getPropertyStatements() {
+        return graph.getStatements().getVertexProperties();
+    }
+
+    @Override
+    protected void markModified() {
+        graph.markVertexModified(getId());
+    }
+
+    @Override
+    protected long lastPropertyWrite() {
+        return graph.lastVertexPropertyWrite(getId());
+    }
+
+    @Override
+    protected long recordPropertyWrite() {
+        return graph.recordVertexPropertyWrite(getId());
+    }
+
+    @Override
+    protected void publishProperties(Map<String, Object> properties, long epoch) {
+        graph.publishVertex(getId(), properties, epoch);
+    }
+
     @Override
     public Iterable<Edge> getEdges(Direction direction, String... labels) {
-        StringBuilder sql = new StringBuilder(
-            "SELECT e.id, e.vertex_in, e.vertex_out, e.label FROM edges e, vertices v WHERE v.id = ? ");
+        if (graph.getAdjacencyPageSize() > 0) {
+            return adjacencyQuery(direction, labels).edges();
+        }
+
+        //the edges reference existing vertices, so there's no need to join the vertices table and the adjacency
+        //indexes cover the whole query
+        String edgeSelect = "SELECT e.id, e.vertex_in, e.vertex_out, e.label FROM " + graph.getEdgesTableName() +
+            " e WHERE ";
+        StringBuilder sql = new StringBuilder(edgeSelect);
 
         switch (direction) {
         case IN:
-            sql.append("AND e.vertex_in = v.id ");
+            sql.append("e.vertex_in = ? ");
             break;
         case OUT:
-            sql.append("AND e.vertex_out = v.id ");
+            sql.append("e.vertex_out = ? ");
             break;
         case BOTH:
-            sql.append("AND e.vertex_in = v.id ");
+            sql.append("e.vertex_in = ? ");
             addLabelConditions(sql, "e", labels);
-            sql.append(
-                " UNION ALL SELECT e.id, e.vertex_in, e.vertex_out, e.label FROM edges e, vertices v WHERE v.id = ? AND e.vertex_out = v.id ");
+            sql.append(" UNION ALL ").append(edgeSelect).append("e.vertex_out = ? ");
             break;
         }
 
         addLabelConditions(sql, "e", labels);
 
+        Statements statements = graph.getStatements();
         try {
-            PreparedStatement stmt = graph.getConnection()
-                .prepareStatement(sql.toString(), ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+            PreparedStatement stmt = statements.getQuery(sql.toString());
             stmt.setLong(1, getId());
             int inc = 2;
             if (direction == Direction.BOTH) {
@@ -106,7 +133,7 @@ public final class SqlVertex extends SqlElement implements Vertex {
                 stmt.setString(i + inc, labels[i]);
             }
 
-            return new ResultSetIterable<Edge>(SqlEdge.GENERATOR, graph, stmt.executeQuery());
+            return new ResultSetIterable<Edge>(SqlEdge.GENERATOR, graph, statements, stmt);
         } catch (SQLException e) {
             throw new SqlGraphException(e);
         }
@@ -114,27 +141,32 @@ public final class SqlVertex extends SqlElement implements Vertex {
 
     @Override
     public Iterable<Vertex> getVertices(Direction direction, String... labels) {
-        StringBuilder sql = new StringBuilder("SELECT v.id FROM vertices v, edges e WHERE ");
+        if (graph.getAdjacencyPageSize() > 0) {
+            return adjacencyQuery(direction, labels).vertices();
+        }
+
+        String edges = graph.getEdgesTableName();
+        StringBuilder sql = new StringBuilder();
 
         switch (direction) {
         case IN:
-            sql.append("e.vertex_in = ? AND e.vertex_out = v.id ");
+            sql.append("SELECT e.vertex_out FROM ").append(edges).append(" e WHERE e.vertex_in = ? ");
             break;
         case OUT:
-            sql.append("e.vertex_out = ? AND e.vertex_in = v.id ");
+            sql.append("SELECT e.vertex_in FROM ").append(edges).append(" e WHERE e.vertex_out = ? ");
             break;
         case BOTH:
-            sql.append("e.vertex_in = ? AND e.vertex_out = v.id ");
+            sql.append("SELECT e.vertex_out FROM ").append(edges).append(" e WHERE e.vertex_in = ? ");
             addLabelConditions(sql, "e", labels);
-            sql.append(" UNION ALL SELECT v.id FROM vertices v, edges e WHERE e.vertex_out = ? AND e.vertex_in = v.id ");
+            sql.append(" UNION ALL SELECT e.vertex_in FROM ").append(edges).append(" e WHERE e.vertex_out = ? ");
             break;
         }
 
         addLabelConditions(sql, "e", labels);
 
+        Statements statements = graph.getStatements();
         try {
-            PreparedStatement stmt = graph.getConnection()
-                .prepareStatement(sql.toString(), ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+            PreparedStatement stmt = statements.getQuery(sql.toString());
             stmt.setLong(1, getId());
             int inc = 2;
             if (direction == Direction.BOTH) {
@@ -153,22 +185,37 @@ public final class SqlVertex extends SqlElement implements Vertex {
                 stmt.setString(i + inc, labels[i]);
             }
 
-            return new ResultSetIterable<Vertex>(SqlVertex.GENERATOR, graph, stmt.executeQuery());
+            return new ResultSetIterable<Vertex>(SqlVertex.GENERATOR, graph, statements, stmt);
         } catch (SQLException e) {
             throw new SqlGraphException(e);
         }
     }
 
     @Override
-    public VertexQuery query() {
+    public SqlVertexQuery query() {
         return new SqlVertexQuery(graph, getId());
     }
 
+    /**
+     * Starts a traversal from this vertex, see {@link SqlGraph#traverse(long...)}.
+     */
+    public Traversal traverse() {
+        return graph.traverse(getId());
+    }
+
     @Override
     public SqlEdge addEdge(String label, Vertex inVertex) {
         return graph.addEdge(null, this, inVertex, label);
     }
 
+    /**
+     * @return the vertex query reading the adjacent edges in pages
+     */
+    private SqlVertexQuery adjacencyQuery(Direction direction, String... labels) {
+        SqlVertexQuery query = query().direction(direction);
+        return labels.length == 0 ? query : query.labels(labels);
+    }
+
     private boolean addLabelConditions(StringBuilder sql, String tableName, String... labels) {
         if (labels.length > 0) {
             sql.append("AND ").append(tableName).append(".label IN (?");
@@ -4,12 +4,17 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Contains;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Predicate;
+import com.tinkerpop.blueprints.Query;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.blueprints.VertexQuery;
 
@@ -21,13 +26,21 @@ public final class SqlVertexQuery implements VertexQuery {
 
     private final SqlGraph graph;
     private final long rootVertexId;
-    private final QueryFilters filters = new QueryFilters();
+    private final QueryFilters filters;
     private int limit = -1;
+    private int prefetchSize;
+    private List<String> prefetchKeys;
     private Direction direction = Direction.OUT;
+    private String orderKey;
+    private Order order;
+    private int pageSize;
 
     public SqlVertexQuery(SqlGraph graph, long rootVertexId) {
         this.graph = graph;
+        this.filters = new QueryFilters(graph.getPropertyStorage());
         this.rootVertexId = rootVertexId;
+        this.prefetchSize = graph.getPrefetchSize();
+        this.pageSize = graph.getAdjacencyPageSize();
     }
 
     @Override
@@ -42,30 +55,133 @@ public final class SqlVertexQuery implements VertexQuery {
         return this;
     }
 
+    /**
+     * Counts the edges in the database. A limited count counts the edges the limited query would return.
+     */
     @Override
     public long count() {
-        try (PreparedStatement stmt = generateCountEdgeQuery()) {
+        Statements statements = graph.getStatements();
+        PreparedStatement stmt = null;
+        try {
+            stmt = limit < 0 ? prepare(statements, Result.COUNT) :
+                prepare(statements, Result.AGGREGATE, Aggregates.Function.COUNT, null, null);
             try (ResultSet rs = stmt.executeQuery()) {
-                if (!rs.next()) {
-                    return 0;
-                }
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
+        }
+    }
 
-                long cnt = rs.getLong(1);
+    /**
+     * @return the minimum of the numeric values of the property of the matching edges or null if there are none
+     */
+    public Double min(String key) {
+        return aggregate(Aggregates.Function.MIN, key);
+    }
 
-                if (limit < 0) {
-                    return cnt;
-                } else {
-                    return cnt > limit ? limit : cnt;
-                }
-            }
+    /**
+     * @return the maximum of the numeric values of the property of the matching edges or null if there are none
+     */
+    public Double max(String key) {
+        return aggregate(Aggregates.Function.MAX, key);
+    }
+
+    /**
+     * @return the sum of the numeric values of the property of the matching edges or null if there are none
+     */
+    public Double sum(String key) {
+        return aggregate(Aggregates.Function.SUM, key);
+    }
+
+    /**
+     * @return the average of the numeric values of the property of the matching edges or null if there are none
+     */
+    public Double avg(String key) {
+        return aggregate(Aggregates.Function.AVG, key);
+    }
+
+    /**
+     * Counts the matching edges by the values of the property with the provided key or by their labels. The edges
+     * without the property are not counted.
+     *
+     * @return the numbers of the edges with each of the values
+     */
+    public Map<Object, Long> groupCount(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("null key");
+        }
+
+        Statements statements = graph.getStatements();
+        PreparedStatement stmt = null;
+        try {
+            stmt = prepare(statements, Result.AGGREGATE, Aggregates.Function.GROUP_COUNT, key, null);
+            return Aggregates.readGroups(stmt, "label".equals(key), graph.getPropertyStorage());
         } catch (SQLException e) {
             throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
         }
     }
 
+    private Double aggregate(Aggregates.Function function, String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("null key");
+        }
+
+        Statements statements = graph.getStatements();
+        PreparedStatement stmt = null;
+        try {
+            stmt = prepare(statements, Result.AGGREGATE, function, key, null);
+            return Aggregates.readNumber(stmt);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
+        }
+    }
+
+    /**
+     * Reads the ids of the vertices at the other ends of the edges without creating the vertices. The query is neither
+     * {@link #pageSize(int) paged} nor does it {@link #prefetch(int, String...) prefetch} any properties.
+     */
     @Override
-    public Object vertexIds() {
-        return null; // TODO what's this?
+    public IdIterator vertexIds() {
+        return ids(Result.VERTICES, direction == Direction.BOTH ? limit : -1);
+    }
+
+    /**
+     * Reads the ids of the vertices at the other ends of the edges together with the values of their properties with
+     * the provided keys, pivoted out of the properties table by the query of the vertices, without creating
+     * the vertices. The query is neither {@link #pageSize(int) paged} nor does it {@link #prefetch(int, String...)
+     * prefetch} any properties.
+     *
+     * @return the rows of the vertices, null values stand for the missing properties
+     */
+    public CloseableIterable<Row> select(String... keys) {
+        List<String> projected = Arrays.asList(keys.clone());
+        if (projected.contains(null)) {
+            throw new IllegalArgumentException("null key");
+        }
+
+        Statements statements = graph.getStatements();
+        try {
+            PreparedStatement stmt = prepare(statements, Result.PROJECTION, null, null, projected);
+            return new ResultSetIterable<Row>(Projections.generator(projected, graph.getPropertyStorage()), graph,
+                statements, stmt, -1, 0, null);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    /**
+     * Reads the ids of the edges without creating the edges. The query is neither {@link #pageSize(int) paged} nor
+     * does it {@link #prefetch(int, String...) prefetch} any properties.
+     */
+    public IdIterator edgeIds() {
+        return ids(Result.EDGES, -1);
     }
 
     @Override
@@ -99,28 +215,96 @@ public final class SqlVertexQuery implements VertexQuery {
     }
 
     @Override
-    public <T extends Comparable<T>> VertexQuery has(String key, T value, Compare compare) {
+    public <T extends Comparable<T>> SqlVertexQuery has(String key, T value, Compare compare) {
         filters.has(key, value, compare);
         return this;
     }
 
     @Override
-    public <T extends Comparable<?>> VertexQuery interval(String key, T startValue, T endValue) {
+    public <T extends Comparable<?>> SqlVertexQuery interval(String key, T startValue, T endValue) {
         filters.interval(key, startValue, endValue);
         return this;
     }
 
     @Override
-    public VertexQuery limit(int limit) {
+    public SqlVertexQuery limit(int limit) {
         this.limit = limit;
         return this;
     }
 
+    /**
+     * Orders the edges, or the vertices at their other ends, by the numeric values of the edge property with
+     * the provided key, the edges with the same value by their ids. The edges without a numeric value of the property
+     * are left out.
+     * <p/>
+     * If the query is restricted to a single label and there is a
+     * {@link SqlGraph#createVertexCentricIndex(String, String, Direction) vertex-centric index} of the property for
+     * the label and the direction of the query, the edges are read from the index in the order, so that the cost of
+     * a query with a limit depends on the limit rather than on the number of the edges of the vertex. The edges of
+     * both directions are only read from the indexes when querying the vertices.
+     */
+    public SqlVertexQuery orderBy(String key, Order order) {
+        if (key == null) {
+            throw new IllegalArgumentException("null key");
+        }
+
+        if (order == null) {
+            throw new IllegalArgumentException("null order");
+        }
+
+        this.orderKey = key;
+        this.order = order;
+        return this;
+    }
+
+    /**
+     * Makes the edges, or the vertices at their other ends, read in pages of the given size, each by a separate
+     * query returning the edges with the ids greater than the last edge of the previous page. Neither the database
+     * nor the driver then hold more than a page of the results at a time, and the iteration can be stopped at any
+     * time without reading the rest of the edges. The edges are returned in the order of their ids. In both
+     * directions, the incoming edges are read first and then the outgoing ones, so that, like by
+     * {@link SqlVertex#getEdges(Direction, String...)}, the self-loops are returned twice. The
+     * {@link #orderBy(String, Order) ordered} queries are not paged.
+     *
+     * @param pageSize the number of edges read at once, 0 disables the paging
+     */
+    public SqlVertexQuery pageSize(int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("negative page size");
+        }
+
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Makes the returned elements load their properties in pages of the given size, using a single query for each
+     * page.
+     *
+     * @param pageSize the number of elements to load the properties of at once, 0 disables the prefetching
+     * @param keys     the names of the properties to load, all of them are loaded if none are specified
+     */
+    public SqlVertexQuery prefetch(int pageSize, String... keys) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("negative page size");
+        }
+
+        this.prefetchSize = pageSize;
+        this.prefetchKeys = keys.length == 0 ? null : Arrays.asList(keys);
+        return this;
+    }
+
     @Override
     public CloseableIterable<Edge> edges() {
+        if (pageSize > 0 && orderKey == null) {
+            return this.<Edge>paged(SqlEdge.GENERATOR, Result.EDGES);
+        }
+
         try {
-            PreparedStatement stmt = generateEdgeQuery();
-            return new ResultSetIterable<Edge>(SqlEdge.GENERATOR, graph, stmt.executeQuery());
+            Statements statements = graph.getStatements();
+            PreparedStatement stmt = prepare(statements, Result.EDGES);
+            return new ResultSetIterable<Edge>(SqlEdge.GENERATOR, graph, statements, stmt, -1, prefetchSize,
+                prefetchKeys);
         } catch (SQLException e) {
             throw new SqlGraphException(e);
         }
@@ -128,95 +312,395 @@ public final class SqlVertexQuery implements VertexQuery {
 
     @Override
     public CloseableIterable<Vertex> vertices() {
+        if (pageSize > 0 && orderKey == null) {
+            return this.<Vertex>paged(SqlVertex.GENERATOR, Result.VERTICES);
+        }
+
         try {
-            PreparedStatement stmt = generateVertexQuery();
+            Statements statements = graph.getStatements();
+            PreparedStatement stmt = prepare(statements, Result.VERTICES);
             long artificialLimit = direction == Direction.BOTH ? limit : -1;
-            return new ResultSetIterable<Vertex>(SqlVertex.GENERATOR, graph, stmt.executeQuery(), artificialLimit);
+            return new ResultSetIterable<Vertex>(SqlVertex.GENERATOR, graph, statements, stmt, artificialLimit,
+                prefetchSize, prefetchKeys);
         } catch (SQLException e) {
             throw new SqlGraphException(e);
         }
     }
 
-    private PreparedStatement generateCountEdgeQuery() throws SQLException {
-        return generateQuery("SELECT COUNT(*)");
+    private IdIterator ids(Result result, long artificialLimit) {
+        try {
+            Statements statements = graph.getStatements();
+            return new IdIterator(statements, prepare(statements, result), artificialLimit);
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
     }
 
-    private PreparedStatement generateEdgeQuery() throws SQLException {
-        return generateQuery("SELECT id, vertex_in, vertex_out, label");
-    }
+    private <T> CloseableIterable<T> paged(ElementGenerator<? extends T> generator, final Result result) {
+        //the edges in both directions are read one direction after the other, like by SqlVertex.getEdges()
+        final Direction[] phases = direction == Direction.BOTH ? new Direction[]{Direction.IN, Direction.OUT} :
+            new Direction[]{direction};
+        final Statements statements = graph.getStatements();
 
-    private PreparedStatement generateVertexQuery() throws SQLException {
-        String select;
-        switch (direction) {
-        case IN:
-            select = "SELECT vertex_out";
-            return generateQuery(select);
-        case OUT:
-            select = "SELECT vertex_in";
-            return generateQuery(select);
-        case BOTH:
-            direction = Direction.IN;
-            QueryFilters.SqlAndParams sql = generateQueryString("SELECT vertex_out");
-            direction = Direction.OUT;
-            QueryFilters.SqlAndParams sql2 = generateQueryString("SELECT vertex_in");
-            direction = Direction.BOTH;
+        return new KeysetPagedIterable<T>(generator, graph, statements, new KeysetPagedIterable.PageQuery() {
+            @Override
+            public PreparedStatement prepare(int phase, long afterKey) throws SQLException {
+                return preparePage(statements, result, phases[phase], afterKey);
+            }
+        }, phases.length, pageSize, result == Result.EDGES ? 1 : 2, limit, prefetchSize, prefetchKeys);
+    }
 
-            sql.sql.append(" UNION ALL ").append(sql2.sql);
-            sql.params.addAll(sql2.params);
+    /**
+     * Like {@link #prepare(Statements, Result)}, obtains the statement of a page of the edges in the direction,
+     * or the vertices at their other ends.
+     */
+    private PreparedStatement preparePage(Statements statements, Result result, Direction direction, long afterId)
+        throws SQLException {
+        StringBuilder shape = new StringBuilder("vertex-page|").append(result).append('|').append(direction)
+            .append('|').append(pageSize).append('|');
+        filters.appendShape(shape, graph.getIndexedKeySet(Edge.class));
+        String shapeKey = shape.toString();
+
+        QueryShapeCache shapes = graph.getQueryShapeCache();
+        QueryFilters.CompiledQuery query = shapes.get(shapeKey);
+        if (query == null) {
+            String edges = graph.getEdgesTableName();
+            String columns;
+            if (result == Result.EDGES) {
+                columns = edges + ".id, " + edges + ".vertex_in, " + edges + ".vertex_out, " + edges + ".label";
+            } else {
+                columns = edges + (direction == Direction.IN ? ".vertex_out, " : ".vertex_in, ") + edges + ".id";
+            }
+            query = generateQueryString(columns, direction, null, false, false, true).compile();
+            shapes.put(shapeKey, query);
+        }
 
-            return generateQuery(sql);
-        default:
-            throw new IllegalStateException("unknown direction value");
+        PreparedStatement stmt = statements.getQuery(query.sql);
+        try {
+            query.bind(stmt, filters, rootVertexId, afterId);
+        } catch (SQLException e) {
+            statements.release(stmt);
+            throw e;
         }
 
+        return stmt;
     }
 
-    private PreparedStatement generateQuery(String select) throws SQLException {
-        return generateQuery(generateQueryString(select));
+    /**
+     * Obtains the cached statement for the shape of this query and binds the root vertex id and the values of the
+     * filters to it. The SQL is only generated if the shape is not in the shape cache of the graph yet.
+     */
+    private PreparedStatement prepare(Statements statements, Result result) throws SQLException {
+        return prepare(statements, result, null, null, null);
     }
 
-    private PreparedStatement generateQuery(QueryFilters.SqlAndParams sql) throws SQLException {
-        PreparedStatement stmt = graph.getConnection()
-            .prepareStatement(sql.sql.toString(), ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+    /**
+     * @param function  the aggregate computed by the {@link Result#AGGREGATE} query
+     * @param key       the key of the aggregated property
+     * @param projected the keys of the properties selected by the {@link Result#PROJECTION} query
+     */
+    private PreparedStatement prepare(Statements statements, Result result, Aggregates.Function function, String key,
+        List<String> projected) throws SQLException {
+        //the edges of both directions are read by a single query, which can't use the indexes of either direction
+        boolean branched = result == Result.VERTICES || result == Result.PROJECTION || direction != Direction.BOTH;
+        VertexCentricIndexes.Definition outIndex = branched && direction != Direction.IN ?
+            vertexCentricIndex(Direction.OUT) : null;
+        VertexCentricIndexes.Definition inIndex = branched && direction != Direction.OUT ?
+            vertexCentricIndex(Direction.IN) : null;
+
+        StringBuilder shape = new StringBuilder("vertex|").append(result).append('|').append(direction).append('|')
+            .append(limit).append('|');
+        if (orderKey != null) {
+            shape.append(orderKey.length()).append(':').append(orderKey).append(order);
+        }
+        shape.append('|').append(outIndex == null ? "-" : outIndex.encode()).append('|')
+            .append(inIndex == null ? "-" : inIndex.encode()).append('|');
+        if (function != null) {
+            Aggregates.appendShape(shape, function, key);
+        }
+        if (projected != null) {
+            Projections.appendShape(shape, projected);
+        }
+        filters.appendShape(shape, graph.getIndexedKeySet(Edge.class));
+        String shapeKey = shape.toString();
+
+        QueryShapeCache shapes = graph.getQueryShapeCache();
+        QueryFilters.CompiledQuery query = shapes.get(shapeKey);
+        if (query == null) {
+            query = generateQuery(result, outIndex, inIndex, function, key, projected).compile();
+            shapes.put(shapeKey, query);
+        }
 
-        int i = 1;
-        for (Object p : sql.params) {
-            stmt.setObject(i++, p);
+        PreparedStatement stmt = statements.getQuery(query.sql);
+        try {
+            query.bind(stmt, filters, rootVertexId);
+        } catch (SQLException e) {
+            statements.release(stmt);
+            throw e;
         }
 
         return stmt;
     }
 
-    private QueryFilters.SqlAndParams generateQueryString(String select) throws SQLException {
+    /**
+     * Finds the vertex-centric index the edges in the direction can be read from. The edges must be restricted to
+     * a single label and the index must either be of the key the edges are ordered by or, if they are not ordered, of
+     * a key they are filtered by a numeric range of.
+     *
+     * @return the index or null if none can be used
+     */
+    private VertexCentricIndexes.Definition vertexCentricIndex(Direction direction) {
+        Set<VertexCentricIndexes.Definition> indexes = graph.getVertexCentricIndexSet();
+        if (indexes.isEmpty()) {
+            return null;
+        }
+
+        List<QueryFilters.OperatorAndValue> labelFilters = filters.getFilters().get("label");
+        if (labelFilters == null || labelFilters.size() != 1) {
+            return null;
+        }
+
+        QueryFilters.OperatorAndValue labelFilter = labelFilters.get(0);
+        Object label = labelFilter.object;
+        if (labelFilter.operator == Contains.IN && ((List<?>) label).size() == 1) {
+            label = ((List<?>) label).get(0);
+        } else if (labelFilter.operator != com.tinkerpop.blueprints.Compare.EQUAL &&
+            labelFilter.operator != Query.Compare.EQUAL) {
+            return null;
+        }
+
+        if (!(label instanceof String)) {
+            return null;
+        }
+
+        if (orderKey != null) {
+            VertexCentricIndexes.Definition index = new VertexCentricIndexes.Definition(direction, (String) label,
+                orderKey);
+            return indexes.contains(index) ? index : null;
+        }
+
+        for (String key : filters.getFilters().keySet()) {
+            if (!SqlEdge.DISALLOWED_PROPERTY_NAMES.contains(key) && filters.isNumericRangeFiltered(key)) {
+                VertexCentricIndexes.Definition index = new VertexCentricIndexes.Definition(direction, (String) label,
+                    key);
+                if (indexes.contains(index)) {
+                    return index;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private QueryFilters.SqlAndParams generateQuery(Result result, VertexCentricIndexes.Definition outIndex,
+        VertexCentricIndexes.Definition inIndex, Aggregates.Function function, String key, List<String> projected)
+        throws SQLException {
+        String edges = graph.getEdgesTableName();
+        VertexCentricIndexes.Definition index = direction == Direction.IN ? inIndex : outIndex;
+        switch (result) {
+        case COUNT:
+            return generateQueryString("COUNT(*)", direction, index, false, false, false);
+        case AGGREGATE:
+            //the limited edges are the first ones in the order, so the order only matters with a limit
+            QueryFilters.SqlAndParams sql = generateQueryString(edges + ".id, " + edges + ".label", direction, index,
+                orderKey != null && limit >= 0, false, false);
+            boolean labelColumn = function == Aggregates.Function.GROUP_COUNT && "label".equals(key);
+            Aggregates.wrap(sql.sql, function, key, labelColumn, graph.getEdgePropertiesTableName(),
+                SqlEdge.getPropertyTableForeignKey(), graph.getPropertyStorage());
+            return sql;
+        case EDGES:
+            return generateQueryString(edges + ".id, " + edges + ".vertex_in, " + edges + ".vertex_out, " + edges +
+                ".label", direction, index, orderKey != null, false, false);
+        case PROJECTION:
+            return generateProjection(outIndex, inIndex, projected);
+        default:
+            return generateVertexQuery(outIndex, inIndex);
+        }
+    }
+
+    private QueryFilters.SqlAndParams generateVertexQuery(VertexCentricIndexes.Definition outIndex,
+        VertexCentricIndexes.Definition inIndex) throws SQLException {
+        String edges = graph.getEdgesTableName();
+        boolean ordered = orderKey != null;
+        switch (direction) {
+        case IN:
+            return generateQueryString(edges + ".vertex_out", Direction.IN, inIndex, ordered, false, false);
+        case OUT:
+            return generateQueryString(edges + ".vertex_in", Direction.OUT, outIndex, ordered, false, false);
+        case BOTH:
+            QueryFilters.SqlAndParams sql = generateQueryString(edges + ".vertex_out", Direction.IN, inIndex, ordered,
+                ordered, false);
+            QueryFilters.SqlAndParams sql2 = generateQueryString(edges + ".vertex_in", Direction.OUT, outIndex,
+                ordered, ordered, false);
+
+            if (ordered) {
+                //both the branches are ordered and limited, so that they can use their indexes, and then merged
+                StringBuilder union = new StringBuilder("SELECT u.vertex_id FROM ((").append(sql.sql)
+                    .append(") UNION ALL (").append(sql2.sql).append(")) u ORDER BY u.sort_value ").append(order)
+                    .append(", u.edge_id ").append(order);
+                if (limit >= 0) {
+                    union.append(" LIMIT ").append(limit);
+                }
+                sql.sql.setLength(0);
+                sql.sql.append(union);
+            } else if (limit >= 0) {
+                //the limited branches need to be parenthesized, the union is limited by the iteration
+                sql.sql.insert(0, '(').append(") UNION ALL (").append(sql2.sql).append(')');
+            } else {
+                sql.sql.append(" UNION ALL ").append(sql2.sql);
+            }
+            sql.params.addAll(sql2.params);
+
+            return sql;
+        default:
+            throw new IllegalStateException("unknown direction value");
+        }
+    }
+
+    /**
+     * Generates the query of the vertices at the other ends of the edges joined with the projected properties. The
+     * query of the vertices becomes a derived table, which is ordered again by the values it was ordered by.
+     */
+    private QueryFilters.SqlAndParams generateProjection(VertexCentricIndexes.Definition outIndex,
+        VertexCentricIndexes.Definition inIndex, List<String> projected) throws SQLException {
         String edges = graph.getEdgesTableName();
+        boolean ordered = orderKey != null;
+        //the ordered queries name the columns themselves
+        String alias = ordered ? "" : " AS vertex_id";
 
-        String directionFilter = null;
+        QueryFilters.SqlAndParams sql;
         switch (direction) {
         case IN:
-            directionFilter = edges + ".vertex_in = ?";
+            sql = generateQueryString(edges + ".vertex_out" + alias, Direction.IN, inIndex, ordered, ordered, false);
             break;
         case OUT:
-            directionFilter = edges + ".vertex_out = ?";
+            sql = generateQueryString(edges + ".vertex_in" + alias, Direction.OUT, outIndex, ordered, ordered, false);
             break;
         case BOTH:
-            directionFilter = "(" + edges + ".vertex_in = ? OR " + edges + ".vertex_out = ?)";
+            sql = generateQueryString(edges + ".vertex_out" + alias, Direction.IN, inIndex, ordered, ordered, false);
+            QueryFilters.SqlAndParams sql2 = generateQueryString(edges + ".vertex_in" + alias, Direction.OUT,
+                outIndex, ordered, ordered, false);
+            if (ordered || limit >= 0) {
+                sql.sql.insert(0, '(').append(") UNION ALL (").append(sql2.sql).append(')');
+            } else {
+                sql.sql.append(" UNION ALL ").append(sql2.sql);
+            }
+            sql.params.addAll(sql2.params);
             break;
+        default:
+            throw new IllegalStateException("unknown direction value");
+        }
+
+        sql.sql.insert(0, "SELECT m.vertex_id" + Projections.columns(projected, graph.getPropertyStorage()) +
+            " FROM (").append(") m ").append(Projections.joins("m.vertex_id", projected,
+            graph.getVertexPropertiesTableName(), SqlVertex.getPropertyTableForeignKey()));
+
+        if (ordered) {
+            sql.sql.append(" ORDER BY m.sort_value ").append(order).append(", m.edge_id ").append(order);
+        }
+
+        if (direction == Direction.BOTH && limit >= 0) {
+            sql.sql.append(" LIMIT ").append(limit);
+        }
+
+        return sql;
+    }
+
+    /**
+     * Generates the query of the edges in the direction with the root vertex id as the parameter supplied when
+     * binding the compiled query.
+     *
+     * @param columns     the selected columns of the edges table, qualified by its name
+     * @param index       the vertex-centric index to read the edges from or null
+     * @param ordered     whether to order the edges by the {@link #orderKey}
+     * @param sortColumns whether to select the values the edges are ordered by, as <code>sort_value</code> and
+     *                    <code>edge_id</code>, after the first column, aliased as <code>vertex_id</code>
+     * @param paged       whether to read a page of the edges with the ids greater than the second parameter supplied
+     *                    when binding the compiled query, in the order of the ids
+     */
+    private QueryFilters.SqlAndParams generateQueryString(String columns, Direction direction,
+        VertexCentricIndexes.Definition index, boolean ordered, boolean sortColumns, boolean paged)
+        throws SQLException {
+        String edges = graph.getEdgesTableName();
+
+        String join = null;
+        String sortValue = null;
+        String sortId = edges + ".id";
+        StringBuilder directionFilter = new StringBuilder();
+        QueryFilters.Parameters rangeParams = new QueryFilters.Parameters(Collections.<String>emptySet());
+
+        if (index != null) {
+            join = "JOIN " + graph.getVertexCentricIndexTableName() + " vc ON vc.edge_id = " + edges + ".id";
+            sortValue = "vc.sort_value";
+            sortId = "vc.edge_id";
+            directionFilter.append("vc.vertex_id = ? AND vc.direction = ").append(index.directionCode())
+                .append(" AND vc.label = ").append(SchemaManager.literal(index.label)).append(" AND vc.name = ")
+                .append(SchemaManager.literal(index.key));
+            filters.appendNumericRange(index.key, "vc.sort_value", directionFilter, rangeParams);
+        } else {
+            if (orderKey != null) {
+                //the order key is required, like it would be by an index
+                String column = graph.getPropertyStorage().intervalColumn();
+                join = "JOIN " + graph.getEdgePropertiesTableName() + " ob ON ob.edge_id = " + edges +
+                    ".id AND ob.name = " + SchemaManager.literal(orderKey) + " AND ob." + column + " IS NOT NULL";
+                sortValue = "ob." + column;
+            }
+
+            switch (direction) {
+            case IN:
+                directionFilter.append(edges).append(".vertex_in = ?");
+                break;
+            case OUT:
+                directionFilter.append(edges).append(".vertex_out = ?");
+                break;
+            case BOTH:
+                directionFilter.append("(").append(edges).append(".vertex_in = ? OR ").append(edges)
+                    .append(".vertex_out = ?)");
+                break;
+            }
         }
 
-        QueryFilters.SqlAndParams sql = filters.generateStatement(select, graph.getEdgesTableName(),
-            graph.getEdgePropertiesTableName(),
-            SqlEdge.getPropertyTableForeignKey(), SqlEdge.DISALLOWED_PROPERTY_NAMES, directionFilter);
+        if (paged) {
+            directionFilter.append(" AND ").append(edges).append(".id > ?");
+        }
 
+        String select = sortColumns ? "SELECT " + columns + " AS vertex_id, " + sortValue + " AS sort_value, " +
+            sortId + " AS edge_id" : "SELECT " + columns;
 
-        if (limit >= 0) {
+        QueryFilters.SqlAndParams sql = filters.generateStatement(select, edges, join,
+            graph.getEdgePropertiesTableName(), SqlEdge.getPropertyTableForeignKey(), SqlEdge.DISALLOWED_PROPERTY_NAMES,
+            directionFilter.toString(), graph.getFilterCompilation(), graph.getIndexedKeySet(Edge.class));
+
+        if (ordered) {
+            sql.sql.append(" ORDER BY ").append(sortValue).append(' ').append(order).append(", ").append(sortId)
+                .append(' ').append(order);
+        } else if (paged) {
+            sql.sql.append(" ORDER BY ").append(edges).append(".id");
+        }
+
+        if (paged) {
+            sql.sql.append(" LIMIT ").append(pageSize);
+        } else if (limit >= 0) {
             sql.sql.append(" LIMIT ").append(limit);
         }
 
-        sql.params.add(0, rootVertexId);
+        //inserted in the reverse order of the placeholders: the root vertex id, the index range and the paging id
+        if (paged) {
+            sql.params.insertExternal(0, 1);
+        }
+        sql.params.insertAll(0, rangeParams);
+        sql.params.insertExternal(0, 0);
         if (direction == Direction.BOTH) {
-            sql.params.add(0, rootVertexId);
+            sql.params.insertExternal(0, 0);
         }
 
         return sql;
     }
+
+    /**
+     * What the query returns.
+     */
+    private enum Result {
+        COUNT, AGGREGATE, EDGES, VERTICES, PROJECTION
+    }
 }
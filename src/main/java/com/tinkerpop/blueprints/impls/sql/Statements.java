@@ -1,82 +1,544 @@
 package com.tinkerpop.blueprints.impls.sql;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.tinkerpop.blueprints.Direction;
 
 /**
+ * The registry of the prepared statements used on a single connection.
+ * <p/>
+ * The SQL of the statements is generated once from the table names configured on the graph. The prepared statements
+ * are kept in a bounded LRU cache and reused for the life of the connection. A statement obtained from any of the
+ * getters is exclusively owned by the caller until it is handed back using {@link #release(PreparedStatement)}, which
+ * makes it safe to use the statements concurrently from several threads or recursively.
+ *
  * @author Lukas Krejci
  * @since 1.0
  */
 final class Statements {
 
-    private final SqlGraph graph;
+    private static final String QUERY_KEY_PREFIX = "query:";
+
+    private final Connection connection;
+    private final int cacheSize;
+    private final int resultSetType;
+    private final int fetchSize;
+    private final LinkedHashMap<String, PreparedStatement> idleStatements;
+    private final Map<PreparedStatement, String> statementSql = new IdentityHashMap<>();
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private boolean closed;
+
+    private final String addVertexSql;
+    private final String addEdgeSql;
+    private final String insertVertexSql;
+    private final String insertEdgeSql;
+    private final String maxVertexIdSql;
+    private final String maxEdgeIdSql;
+    private final String getEdgeSql;
+    private final String getVertexSql;
+    private final String removeVertexSql;
+    private final String removeEdgeSql;
+    private final String incidentEdgeIdsSql;
+    private final String allVerticesSql;
+    private final String allEdgesSql;
+    private final String allEdgeIdsSql;
+    private final String addVertexCentricIndexEntrySql;
+    private final String removeVertexCentricIndexEntriesSql;
+    private final String edgesTable;
+
+    private final PropertyStatements vertexProperties;
+    private final PropertyStatements edgeProperties;
+
+    public Statements(SqlGraph graph, Connection connection) {
+        this.connection = connection;
+        this.cacheSize = graph.getStatementCacheSize();
+        this.resultSetType = graph.isStreamResults() ? ResultSet.TYPE_FORWARD_ONLY : ResultSet.TYPE_SCROLL_INSENSITIVE;
+        this.fetchSize = graph.getFetchSize();
+        this.idleStatements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > cacheSize) {
+                    evictionCount++;
+                    discard(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        String vertices = graph.getVerticesTableName();
+        String edges = graph.getEdgesTableName();
+
+        addVertexSql = "INSERT INTO " + vertices + " (id) VALUES (DEFAULT)";
+        addEdgeSql = "INSERT INTO " + edges + " (id, vertex_in, vertex_out, label) VALUES (DEFAULT, ?, ?, ?)";
+        insertVertexSql = "INSERT INTO " + vertices + " (id) VALUES (?)";
+        insertEdgeSql = "INSERT INTO " + edges + " (id, vertex_in, vertex_out, label) VALUES (?, ?, ?, ?)";
+        maxVertexIdSql = "SELECT MAX(id) FROM " + vertices;
+        maxEdgeIdSql = "SELECT MAX(id) FROM " + edges;
+        getEdgeSql = "SELECT id, vertex_in, vertex_out, label FROM " + edges + " WHERE id = ?";
+        getVertexSql = "SELECT id FROM " + vertices + " WHERE id = ?";
+        removeVertexSql = "DELETE FROM " + vertices + " WHERE id = ?";
+        removeEdgeSql = "DELETE FROM " + edges + " WHERE id = ?";
+        incidentEdgeIdsSql = "SELECT id FROM " + edges + " WHERE vertex_out = ? UNION ALL SELECT id FROM " + edges +
+            " WHERE vertex_in = ?";
+        allVerticesSql = "SELECT id FROM " + vertices;
+        allEdgesSql = "SELECT id, vertex_in, vertex_out, label FROM " + edges;
+        allEdgeIdsSql = "SELECT id FROM " + edges;
+        addVertexCentricIndexEntrySql = "INSERT INTO " + graph.getVertexCentricIndexTableName() +
+            " (vertex_id, direction, label, name, sort_value, edge_id) VALUES (?, ?, ?, ?, ?, ?)";
+        removeVertexCentricIndexEntriesSql = "DELETE FROM " + graph.getVertexCentricIndexTableName() +
+            " WHERE edge_id = ? AND name = ?";
+        edgesTable = edges;
+
+        vertexProperties = new PropertyStatements(graph.getPropertyStorage(), graph.getVertexPropertiesTableName(),
+            SqlVertex.getPropertyTableForeignKey());
+        edgeProperties = new PropertyStatements(graph.getPropertyStorage(), graph.getEdgePropertiesTableName(),
+            SqlEdge.getPropertyTableForeignKey());
+    }
 
-    public Statements(SqlGraph graph) {
-        this.graph = graph;
+    public Connection getConnection() {
+        return connection;
     }
 
     public PreparedStatement getAddVertex() throws SQLException {
-        String sql = "INSERT INTO vertices (id) VALUES (DEFAULT)";
-        return graph.getConnection().prepareStatement(sql,
-            Statement.RETURN_GENERATED_KEYS);
+        return acquire(addVertexSql, Statement.RETURN_GENERATED_KEYS);
     }
 
     public PreparedStatement getAddEdge(long inVertexId, long outVertexId, String label) throws SQLException {
-        String sql = "INSERT INTO edges (id, vertex_in, vertex_out, label) VALUES (DEFAULT, ?, ?, ?)";
-        PreparedStatement stmt = graph.getConnection().prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        PreparedStatement stmt = acquire(addEdgeSql, Statement.RETURN_GENERATED_KEYS);
         stmt.setLong(1, inVertexId);
         stmt.setLong(2, outVertexId);
         stmt.setString(3, label);
         return stmt;
     }
 
+    /**
+     * @return an insert of a vertex with an explicitly provided id as the only parameter
+     */
+    public PreparedStatement getInsertVertex() throws SQLException {
+        return acquire(insertVertexSql, Statement.NO_GENERATED_KEYS);
+    }
+
+    /**
+     * @return an insert of an edge with explicitly provided id, in vertex id, out vertex id and label parameters
+     */
+    public PreparedStatement getInsertEdge() throws SQLException {
+        return acquire(insertEdgeSql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public PreparedStatement getMaxVertexId() throws SQLException {
+        return acquire(maxVertexIdSql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public PreparedStatement getMaxEdgeId() throws SQLException {
+        return acquire(maxEdgeIdSql, Statement.NO_GENERATED_KEYS);
+    }
+
     public PreparedStatement getGetEdge(long id) throws SQLException {
-        String sql = "SELECT id, vertex_in, vertex_out, label FROM edges WHERE id = ?";
-        PreparedStatement stmt = graph.getConnection().prepareStatement(sql);
-        stmt.setLong(1, id);
-        return stmt;
+        return withId(acquire(getEdgeSql, Statement.NO_GENERATED_KEYS), id);
     }
 
     public PreparedStatement getGetVertex(long id) throws SQLException {
-        String sql = "SELECT id FROM vertices WHERE id = ?";
-        PreparedStatement stmt = graph.getConnection().prepareStatement(sql);
-        stmt.setLong(1, id);
-        return stmt;
+        return withId(acquire(getVertexSql, Statement.NO_GENERATED_KEYS), id);
     }
 
     public PreparedStatement getRemoveVertex(long id) throws SQLException {
-        String sql = "DELETE FROM vertices WHERE id = ?";
-        PreparedStatement stmt = graph.getConnection().prepareStatement(sql);
-        stmt.setLong(1, id);
-        return stmt;
+        return withId(acquire(removeVertexSql, Statement.NO_GENERATED_KEYS), id);
     }
 
     public PreparedStatement getRemoveEdge(long id) throws SQLException {
-        String sql = "DELETE FROM edges WHERE id = ?";
-        PreparedStatement stmt = graph.getConnection().prepareStatement(sql);
-        stmt.setLong(1, id);
+        return withId(acquire(removeEdgeSql, Statement.NO_GENERATED_KEYS), id);
+    }
+
+    public PreparedStatement getIncidentEdgeIds(long vertexId) throws SQLException {
+        PreparedStatement stmt = acquire(incidentEdgeIdsSql, Statement.NO_GENERATED_KEYS);
+        stmt.setLong(1, vertexId);
+        stmt.setLong(2, vertexId);
+        return stmt;
+    }
+
+    public PreparedStatement getAddVertexCentricIndexEntry(long vertexId, int direction, String label, String name,
+        double sortValue, long edgeId) throws SQLException {
+        PreparedStatement stmt = acquire(addVertexCentricIndexEntrySql, Statement.NO_GENERATED_KEYS);
+        stmt.setLong(1, vertexId);
+        stmt.setInt(2, direction);
+        stmt.setString(3, label);
+        stmt.setString(4, name);
+        stmt.setDouble(5, sortValue);
+        stmt.setLong(6, edgeId);
+        return stmt;
+    }
+
+    /**
+     * @return a delete of the entries of the vertex-centric indexes of the edge property, in all the directions
+     */
+    public PreparedStatement getRemoveVertexCentricIndexEntries(long edgeId, String name) throws SQLException {
+        PreparedStatement stmt = withId(acquire(removeVertexCentricIndexEntriesSql, Statement.NO_GENERATED_KEYS),
+            edgeId);
+        stmt.setString(2, name);
+        return stmt;
+    }
+
+    /**
+     * Obtains a query of a page of the edges adjacent to any of the provided vertices in the direction, ordered by
+     * the id of the edge. The columns are the id of the vertex the edge was reached from, the id of the edge, the id
+     * of the vertex on the other side of the edge and the label.
+     *
+     * @param vertexIds   the ids of the vertices
+     * @param count       the number of ids to use from the array
+     * @param direction   either {@link Direction#IN} or {@link Direction#OUT}
+     * @param afterEdgeId the id of the last edge of the previous page or {@link Long#MIN_VALUE} for the first page
+     * @param pageSize    the maximum number of the edges returned
+     * @param labels      the labels of the edges to return, all the edges are returned if empty
+     * @see #getQuery(String)
+     */
+    public PreparedStatement getNeighbors(long[] vertexIds, int count, Direction direction, long afterEdgeId,
+        int pageSize, String... labels) throws SQLException {
+        int arity = paddedArity(count);
+        String sourceColumn = direction == Direction.IN ? "vertex_in" : "vertex_out";
+        String targetColumn = direction == Direction.IN ? "vertex_out" : "vertex_in";
+
+        StringBuilder sql = new StringBuilder("SELECT ").append(sourceColumn).append(", id, ").append(targetColumn)
+            .append(", label FROM ").append(edgesTable).append(" WHERE ").append(sourceColumn).append(" IN ");
+        appendParameterList(sql, arity);
+        if (labels.length > 0) {
+            appendParameterList(sql.append(" AND label IN "), labels.length);
+        }
+        sql.append(" AND id > ? ORDER BY id LIMIT ").append(pageSize);
+
+        PreparedStatement stmt = getQuery(sql.toString());
+        int idx = bindIds(stmt, 1, vertexIds, count, arity);
+        for (String label : labels) {
+            stmt.setString(idx++, label);
+        }
+        stmt.setLong(idx, afterEdgeId);
+
         return stmt;
     }
 
+    /**
+     * @see #getQuery(String)
+     */
     public PreparedStatement getAllVertices() throws SQLException {
-        String sql = "SELECT id FROM vertices";
-        return graph.getConnection()
-            .prepareStatement(sql, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        return getQuery(allVerticesSql);
     }
 
+    /**
+     * @see #getQuery(String)
+     */
     public PreparedStatement getAllEdges() throws SQLException {
-        String sql = "SELECT id, vertex_in, vertex_out, label FROM edges";
-        return graph.getConnection()
-            .prepareStatement(sql, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        return getQuery(allEdgesSql);
+    }
+
+    /**
+     * @see #getQuery(String)
+     */
+    public PreparedStatement getAllEdgeIds() throws SQLException {
+        return getQuery(allEdgeIdsSql);
+    }
+
+    /**
+     * Obtains a query the results of which are going to be iterated over by the caller, prepared the same way as by
+     * {@link #prepareQuery(String)}. Unlike that method, the statement is cached. It must be handed back using
+     * {@link #release(PreparedStatement)} once its result set is closed.
+     */
+    public PreparedStatement getQuery(String sql) throws SQLException {
+        //the queries are prepared with different result set options than the other statements, so they need to be
+        //cached under a different key than a statement with the same SQL
+        String key = QUERY_KEY_PREFIX + sql;
+
+        PreparedStatement stmt = checkout(key);
+        if (stmt == null) {
+            stmt = prepareQuery(sql);
+            register(stmt, key);
+        }
+
+        return stmt;
+    }
+
+    /**
+     * Prepares a query the results of which are going to be iterated over by the caller. Depending on the
+     * configuration of the graph, the result sets of such statements are either scrollable or forward-only with the
+     * configured fetch size.
+     * <p/>
+     * The returned statement is not cached because its result set outlives the call. The caller is responsible for
+     * closing it.
+     */
+    public PreparedStatement prepareQuery(String sql) throws SQLException {
+        PreparedStatement stmt = connection.prepareStatement(sql, resultSetType, ResultSet.CONCUR_READ_ONLY);
+        if (fetchSize > 0) {
+            stmt.setFetchSize(fetchSize);
+        }
+
+        return stmt;
+    }
+
+    public PropertyStatements getVertexProperties() {
+        return vertexProperties;
     }
 
-    public SqlVertex fromVertexResultSet(ResultSet rs) throws SQLException {
+    public PropertyStatements getEdgeProperties() {
+        return edgeProperties;
+    }
+
+    public SqlVertex fromVertexResultSet(SqlGraph graph, ResultSet rs) throws SQLException {
         if (!rs.next()) {
             return null;
         }
 
         return SqlVertex.GENERATOR.generate(graph, rs);
     }
+
+    /**
+     * Hands a statement obtained from this instance back to the cache. If there already is an idle statement with the
+     * same SQL or this instance has been closed, the statement is closed instead.
+     *
+     * @param stmt the statement to release, can be null
+     */
+    public synchronized void release(PreparedStatement stmt) {
+        if (stmt == null) {
+            return;
+        }
+
+        String sql = statementSql.get(stmt);
+
+        if (closed || sql == null || idleStatements.containsKey(sql)) {
+            discard(stmt);
+        } else {
+            idleStatements.put(sql, stmt);
+        }
+    }
+
+    public synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(hitCount, missCount, evictionCount, idleStatements.size());
+    }
+
+    /**
+     * Closes all the idle statements. Statements released after this call are closed immediately.
+     */
+    public synchronized void close() {
+        closed = true;
+        for (PreparedStatement stmt : idleStatements.values()) {
+            discard(stmt);
+        }
+        idleStatements.clear();
+    }
+
+    private PreparedStatement acquire(String sql, int autoGeneratedKeys) throws SQLException {
+        PreparedStatement stmt = checkout(sql);
+        if (stmt == null) {
+            stmt = connection.prepareStatement(sql, autoGeneratedKeys);
+            register(stmt, sql);
+        }
+
+        return stmt;
+    }
+
+    /**
+     * @return the idle statement cached under the key or null if there is none
+     */
+    private synchronized PreparedStatement checkout(String key) {
+        PreparedStatement stmt = idleStatements.remove(key);
+        if (stmt != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+
+        return stmt;
+    }
+
+    private synchronized void register(PreparedStatement stmt, String key) {
+        statementSql.put(stmt, key);
+    }
+
+    /**
+     * The number of parameters of an IN list holding the given number of values. The lists are padded to a power of
+     * two so that only a handful of distinct statements need to be prepared and cached for lists of varying length.
+     */
+    static int paddedArity(int count) {
+        int arity = 1;
+        while (arity < count) {
+            arity <<= 1;
+        }
+
+        return arity;
+    }
+
+    /**
+     * Appends <code>(?, ?, ...)</code> with the given number of parameters to the SQL.
+     */
+    static StringBuilder appendParameterList(StringBuilder sql, int arity) {
+        sql.append("(?");
+        for (int i = 1; i < arity; ++i) {
+            sql.append(", ?");
+        }
+        return sql.append(")");
+    }
+
+    /**
+     * Binds the ids to the IN list of the given arity starting at the provided parameter index. The list is padded
+     * with the last id.
+     *
+     * @return the index of the next parameter after the IN list
+     */
+    static int bindIds(PreparedStatement stmt, int parameterIndex, long[] ids, int count, int arity)
+        throws SQLException {
+        for (int i = 0; i < arity; ++i) {
+            stmt.setLong(parameterIndex++, ids[i < count ? i : count - 1]);
+        }
+
+        return parameterIndex;
+    }
+
+    private static PreparedStatement withId(PreparedStatement stmt, long id) throws SQLException {
+        stmt.setLong(1, id);
+        return stmt;
+    }
+
+    private void discard(PreparedStatement stmt) {
+        statementSql.remove(stmt);
+        try {
+            stmt.close();
+        } catch (SQLException ignored) {
+            //we're only throwing the statement away, there's nothing to be done about it
+        }
+    }
+
+    /**
+     * The statements to access the properties of either the vertices or the edges.
+     */
+    final class PropertyStatements {
+        private final PropertyStorage storage;
+        private final String getSql;
+        private final String getAllSql;
+        private final String getAllInSqlPrefix;
+        private final String getKeysSql;
+        private final String updateSql;
+        private final String insertSql;
+        private final String removeSql;
+
+        private PropertyStatements(PropertyStorage storage, String propertiesTable, String elementIdColumn) {
+            this.storage = storage;
+            String valueColumns = storage.valueColumns();
+
+            getSql = "SELECT " + valueColumns + " FROM " + propertiesTable + " WHERE " +
+                elementIdColumn + " = ? AND name = ?";
+            getAllSql = "SELECT name, " + valueColumns + " FROM " + propertiesTable + " WHERE " +
+                elementIdColumn + " = ?";
+            getAllInSqlPrefix = "SELECT " + elementIdColumn +
+                ", name, " + valueColumns + " FROM " + propertiesTable + " WHERE " +
+                elementIdColumn + " IN ";
+            getKeysSql = "SELECT name FROM " + propertiesTable + " WHERE " + elementIdColumn + " = ?";
+            updateSql = "UPDATE " + propertiesTable + " SET " + storage.storedAssignments() + " WHERE " +
+                elementIdColumn + " = ? AND name = ?";
+            StringBuilder insert = new StringBuilder("INSERT INTO ").append(propertiesTable).append(" (")
+                .append(elementIdColumn).append(", name, ").append(storage.storedColumns()).append(") VALUES ");
+            insertSql = appendParameterList(insert, 2 + storage.storedColumnCount()).toString();
+            removeSql = "DELETE FROM " + propertiesTable + " WHERE " + elementIdColumn + " = ? AND name = ?";
+        }
+
+        /**
+         * @return the storage layout of the property values, which reads the values from the results of the
+         * queries of this instance
+         */
+        public PropertyStorage getStorage() {
+            return storage;
+        }
+
+        public PreparedStatement getGet(long elementId, String name) throws SQLException {
+            PreparedStatement stmt = acquire(getSql, Statement.NO_GENERATED_KEYS);
+            stmt.setLong(1, elementId);
+            stmt.setString(2, name);
+            return stmt;
+        }
+
+        public PreparedStatement getGetAll(long elementId) throws SQLException {
+            return withId(acquire(getAllSql, Statement.NO_GENERATED_KEYS), elementId);
+        }
+
+        /**
+         * Creates a statement returning the element id, name and the value columns of the properties of all the
+         * provided elements.
+         *
+         * @param elementIds the ids of the elements
+         * @param count      the number of ids to use from the array
+         * @param names      the names of the properties to return or null for all of them
+         */
+        public PreparedStatement getGetAllIn(long[] elementIds, int count, List<String> names)
+            throws SQLException {
+            int arity = paddedArity(count);
+            StringBuilder sql = appendParameterList(new StringBuilder(getAllInSqlPrefix), arity);
+            if (names != null) {
+                appendParameterList(sql.append(" AND name IN "), names.size());
+            }
+
+            PreparedStatement stmt = acquire(sql.toString(), Statement.NO_GENERATED_KEYS);
+            int idx = bindIds(stmt, 1, elementIds, count, arity);
+            if (names != null) {
+                for (String name : names) {
+                    stmt.setString(idx++, name);
+                }
+            }
+
+            return stmt;
+        }
+
+        public PreparedStatement getGetKeys(long elementId) throws SQLException {
+            return withId(acquire(getKeysSql, Statement.NO_GENERATED_KEYS), elementId);
+        }
+
+        public PreparedStatement getUpdate(long elementId, String name, Object value, ValueType valueType)
+            throws SQLException {
+            PreparedStatement stmt = acquire(updateSql, Statement.NO_GENERATED_KEYS);
+            int idx = storage.storedColumnCount() + 1;
+            storage.bind(stmt, 1, value, valueType);
+            stmt.setLong(idx, elementId);
+            stmt.setString(idx + 1, name);
+            return stmt;
+        }
+
+        public PreparedStatement getInsert(long elementId, String name, Object value, ValueType valueType)
+            throws SQLException {
+            PreparedStatement stmt = getInsert();
+            bindInsert(stmt, elementId, name, value, valueType);
+            return stmt;
+        }
+
+        /**
+         * @return the insert statement without any parameters bound. Use {@link #bindInsert(PreparedStatement, long,
+         * String, Object, ValueType)} to bind them.
+         */
+        public PreparedStatement getInsert() throws SQLException {
+            return acquire(insertSql, Statement.NO_GENERATED_KEYS);
+        }
+
+        public void bindInsert(PreparedStatement stmt, long elementId, String name, Object value, ValueType valueType)
+            throws SQLException {
+            stmt.setLong(1, elementId);
+            stmt.setString(2, name);
+            storage.bind(stmt, 3, value, valueType);
+        }
+
+        public PreparedStatement getRemove(long elementId, String name) throws SQLException {
+            PreparedStatement stmt = acquire(removeSql, Statement.NO_GENERATED_KEYS);
+            stmt.setLong(1, elementId);
+            stmt.setString(2, name);
+            return stmt;
+        }
+
+        public void release(PreparedStatement stmt) {
+            Statements.this.release(stmt);
+        }
+    }
 }
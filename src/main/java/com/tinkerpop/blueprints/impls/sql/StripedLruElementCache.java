@@ -0,0 +1,238 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+/**
+ * The default {@link ElementCache} implementation. The cache is split into a number of segments, each guarded by its
+ * own lock and evicting its least recently used entries once it is full. The ids are kept as primitive longs.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+public final class StripedLruElementCache<T> implements ElementCache<T> {
+
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+
+    private final Segment<T>[] segments;
+
+    public StripedLruElementCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("negative cache size");
+        }
+
+        int segmentSize = (maxSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT;
+
+        @SuppressWarnings("unchecked")
+        Segment<T>[] segments = (Segment<T>[]) new Segment<?>[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; ++i) {
+            segments[i] = new Segment<>(segmentSize);
+        }
+        this.segments = segments;
+    }
+
+    @Override
+    public T get(long id) {
+        return segmentFor(id).get(id);
+    }
+
+    @Override
+    public void put(long id, T element) {
+        if (element == null) {
+            throw new IllegalArgumentException("null element");
+        }
+
+        segmentFor(id).put(id, element);
+    }
+
+    @Override
+    public void remove(long id) {
+        segmentFor(id).remove(id);
+    }
+
+    @Override
+    public void clear() {
+        for (Segment<T> s : segments) {
+            s.clear();
+        }
+    }
+
+    @Override
+    public CacheStatistics getStatistics() {
+        long hits = 0;
+        long misses = 0;
+        long evictions = 0;
+        long size = 0;
+
+        for (Segment<T> s : segments) {
+            synchronized (s) {
+                hits += s.hitCount;
+                misses += s.missCount;
+                evictions += s.evictionCount;
+                size += s.size;
+            }
+        }
+
+        return new CacheStatistics(hits, misses, evictions, size);
+    }
+
+    private Segment<T> segmentFor(long id) {
+        return segments[segmentIndex(id)];
+    }
+
+    /**
+     * The segment is chosen by the lowest bits of the hash, so all the ids in a segment share them.
+     */
+    static int segmentIndex(long id) {
+        return spread(id) & (SEGMENT_COUNT - 1);
+    }
+
+    private static int spread(long id) {
+        int h = (int) (id ^ (id >>> 32));
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    /**
+     * A hash table with chained buckets and the entries linked in the access order. The head of the access list is
+     * the least recently used entry.
+     */
+    private static final class Segment<T> {
+        private final int maxSize;
+        private Entry<T>[] table;
+        private int size;
+        private final Entry<T> head = new Entry<>(0, null);
+
+        long hitCount;
+        long missCount;
+        long evictionCount;
+
+        Segment(int maxSize) {
+            this.maxSize = maxSize;
+            int capacity = 4;
+            while (capacity < maxSize && capacity < (1 << 28)) {
+                capacity <<= 1;
+            }
+            table = newTable(capacity);
+            head.before = head;
+            head.after = head;
+        }
+
+        synchronized T get(long id) {
+            Entry<T> e = find(id);
+            if (e == null) {
+                missCount++;
+                return null;
+            }
+
+            hitCount++;
+            unlink(e);
+            linkLast(e);
+            return e.value;
+        }
+
+        synchronized void put(long id, T value) {
+            if (maxSize == 0) {
+                return;
+            }
+
+            Entry<T> e = find(id);
+            if (e != null) {
+                e.value = value;
+                unlink(e);
+                linkLast(e);
+                return;
+            }
+
+            if (size >= maxSize) {
+                Entry<T> eldest = head.after;
+                removeFromTable(eldest);
+                unlink(eldest);
+                size--;
+                evictionCount++;
+            }
+
+            e = new Entry<>(id, value);
+            int idx = bucketIndex(id);
+            e.next = table[idx];
+            table[idx] = e;
+            linkLast(e);
+            size++;
+        }
+
+        synchronized void remove(long id) {
+            Entry<T> e = find(id);
+            if (e != null) {
+                removeFromTable(e);
+                unlink(e);
+                size--;
+            }
+        }
+
+        synchronized void clear() {
+            table = newTable(table.length);
+            head.before = head;
+            head.after = head;
+            size = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Entry<T>[] newTable(int capacity) {
+            return (Entry<T>[]) new Entry<?>[capacity];
+        }
+
+        private Entry<T> find(long id) {
+            Entry<T> e = table[bucketIndex(id)];
+            while (e != null && e.key != id) {
+                e = e.next;
+            }
+            return e;
+        }
+
+        private void removeFromTable(Entry<T> e) {
+            int idx = bucketIndex(e.key);
+            Entry<T> prev = null;
+            Entry<T> cur = table[idx];
+            while (cur != e) {
+                prev = cur;
+                cur = cur.next;
+            }
+
+            if (prev == null) {
+                table[idx] = e.next;
+            } else {
+                prev.next = e.next;
+            }
+        }
+
+        /**
+         * Skips the bits of the hash that choose the segment, which are the same for all the ids in the segment.
+         */
+        private int bucketIndex(long id) {
+            return (spread(id) >>> SEGMENT_BITS) & (table.length - 1);
+        }
+
+        private void unlink(Entry<T> e) {
+            e.before.after = e.after;
+            e.after.before = e.before;
+        }
+
+        private void linkLast(Entry<T> e) {
+            e.after = head;
+            e.before = head.before;
+            head.before.after = e;
+            head.before = e;
+        }
+    }
+
+    private static final class Entry<T> {
+        final long key;
+        T value;
+        Entry<T> next;
+        Entry<T> before;
+        Entry<T> after;
+
+        Entry(long key, T value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
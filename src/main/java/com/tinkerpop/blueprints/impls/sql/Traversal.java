@@ -0,0 +1,303 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Predicate;
+import com.tinkerpop.blueprints.Query;
+import com.tinkerpop.blueprints.Vertex;
+
+/**
+ * A linear pipeline of hops over the edges from a set of start vertices, with the vertices reached by each of the hops
+ * filtered by their properties, compiled into a single SQL statement.
+ * <p/>
+ * The statement joins the edges table once per hop to the vertices reached by the previous hop, so a pattern of
+ * a fixed depth takes a single round trip to the database no matter how many vertices it passes through. The labels
+ * of the hops are restricted in the where clause and the filters of the vertices reached by a hop restrict them to
+ * the statement {@link QueryFilters} generates for the vertices table, used as a subquery, so the filters behave
+ * exactly like the filters of {@link SqlGraphQuery}. A {@link #dedup()} followed by more hops makes the vertices
+ * reached so far a derived table of distinct ids, which the following hops are joined to. The edges in both
+ * directions are joined by either of their ends, so that a self-loop is only followed once.
+ * <p/>
+ * Like a query, a traversal is built by chaining the steps and executed by reading its results. Each of the results
+ * is a vertex reached by a walk through the pipeline, i.e. the vertices reached by several walks are returned several
+ * times unless the traversal ends with a {@link #dedup()}.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+public final class Traversal {
+
+    private final SqlGraph graph;
+    private final long[] startIds;
+    private final List<Step> steps = new ArrayList<>();
+    private int limit = -1;
+
+    Traversal(SqlGraph graph, long... startIds) {
+        this.graph = graph;
+        this.startIds = startIds.clone();
+        steps.add(new Step(null, new String[0]));
+    }
+
+    /**
+     * Follows the outgoing edges with the provided labels, any edges if no labels are provided.
+     */
+    public Traversal out(String... labels) {
+        return hop(Direction.OUT, labels);
+    }
+
+    /**
+     * Follows the incoming edges with the provided labels, any edges if no labels are provided.
+     */
+    public Traversal in(String... labels) {
+        return hop(Direction.IN, labels);
+    }
+
+    /**
+     * Follows the edges with the provided labels in both directions, any edges if no labels are provided.
+     */
+    public Traversal both(String... labels) {
+        return hop(Direction.BOTH, labels);
+    }
+
+    public Traversal has(String key) {
+        last().filters().has(key);
+        return this;
+    }
+
+    public Traversal hasNot(String key) {
+        last().filters().hasNot(key);
+        return this;
+    }
+
+    public Traversal has(String key, Object value) {
+        last().filters().has(key, value);
+        return this;
+    }
+
+    public Traversal hasNot(String key, Object value) {
+        last().filters().hasNot(key, value);
+        return this;
+    }
+
+    public Traversal has(String key, Predicate predicate, Object value) {
+        last().filters().has(key, predicate, value);
+        return this;
+    }
+
+    public <T extends Comparable<T>> Traversal has(String key, T value, Query.Compare compare) {
+        last().filters().has(key, value, compare);
+        return this;
+    }
+
+    public <T extends Comparable<?>> Traversal interval(String key, T startValue, T endValue) {
+        last().filters().interval(key, startValue, endValue);
+        return this;
+    }
+
+    /**
+     * Removes the duplicates from the vertices reached so far.
+     */
+    public Traversal dedup() {
+        last().dedup = true;
+        return this;
+    }
+
+    /**
+     * @param limit the maximum number of the vertices returned
+     */
+    public Traversal limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public CloseableIterable<Vertex> vertices() {
+        Statements statements = graph.getStatements();
+        PreparedStatement stmt = prepare(statements, false);
+        return new ResultSetIterable<Vertex>(SqlVertex.GENERATOR, graph, statements, stmt, -1, graph.getPrefetchSize(),
+            null);
+    }
+
+    /**
+     * Reads the ids of the reached vertices without creating the vertices.
+     */
+    public IdIterator vertexIds() {
+        Statements statements = graph.getStatements();
+        return new IdIterator(statements, prepare(statements, false), -1);
+    }
+
+    /**
+     * Counts the reached vertices in the database, up to the limit of the traversal.
+     */
+    public long count() {
+        Statements statements = graph.getStatements();
+        PreparedStatement stmt = prepare(statements, true);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        } finally {
+            statements.release(stmt);
+        }
+    }
+
+    private Traversal hop(Direction direction, String... labels) {
+        steps.add(new Step(direction, labels.clone()));
+        return this;
+    }
+
+    private Step last() {
+        return steps.get(steps.size() - 1);
+    }
+
+    /**
+     * Generates the statement of the traversal and obtains it using {@link Statements#getQuery(String)}, so that
+     * the traversals of the same shape share the prepared statement.
+     */
+    private PreparedStatement prepare(Statements statements, boolean count) {
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = generate(params);
+        if (count) {
+            sql.insert(0, "SELECT COUNT(*) FROM (").append(") m");
+        }
+
+        PreparedStatement stmt = null;
+        try {
+            stmt = statements.getQuery(sql.toString());
+            for (int i = 0; i < params.size(); ++i) {
+                stmt.setObject(i + 1, params.get(i));
+            }
+            return stmt;
+        } catch (SQLException e) {
+            statements.release(stmt);
+            throw new SqlGraphException(e);
+        }
+    }
+
+    /**
+     * @param params the list to add the values of the parameters of the statement to, in their order
+     */
+    private StringBuilder generate(List<Object> params) {
+        String edges = graph.getEdgesTableName();
+
+        StringBuilder from = new StringBuilder(graph.getVerticesTableName()).append(" s");
+        StringBuilder where = new StringBuilder();
+        String current = "s.id";
+
+        if (startIds.length == 0) {
+            where.append("1 = 0");
+        } else {
+            int arity = Statements.paddedArity(startIds.length);
+            Statements.appendParameterList(where.append("s.id IN "), arity);
+            for (int i = 0; i < arity; ++i) {
+                params.add(startIds[Math.min(i, startIds.length - 1)]);
+            }
+        }
+
+        for (int i = 0; i < steps.size(); ++i) {
+            Step step = steps.get(i);
+
+            if (step.direction != null) {
+                String e = "e" + i;
+                from.append(" JOIN ").append(edges).append(' ').append(e).append(" ON ");
+                switch (step.direction) {
+                case OUT:
+                    from.append(e).append(".vertex_out = ").append(current);
+                    current = e + ".vertex_in";
+                    break;
+                case IN:
+                    from.append(e).append(".vertex_in = ").append(current);
+                    current = e + ".vertex_out";
+                    break;
+                case BOTH:
+                    from.append('(').append(e).append(".vertex_out = ").append(current).append(" OR ").append(e)
+                        .append(".vertex_in = ").append(current).append(')');
+                    current = "CASE WHEN " + e + ".vertex_out = " + current + " THEN " + e + ".vertex_in ELSE " + e +
+                        ".vertex_out END";
+                    break;
+                }
+
+                if (step.labels.length > 0) {
+                    Statements.appendParameterList(and(where).append(e).append(".label IN "), step.labels.length);
+                    params.addAll(Arrays.asList(step.labels));
+                }
+            }
+
+            if (step.filters != null) {
+                QueryFilters.SqlAndParams filtered = generateFilters(step.filters);
+                and(where).append(current).append(" IN (").append(filtered.sql).append(')');
+                params.addAll(Arrays.asList(filtered.compile().parameters(step.filters)));
+            }
+
+            if (step.dedup && i < steps.size() - 1) {
+                from.insert(0, "(SELECT DISTINCT " + current + " AS id FROM ");
+                if (where.length() > 0) {
+                    from.append(" WHERE ").append(where);
+                }
+                from.append(") d").append(i);
+                where.setLength(0);
+                current = "d" + i + ".id";
+            }
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (last().dedup) {
+            sql.append("DISTINCT ");
+        }
+        sql.append(current).append(" AS id FROM ").append(from);
+        if (where.length() > 0) {
+            sql.append(" WHERE ").append(where);
+        }
+        if (limit >= 0) {
+            sql.append(" LIMIT ").append(limit);
+        }
+
+        return sql;
+    }
+
+    private QueryFilters.SqlAndParams generateFilters(QueryFilters filters) {
+        try {
+            return filters.generateStatement("SELECT id", graph.getVerticesTableName(), null,
+                graph.getVertexPropertiesTableName(), SqlVertex.getPropertyTableForeignKey(),
+                SqlVertex.DISALLOWED_PROPERTY_NAMES, null, graph.getFilterCompilation(),
+                graph.getIndexedKeySet(Vertex.class));
+        } catch (SQLException e) {
+            throw new SqlGraphException(e);
+        }
+    }
+
+    private static StringBuilder and(StringBuilder where) {
+        if (where.length() > 0) {
+            where.append(" AND ");
+        }
+        return where;
+    }
+
+    /**
+     * The start of the traversal or a hop, with the filters of the vertices it reaches.
+     */
+    private final class Step {
+        final Direction direction;
+        final String[] labels;
+        QueryFilters filters;
+        boolean dedup;
+
+        Step(Direction direction, String[] labels) {
+            this.direction = direction;
+            this.labels = labels;
+        }
+
+        QueryFilters filters() {
+            if (filters == null) {
+                filters = new QueryFilters(graph.getPropertyStorage());
+            }
+            return filters;
+        }
+    }
+}
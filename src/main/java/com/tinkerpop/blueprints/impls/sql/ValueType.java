@@ -2,7 +2,7 @@ package com.tinkerpop.blueprints.impls.sql;
 
 import java.math.BigDecimal;
 import java.sql.NClob;
-import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Iterator;
 
@@ -76,6 +76,19 @@ enum ValueType {
 
     public abstract Object convertFromDBType(Object input);
 
+    /**
+     * Reads a property value from a result set that contains the <code>string_value</code>,
+     * <code>numeric_value</code> and <code>value_type</code> columns of a property table in that order.
+     *
+     * @param rs                the result set positioned on the row to read
+     * @param stringValueColumn the index of the <code>string_value</code> column
+     */
+    public static Object read(ResultSet rs, int stringValueColumn) throws SQLException {
+        ValueType valueType = ValueType.values()[rs.getInt(stringValueColumn + 2)];
+        return valueType.convertFromDBType(rs.getObject(valueType.isNumeric() ? stringValueColumn + 1 :
+            stringValueColumn));
+    }
+
     public boolean isNumeric() {
         switch (this) {
         case CHARACTER:
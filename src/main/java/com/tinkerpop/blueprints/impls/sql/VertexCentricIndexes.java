@@ -0,0 +1,142 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.tinkerpop.blueprints.Direction;
+
+/**
+ * The vertex-centric indexes declared on a graph, as seen by a transaction.
+ * <p/>
+ * A vertex-centric index keeps the numeric values of a property of the edges with a label in the vertex-centric index
+ * table, keyed by the vertex the edges are looked up from. The edges of a vertex can then be read sorted by the
+ * property, or restricted to a range of its values, using a range scan of the index, the cost of which depends on the
+ * number of the returned edges rather than the degree of the vertex.
+ * <p/>
+ * Like the {@link IndexedKeys}, the indexes are recorded in the metadata table and loaded from there when they are
+ * first needed. Unlike the key indexes though, which only speed the queries up, a vertex-centric index is only correct
+ * if every writer maintains its entries. The indexes are therefore loaded again in each transaction, so that the
+ * graphs working with the same database, possibly in other processes, start indexing the edges of the indexes
+ * created by the others.
+ *
+ * @author Lukas Krejci
+ * @since 1.0
+ */
+final class VertexCentricIndexes {
+
+    private volatile Set<Definition> definitions;
+
+    /**
+     * @return the declared indexes or null if they haven't been loaded yet
+     */
+    Set<Definition> get() {
+        return definitions;
+    }
+
+    void set(Set<Definition> definitions) {
+        this.definitions = Collections.unmodifiableSet(new HashSet<>(definitions));
+    }
+
+    /**
+     * Forgets the loaded indexes so that they're loaded again when next needed.
+     */
+    void clear() {
+        definitions = null;
+    }
+
+    /**
+     * @return the indexes of the property of the edges with the label among the provided definitions
+     */
+    static List<Definition> find(Set<Definition> definitions, String label, String key) {
+        List<Definition> ret = new ArrayList<>(2);
+        for (Direction d : new Direction[]{Direction.OUT, Direction.IN}) {
+            Definition index = new Definition(d, label, key);
+            if (definitions.contains(index)) {
+                ret.add(index);
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * A vertex-centric index of the property of the edges with a label, looked up from the vertices in a direction,
+     * either {@link Direction#OUT} or {@link Direction#IN}.
+     */
+    static final class Definition {
+        final Direction direction;
+        final String label;
+        final String key;
+
+        Definition(Direction direction, String label, String key) {
+            if (direction == Direction.BOTH) {
+                throw new IllegalArgumentException("A vertex-centric index is defined for a single direction.");
+            }
+
+            this.direction = direction;
+            this.label = label;
+            this.key = key;
+        }
+
+        /**
+         * @return the code of the direction in the vertex-centric index table
+         */
+        int directionCode() {
+            return direction == Direction.OUT ? 0 : 1;
+        }
+
+        /**
+         * @return the column of the edges table holding the vertex the edges are looked up from
+         */
+        String vertexColumn() {
+            return direction == Direction.OUT ? "vertex_out" : "vertex_in";
+        }
+
+        /**
+         * Encodes the definition so that it can be stored in the metadata table. The label is prefixed by its length
+         * so that it can't be confused with the key.
+         */
+        String encode() {
+            return direction.name() + ":" + label.length() + ":" + label + ":" + key;
+        }
+
+        static Definition decode(String encoded) {
+            int directionEnd = encoded.indexOf(':');
+            int lengthEnd = encoded.indexOf(':', directionEnd + 1);
+            int labelStart = lengthEnd + 1;
+            int labelEnd = labelStart + Integer.parseInt(encoded.substring(directionEnd + 1, lengthEnd));
+
+            return new Definition(Direction.valueOf(encoded.substring(0, directionEnd)),
+                encoded.substring(labelStart, labelEnd), encoded.substring(labelEnd + 1));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Definition)) {
+                return false;
+            }
+
+            Definition other = (Definition) o;
+            return direction == other.direction && label.equals(other.label) && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = direction.hashCode();
+            result = 31 * result + label.hashCode();
+            result = 31 * result + key.hashCode();
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "VertexCentricIndex[" + direction + ", label=" + label + ", key=" + key + "]";
+        }
+    }
+}
@@ -0,0 +1,5 @@
+-- Covering indexes for the adjacency lookups, so that the edges of a vertex and its neighbors can be read from the
+-- index alone. The indexes are built concurrently so that the existing deployments can keep writing to the edges
+-- while the migration runs.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_%EDGES%_out ON %EDGES% (vertex_out, label, vertex_in, id);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_%EDGES%_in ON %EDGES% (vertex_in, label, vertex_out, id);
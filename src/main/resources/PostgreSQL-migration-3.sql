@@ -0,0 +1,9 @@
+-- The 64-bit hashes of the string values with an index, so that the equality filters on the strings can be evaluated
+-- using a compact index instead of the one on the full values. The hashes of the existing values are computed by the
+-- SchemaManager after the script runs. The indexes are built concurrently so that the existing deployments can keep
+-- writing to the properties while the migration runs.
+ALTER TABLE %VERTEX_PROPERTIES% ADD COLUMN IF NOT EXISTS string_hash BIGINT;
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_%VERTEX_PROPERTIES%_hash ON %VERTEX_PROPERTIES% (name, string_hash);
+
+ALTER TABLE %EDGE_PROPERTIES% ADD COLUMN IF NOT EXISTS string_hash BIGINT;
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_%EDGE_PROPERTIES%_hash ON %EDGE_PROPERTIES% (name, string_hash);
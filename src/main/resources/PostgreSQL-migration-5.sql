@@ -0,0 +1,5 @@
+-- The indexes of the edges of a vertex in the order of their ids, so that the adjacency can be read in pages starting
+-- after the last edge of the previous page without sorting all the edges of the vertex for each page. The indexes are
+-- built concurrently so that the existing deployments can keep writing to the edges while the migration runs.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_%EDGES%_out_id ON %EDGES% (vertex_out, id);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_%EDGES%_in_id ON %EDGES% (vertex_in, id);
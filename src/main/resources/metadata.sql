@@ -0,0 +1,4 @@
+CREATE TABLE %METADATA% (
+  name CHARACTER VARYING(255) NOT NULL PRIMARY KEY,
+  string_value CHARACTER VARYING(4000) NOT NULL
+);
@@ -0,0 +1,4 @@
+-- Covering indexes for the adjacency lookups, so that the edges of a vertex and its neighbors can be read from the
+-- index alone.
+CREATE INDEX IF NOT EXISTS idx_%EDGES%_out ON %EDGES% (vertex_out, label, vertex_in, id);
+CREATE INDEX IF NOT EXISTS idx_%EDGES%_in ON %EDGES% (vertex_in, label, vertex_out, id);
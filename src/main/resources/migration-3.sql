@@ -0,0 +1,8 @@
+-- The 64-bit hashes of the string values with an index, so that the equality filters on the strings can be evaluated
+-- using the index even where the strings themselves can't be indexed. The hashes of the existing values are computed
+-- by the SchemaManager after the script runs.
+ALTER TABLE %VERTEX_PROPERTIES% ADD COLUMN IF NOT EXISTS string_hash BIGINT;
+CREATE INDEX IF NOT EXISTS idx_%VERTEX_PROPERTIES%_hash ON %VERTEX_PROPERTIES% (name, string_hash);
+
+ALTER TABLE %EDGE_PROPERTIES% ADD COLUMN IF NOT EXISTS string_hash BIGINT;
+CREATE INDEX IF NOT EXISTS idx_%EDGE_PROPERTIES%_hash ON %EDGE_PROPERTIES% (name, string_hash);
@@ -0,0 +1,17 @@
+-- The vertex-centric indexes - the numeric values of the selected edge properties together with the vertex and the
+-- direction they are looked up from and the label of the edge, so that the edges of a vertex with a label can be
+-- read sorted by the property or filtered by its range without reading all of them.
+CREATE TABLE IF NOT EXISTS %VERTEX_CENTRIC_INDEX% (
+  vertex_id INT NOT NULL,
+  direction SMALLINT NOT NULL,
+  label CHARACTER VARYING(255) NOT NULL,
+  name CHARACTER VARYING(255) NOT NULL,
+  sort_value DOUBLE PRECISION NOT NULL,
+  edge_id INT NOT NULL,
+  CONSTRAINT fk_vertex_centric_edge FOREIGN KEY (edge_id) REFERENCES %EDGES% (id)
+    ON DELETE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS idx_%VERTEX_CENTRIC_INDEX% ON %VERTEX_CENTRIC_INDEX% (vertex_id, direction, label, name,
+  sort_value, edge_id);
+CREATE INDEX IF NOT EXISTS idx_%VERTEX_CENTRIC_INDEX%_edge ON %VERTEX_CENTRIC_INDEX% (edge_id, name);
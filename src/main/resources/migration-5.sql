@@ -0,0 +1,4 @@
+-- The indexes of the edges of a vertex in the order of their ids, so that the adjacency can be read in pages starting
+-- after the last edge of the previous page without sorting all the edges of the vertex for each page.
+CREATE INDEX IF NOT EXISTS idx_%EDGES%_out_id ON %EDGES% (vertex_out, id);
+CREATE INDEX IF NOT EXISTS idx_%EDGES%_in_id ON %EDGES% (vertex_in, id);
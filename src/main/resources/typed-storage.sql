@@ -0,0 +1,37 @@
+-- Converts the property tables from the legacy layout with a single NUMERIC and TEXT value column to the typed
+-- layout. The value types are the ordinals of ValueType: 0 BOOLEAN, 1 CHARACTER, 2 BYTE, 3 SHORTINT, 4 INT, 5 LONG,
+-- 6 FLOAT, 7 DOUBLE, 8 STRING. The length limit of string_value must match PropertyStorage.MAX_INDEXED_STRING_LENGTH.
+
+ALTER TABLE %VERTEX_PROPERTIES% ADD COLUMN text_value TEXT;
+ALTER TABLE %VERTEX_PROPERTIES% ADD COLUMN long_value BIGINT;
+ALTER TABLE %VERTEX_PROPERTIES% ADD COLUMN double_value DOUBLE PRECISION;
+
+UPDATE %VERTEX_PROPERTIES% SET long_value = numeric_value WHERE value_type IN (0, 2, 3, 4, 5);
+UPDATE %VERTEX_PROPERTIES% SET double_value = numeric_value WHERE value_type IN (0, 2, 3, 4, 5, 6, 7);
+UPDATE %VERTEX_PROPERTIES% SET text_value = string_value, string_value = NULL WHERE LENGTH(string_value) > 512;
+
+DROP INDEX IF EXISTS idx_%VERTEX_PROPERTIES%_2;
+DROP INDEX IF EXISTS idx_%VERTEX_PROPERTIES%_3;
+ALTER TABLE %VERTEX_PROPERTIES% DROP COLUMN numeric_value;
+ALTER TABLE %VERTEX_PROPERTIES% ALTER COLUMN string_value TYPE VARCHAR(512);
+
+CREATE INDEX idx_%VERTEX_PROPERTIES%_2 ON %VERTEX_PROPERTIES% (name, string_value);
+CREATE INDEX idx_%VERTEX_PROPERTIES%_3 ON %VERTEX_PROPERTIES% (name, long_value);
+CREATE INDEX idx_%VERTEX_PROPERTIES%_4 ON %VERTEX_PROPERTIES% (name, double_value);
+
+ALTER TABLE %EDGE_PROPERTIES% ADD COLUMN text_value TEXT;
+ALTER TABLE %EDGE_PROPERTIES% ADD COLUMN long_value BIGINT;
+ALTER TABLE %EDGE_PROPERTIES% ADD COLUMN double_value DOUBLE PRECISION;
+
+UPDATE %EDGE_PROPERTIES% SET long_value = numeric_value WHERE value_type IN (0, 2, 3, 4, 5);
+UPDATE %EDGE_PROPERTIES% SET double_value = numeric_value WHERE value_type IN (0, 2, 3, 4, 5, 6, 7);
+UPDATE %EDGE_PROPERTIES% SET text_value = string_value, string_value = NULL WHERE LENGTH(string_value) > 512;
+
+DROP INDEX IF EXISTS idx_%EDGE_PROPERTIES%_2;
+DROP INDEX IF EXISTS idx_%EDGE_PROPERTIES%_3;
+ALTER TABLE %EDGE_PROPERTIES% DROP COLUMN numeric_value;
+ALTER TABLE %EDGE_PROPERTIES% ALTER COLUMN string_value TYPE VARCHAR(512);
+
+CREATE INDEX idx_%EDGE_PROPERTIES%_2 ON %EDGE_PROPERTIES% (name, string_value);
+CREATE INDEX idx_%EDGE_PROPERTIES%_3 ON %EDGE_PROPERTIES% (name, long_value);
+CREATE INDEX idx_%EDGE_PROPERTIES%_4 ON %EDGE_PROPERTIES% (name, double_value);
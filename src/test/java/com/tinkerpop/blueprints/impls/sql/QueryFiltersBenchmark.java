@@ -0,0 +1,138 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.tinkerpop.blueprints.Compare;
+import com.tinkerpop.blueprints.Contains;
+import com.tinkerpop.blueprints.GraphQuery;
+import com.tinkerpop.blueprints.Vertex;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * Compares the {@link SqlGraph.FilterCompilation} strategies on a generated graph. Not run as part of the build.
+ * <p/>
+ * Usage: <code>QueryFiltersBenchmark [vertex count] [database path]</code>. The vertex count defaults to 1 million
+ * and the database is created under <code>target/benchmark</code> by default. An existing database at the path is
+ * reused as long as it contains the requested number of vertices.
+ *
+ * @author Lukas Krejci
+ */
+public final class QueryFiltersBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 10;
+
+    private QueryFiltersBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int vertexCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String path = args.length > 1 ? args[1] : "target/benchmark/query-filters-" + vertexCount;
+
+        SqlGraph loading = graph(path, SqlGraph.FilterCompilation.JOIN);
+        try {
+            loading.createSchemaIfNeeded();
+            if (count(loading.query().has("rank").vertices()) != vertexCount) {
+                load(loading, vertexCount);
+            }
+        } finally {
+            loading.shutdown();
+        }
+
+        Query[] queries = {
+            new Query("equal + equal") {
+                @Override
+                GraphQuery apply(GraphQuery q) {
+                    return q.has("kind", "k2").has("group", 42);
+                }
+            },
+            new Query("range + equal + equal") {
+                @Override
+                GraphQuery apply(GraphQuery q) {
+                    return q.has("rank", Compare.GREATER_THAN, vertexCount / 2).has("kind", "k2").has("group", 42);
+                }
+            },
+            new Query("interval + equal") {
+                @Override
+                GraphQuery apply(GraphQuery q) {
+                    return q.interval("rank", 1000, 5000).has("kind", "k7");
+                }
+            },
+            new Query("in + exists + not equal") {
+                @Override
+                GraphQuery apply(GraphQuery q) {
+                    return q.has("group", Contains.IN, Arrays.asList(1, 2, 3)).has("rank")
+                        .hasNot("kind", "k1");
+                }
+            }
+        };
+
+        for (SqlGraph.FilterCompilation compilation : SqlGraph.FilterCompilation.values()) {
+            SqlGraph graph = graph(path, compilation);
+            try {
+                for (Query q : queries) {
+                    run(graph, compilation, q);
+                }
+            } finally {
+                graph.shutdown();
+            }
+        }
+    }
+
+    private static SqlGraph graph(String path, SqlGraph.FilterCompilation compilation) throws Exception {
+        Map<String, Object> config = new HashMap<>();
+        config.put("sql.datasource.class", JdbcDataSource.class.getName());
+        config.put("sql.datasource.URL", "jdbc:h2:" + path + ";FILE_LOCK=NO");
+        config.put("sql.filterCompilation", compilation.name());
+        return new SqlGraph(config);
+    }
+
+    private static void load(SqlGraph graph, int vertexCount) {
+        long start = System.nanoTime();
+        try (SqlBulkLoader loader = new SqlBulkLoader(graph)) {
+            for (int i = 0; i < vertexCount; ++i) {
+                long id = loader.addVertex();
+                loader.setVertexProperty(id, "rank", i);
+                loader.setVertexProperty(id, "group", i % 1000);
+                loader.setVertexProperty(id, "kind", "k" + (i % 10));
+            }
+        }
+        System.out.printf("Loaded %d vertices in %d ms%n", vertexCount, (System.nanoTime() - start) / 1000000);
+    }
+
+    private static void run(SqlGraph graph, SqlGraph.FilterCompilation compilation, Query query) {
+        long results = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; ++i) {
+            results = count(query.apply(graph.query()).vertices());
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; ++i) {
+            count(query.apply(graph.query()).vertices());
+        }
+        double avgMillis = (System.nanoTime() - start) / 1000000.0 / MEASURED_ROUNDS;
+
+        System.out.printf("%-9s %-25s %8d results %10.2f ms%n", compilation, query.name, results, avgMillis);
+    }
+
+    private static long count(Iterable<Vertex> vertices) {
+        long ret = 0;
+        for (Vertex ignored : vertices) {
+            ret++;
+        }
+        return ret;
+    }
+
+    private abstract static class Query {
+        final String name;
+
+        Query(String name) {
+            this.name = name;
+        }
+
+        abstract GraphQuery apply(GraphQuery q);
+    }
+}
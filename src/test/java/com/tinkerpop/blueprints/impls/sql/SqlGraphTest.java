@@ -8,8 +8,19 @@ import com.tinkerpop.blueprints.util.io.graphson.GraphSONReaderTestSuite;
 
 import java.io.*;
 import java.lang.reflect.Method;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.h2.jdbcx.JdbcDataSource;
 
@@ -63,6 +74,12 @@ public class SqlGraphTest extends GraphTest {
         printTestPerformance("TransactionalGraphTestSuite", this.stopWatch());
     }
 
+    public void testKeyIndexableGraphTestSuite() throws Exception {
+        this.stopWatch();
+        doTestSuite(new KeyIndexableGraphTestSuite(this));
+        printTestPerformance("KeyIndexableGraphTestSuite", this.stopWatch());
+    }
+
     public void testGraphMLReaderTestSuite() throws Exception {
         this.stopWatch();
         doTestSuite(new GraphMLReaderTestSuite(this));
@@ -81,6 +98,1360 @@ public class SqlGraphTest extends GraphTest {
         printTestPerformance("GMLReaderTestSuite", this.stopWatch());
     }
 
+    public void testStatementCacheReusesStatements() throws Exception {
+        graphName = "graph-" + (new Date().getTime());
+        SqlGraph graph = (SqlGraph) generateGraph();
+        try {
+            Vertex v = graph.addVertex(null);
+            for (int i = 0; i < 10; ++i) {
+                v.setProperty("key", i);
+                assertEquals(i, v.getProperty("key"));
+            }
+
+            CacheStatistics stats = graph.getStatementCacheStatistics();
+            assertTrue(stats.getHitCount() > stats.getMissCount());
+        } finally {
+            graph.shutdown();
+            deleteDirectory(new File(getWorkingDirectory()));
+        }
+    }
+
+    public void testBulkLoadedElementsAreVisibleThroughTheGraph() throws Exception {
+        SqlGraph graph = memoryGraph("bulk");
+        try {
+            long[] ids = new long[25];
+            try (SqlBulkLoader loader = new SqlBulkLoader(graph, 7, 10)) {
+                for (int i = 0; i < ids.length; ++i) {
+                    ids[i] = loader.addVertex();
+                    loader.setVertexProperty(ids[i], "index", i);
+                }
+
+                for (int i = 1; i < ids.length; ++i) {
+                    long e = loader.addEdge(ids[i - 1], ids[i], "next");
+                    loader.setEdgeProperty(e, "name", "e" + i);
+                }
+
+                assertEquals(49, loader.getLoadedElementCount());
+                assertEquals(49, loader.getLoadedPropertyCount());
+            }
+
+            for (int i = 0; i < ids.length; ++i) {
+                Vertex v = graph.getVertex(ids[i]);
+                assertNotNull(v);
+                assertEquals(i, v.getProperty("index"));
+            }
+
+            Edge e = graph.getVertex(ids[3]).getEdges(Direction.OUT, "next").iterator().next();
+            assertEquals("e4", e.getProperty("name"));
+            assertEquals(graph.getVertex(ids[4]), e.getVertex(Direction.IN));
+
+            //the ids generated by the database must not collide with the ones assigned by the loader
+            Vertex v = graph.addVertex(null);
+            assertTrue((Long) v.getId() > ids[ids.length - 1]);
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testBulkLoaderCommitsTheThreadTransaction() throws Exception {
+        SqlGraph graph = memoryGraph("bulkIsolated;DB_CLOSE_DELAY=-1", "sql.threadIsolatedTransactions", true,
+            "sql.sharedCache.size", 100);
+        try {
+            Object existing = graph.addVertex(null).getId();
+            graph.commit();
+
+            SqlGraph reader = (SqlGraph) graph.newTransaction();
+            assertNull(reader.getVertex(existing).getProperty("name"));
+            reader.shutdown();
+
+            try (SqlBulkLoader loader = new SqlBulkLoader(graph, 2, 2)) {
+                for (int i = 0; i < 10; ++i) {
+                    loader.addVertex();
+                }
+                loader.setVertexProperty((Long) existing, "name", "loaded");
+            }
+
+            assertEquals(11, count(graph.getVertices()));
+
+            //the existing vertex has been evicted from the shared cache
+            reader = (SqlGraph) graph.newTransaction();
+            assertEquals("loaded", reader.getVertex(existing).getProperty("name"));
+            reader.shutdown();
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testQueriesOfTheSameShapeShareStatements() throws Exception {
+        graphName = "graph-" + (new Date().getTime());
+        SqlGraph graph = (SqlGraph) generateGraph();
+        try {
+            Vertex root = graph.addVertex(null);
+            for (int i = 0; i < 10; ++i) {
+                Vertex v = graph.addVertex(null);
+                v.setProperty("age", i);
+                v.setProperty("name", "v" + i);
+                root.addEdge(i % 2 == 0 ? "even" : "odd", v).setProperty("weight", i);
+            }
+
+            long statementHits = graph.getStatementCacheStatistics().getHitCount();
+
+            for (int i = 0; i < 10; ++i) {
+                CloseableIterable<Vertex> vs = graph.query().has("age", i).has("name", "v" + i).vertices();
+                assertEquals(1, count(vs));
+                vs.close();
+
+                CloseableIterable<Edge> es = ((SqlVertexQuery) root.query()).labels(i % 2 == 0 ? "even" : "odd")
+                    .has("weight", Compare.GREATER_THAN_EQUAL, i).edges();
+                assertEquals(i % 2 == 0 ? 5 - i / 2 : 5 - (i - 1) / 2, count(es));
+                es.close();
+            }
+
+            //the same keys with values stored in a different column are a different shape
+            assertEquals(0, count(graph.query().has("age", "1").vertices()));
+            assertEquals(2, count(graph.query().has("age", Contains.IN, Arrays.asList(1, "v2", 3)).vertices()));
+            assertEquals(1, count(graph.query().has("name", Contains.IN, Arrays.asList(1, "v2", 3)).vertices()));
+
+            CacheStatistics shapes = graph.getQueryShapeCacheStatistics();
+            assertEquals(5, shapes.getMissCount());
+            assertEquals(18, shapes.getHitCount());
+            assertTrue(graph.getStatementCacheStatistics().getHitCount() - statementHits >= 18);
+        } finally {
+            graph.shutdown();
+            deleteDirectory(new File(getWorkingDirectory()));
+        }
+    }
+
+    public void testPropertiesAreCachedOnElements() throws Exception {
+        graphName = "graph-" + (new Date().getTime());
+        SqlGraph graph = (SqlGraph) generateGraph();
+        try {
+            Vertex v = graph.addVertex(null);
+            v.setProperty("a", 1);
+            v.setProperty("b", "b");
+            graph.commit();
+
+            Vertex read = graph.getVertex(v.getId());
+            //not set on the vertex, so this loads all the properties
+            assertNull(read.getProperty("c"));
+
+            long requests = graph.getStatementCacheStatistics().getRequestCount();
+            assertEquals(1, read.getProperty("a"));
+            assertEquals("b", read.getProperty("b"));
+            assertEquals(2, read.getPropertyKeys().size());
+            assertEquals(requests, graph.getStatementCacheStatistics().getRequestCount());
+
+            read.setProperty("a", 2);
+            graph.rollback();
+            assertEquals(1, read.getProperty("a"));
+        } finally {
+            graph.shutdown();
+            deleteDirectory(new File(getWorkingDirectory()));
+        }
+    }
+
+    public void testWritesAreSeenByEvictedInstances() throws Exception {
+        SqlGraph graph = memoryGraph("instances", "sql.elementCache.size", 1);
+        try {
+            Vertex held = graph.addVertex(null);
+            Vertex other = graph.addVertex(null);
+            Edge heldEdge = graph.addEdge(null, held, other, "knows");
+            held.setProperty("name", "a");
+            heldEdge.setProperty("weight", 1);
+            graph.commit();
+            assertEquals("a", held.getProperty("name"));
+            assertEquals(1, heldEdge.getProperty("weight"));
+
+            //evict the held instances from the cache by reading enough other elements
+            List<Object> ids = new ArrayList<>();
+            for (int i = 0; i < 64; ++i) {
+                Vertex v = graph.addVertex(null);
+                ids.add(v.getId());
+                ids.add(graph.addEdge(null, v, other, "knows").getId());
+            }
+            for (int i = 0; i < ids.size(); i += 2) {
+                graph.getVertex(ids.get(i));
+                graph.getEdge(ids.get(i + 1));
+            }
+
+            Vertex second = graph.getVertex(held.getId());
+            Edge secondEdge = graph.getEdge(heldEdge.getId());
+            assertNotSame(held, second);
+            assertNotSame(heldEdge, secondEdge);
+
+            second.setProperty("name", "b");
+            secondEdge.setProperty("weight", 2);
+            assertEquals("b", held.getProperty("name"));
+            assertEquals(2, heldEdge.getProperty("weight"));
+
+            held.removeProperty("name");
+            assertNull(second.getProperty("name"));
+            assertEquals(0, second.getPropertyKeys().size());
+
+            graph.commit();
+            second.setProperty("name", "c");
+            assertEquals("c", held.getProperty("name"));
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testCommitsOfOtherGraphsAreSeenAfterCommit() throws Exception {
+        SqlGraph graph = memoryGraph("otherCommits;DB_CLOSE_DELAY=-1");
+        SqlGraph other = null;
+        try {
+            Vertex v = graph.addVertex(null);
+            v.setProperty("p", 1);
+            graph.commit();
+            assertEquals(1, graph.getVertex(v.getId()).getProperty("p"));
+
+            other = memoryGraph("otherCommits");
+            other.getVertex(v.getId()).setProperty("p", 2);
+            other.commit();
+
+            graph.commit();
+            assertEquals(2, graph.getVertex(v.getId()).getProperty("p"));
+
+            TransactionalGraph tx = graph.newTransaction();
+            tx.getVertex(v.getId()).setProperty("p", 3);
+            tx.commit();
+            tx.shutdown();
+
+            graph.rollback();
+            assertEquals(3, graph.getVertex(v.getId()).getProperty("p"));
+        } finally {
+            if (other != null) {
+                other.shutdown();
+            }
+            graph.shutdown();
+        }
+    }
+
+    public void testPropertiesArePrefetchedInPages() throws Exception {
+        graphName = "graph-" + (new Date().getTime());
+        SqlGraph graph = (SqlGraph) generateGraph();
+        try {
+            for (int i = 0; i < 10; ++i) {
+                Vertex v = graph.addVertex(null);
+                v.setProperty("index", i);
+                v.setProperty("name", "v" + i);
+            }
+            graph.commit();
+
+            long requests = graph.getStatementCacheStatistics().getRequestCount();
+            int cnt = 0;
+            for (Vertex v : graph.query().prefetch(4, "index").vertices()) {
+                assertNotNull(v.getProperty("index"));
+                cnt++;
+            }
+
+            assertEquals(10, cnt);
+            //the query itself and 3 pages of 4 elements each
+            assertEquals(requests + 4, graph.getStatementCacheStatistics().getRequestCount());
+        } finally {
+            graph.shutdown();
+            deleteDirectory(new File(getWorkingDirectory()));
+        }
+    }
+
+    public void testStreamedResultsCanBeIteratedRepeatedly() throws Exception {
+        SqlGraph graph = memoryGraph("streaming", "sql.streamResults", true, "sql.fetchSize", 2);
+        try {
+            for (int i = 0; i < 5; ++i) {
+                graph.addVertex(null);
+            }
+
+            Iterable<Vertex> vertices = graph.getVertices();
+            assertEquals(5, count(vertices));
+            assertEquals(5, count(vertices));
+            ((CloseableIterable<Vertex>) vertices).close();
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testSharedCacheOnlyServesCommittedData() throws Exception {
+        SqlGraph graph = memoryGraph("sharedCache;DB_CLOSE_DELAY=-1", "sql.sharedCache.size", 100);
+        try {
+            Object id = graph.addVertex(null).getId();
+            graph.getVertex(id).setProperty("name", "a");
+            graph.commit();
+
+            SqlGraph reader = (SqlGraph) graph.newTransaction();
+            assertEquals("a", reader.getVertex(id).getProperty("name"));
+            reader.shutdown();
+
+            reader = (SqlGraph) graph.newTransaction();
+            assertEquals("a", reader.getVertex(id).getProperty("name"));
+            assertEquals(0, reader.getStatementCacheStatistics().getRequestCount());
+            reader.shutdown();
+
+            SqlGraph writer = (SqlGraph) graph.newTransaction();
+            writer.getVertex(id).setProperty("name", "b");
+
+            reader = (SqlGraph) graph.newTransaction();
+            assertEquals("a", reader.getVertex(id).getProperty("name"));
+            reader.shutdown();
+
+            writer.commit();
+            writer.shutdown();
+
+            reader = (SqlGraph) graph.newTransaction();
+            assertEquals("b", reader.getVertex(id).getProperty("name"));
+            reader.shutdown();
+
+            assertTrue(graph.getSharedCacheStatistics().getHitCount() >= 3);
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testPooledConnectionsAreReusedByTransactions() throws Exception {
+        SqlGraph graph = memoryGraph("pool;DB_CLOSE_DELAY=-1", "sql.pool.maxSize", 2, "sql.pool.maxWait", 10);
+        try {
+            Object id = graph.addVertex(null).getId();
+            graph.commit();
+
+            SqlGraph tx = (SqlGraph) graph.newTransaction();
+            assertNotNull(tx.getVertex(id));
+            tx.shutdown();
+
+            tx = (SqlGraph) graph.newTransaction();
+            assertNotNull(tx.getVertex(id));
+            assertTrue(tx.getStatementCacheStatistics().getHitCount() > 0);
+
+            try {
+                graph.newTransaction();
+                fail("The pool should have been exhausted.");
+            } catch (SqlGraphException expected) {
+            }
+
+            tx.shutdown();
+
+            PoolStatistics stats = graph.getConnectionPoolStatistics();
+            assertEquals(2, stats.getCreatedCount());
+            assertEquals(3, stats.getBorrowCount());
+            assertEquals(1, stats.getActiveCount());
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testThreadIsolatedTransactions() throws Exception {
+        final SqlGraph graph = memoryGraph("isolated;DB_CLOSE_DELAY=-1;MVCC=TRUE", "sql.pool.maxSize", 4,
+            "sql.threadIsolatedTransactions", true);
+        try {
+            assertTrue(graph.getFeatures().supportsThreadIsolatedTransactions);
+
+            graph.commit();
+
+            final Object id = graph.addVertex(null).getId();
+
+            final Object[] seenInOtherThread = new Object[1];
+            Thread other = new Thread() {
+                @Override
+                public void run() {
+                    seenInOtherThread[0] = graph.getVertex(id);
+                    graph.commit();
+                }
+            };
+            other.start();
+            other.join();
+
+            assertNull(seenInOtherThread[0]);
+            assertNotNull(graph.getVertex(id));
+
+            graph.commit();
+
+            other = new Thread() {
+                @Override
+                public void run() {
+                    seenInOtherThread[0] = graph.getVertex(id);
+                    graph.commit();
+                }
+            };
+            other.start();
+            other.join();
+
+            assertNotNull(seenInOtherThread[0]);
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testThreadTransactionsReturnTheirConnections() throws Exception {
+        final SqlGraph graph = memoryGraph("threads;DB_CLOSE_DELAY=-1;MVCC=TRUE", "sql.pool.maxSize", 2,
+            "sql.pool.maxWait", 5000, "sql.threadIsolatedTransactions", true);
+        try {
+            final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+            //more threads than connections one after the other, every other one never concluding its transaction
+            for (int i = 0; i < 8; ++i) {
+                final boolean conclude = i % 2 == 1;
+                Thread t = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            graph.addVertex(null);
+                            if (conclude) {
+                                graph.commit();
+                            }
+                        } catch (Throwable e) {
+                            failures.add(e);
+                        }
+                    }
+                };
+                t.start();
+                t.join();
+            }
+
+            //and many more at once, each running several transactions and waiting for the connections of the others
+            //to be reclaimed once they terminate
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 16; ++i) {
+                threads.add(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < 5; ++j) {
+                                graph.addVertex(null).setProperty("round", j);
+                                graph.commit();
+                            }
+                        } catch (Throwable e) {
+                            failures.add(e);
+                        }
+                    }
+                });
+            }
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+
+            assertEquals(Collections.<Throwable>emptyList(), failures);
+            assertEquals(4 + 16 * 5, count(graph.getVertices()));
+            graph.commit();
+            assertTrue(graph.getConnectionPoolStatistics().getCreatedCount() <= 2);
+        } finally {
+            graph.shutdown();
+        }
+
+        assertEquals(0, graph.getConnectionPoolStatistics().getActiveCount());
+    }
+
+    public void testThreadTransactionsIterateAcrossCommits() throws Exception {
+        Object[][] configs = {{"sql.threadIsolatedTransactions", true},
+            {"sql.threadIsolatedTransactions", true, "sql.pool.maxSize", 1}};
+        for (int c = 0; c < configs.length; ++c) {
+            SqlGraph graph = memoryGraph("iterated" + c + ";DB_CLOSE_DELAY=-1", configs[c]);
+            try {
+                for (int i = 0; i < 3; ++i) {
+                    graph.addVertex(null);
+                }
+                graph.commit();
+
+                Iterator<Vertex> it = graph.getVertices().iterator();
+                int cnt = 0;
+                while (it.hasNext()) {
+                    it.next();
+                    cnt++;
+                    graph.addVertex(null);
+                    graph.commit();
+                }
+
+                assertEquals(3, cnt);
+                assertEquals(6, count(graph.getVertices()));
+            } finally {
+                graph.shutdown();
+            }
+        }
+    }
+
+    public void testSchemaWithoutVersionIsUpgraded() throws Exception {
+        SqlGraph graph = memoryGraph("upgrade");
+        try {
+            //simulate a schema created before the versioning
+            try (Statement st = graph.getConnection().createStatement()) {
+                st.execute("DROP TABLE graph_metadata");
+                st.execute("DROP INDEX idx_edges_out");
+                st.execute("DROP INDEX idx_edges_in");
+            }
+            graph.commit();
+
+            graph.createSchemaIfNeeded();
+
+            SchemaManager schema = new SchemaManager(graph, graph.getConnection());
+            assertEquals(Integer.toString(SchemaManager.CURRENT_VERSION), schema.getMetadata(SchemaManager.VERSION_KEY));
+
+            try (Statement st = graph.getConnection().createStatement();
+                 ResultSet rs = st.executeQuery("SELECT COUNT(DISTINCT INDEX_NAME) FROM INFORMATION_SCHEMA.INDEXES " +
+                     "WHERE INDEX_NAME IN ('IDX_EDGES_OUT', 'IDX_EDGES_IN')")) {
+                assertTrue(rs.next());
+                assertEquals(2, rs.getInt(1));
+            }
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testStringHashesAreBackfilledAndUsedByFilters() throws Exception {
+        SqlGraph graph = memoryGraph("hashes");
+        try {
+            Vertex a = graph.addVertex(null);
+            a.setProperty("name", "a");
+            a.setProperty("initial", 'a');
+            Vertex b = graph.addVertex(null);
+            b.setProperty("name", "b");
+            b.setProperty("initial", 'b');
+            b.setProperty("rank", 1);
+            graph.commit();
+
+            //simulate a schema created before the hashes
+            SchemaManager schema = new SchemaManager(graph, graph.getConnection());
+            try (Statement st = graph.getConnection().createStatement()) {
+                st.execute("DROP INDEX idx_vertex_properties_hash");
+                st.execute("DROP INDEX idx_edge_properties_hash");
+                st.execute("ALTER TABLE vertex_properties DROP COLUMN string_hash");
+                st.execute("ALTER TABLE edge_properties DROP COLUMN string_hash");
+            }
+            schema.setMetadata(SchemaManager.VERSION_KEY, "2");
+            graph.commit();
+
+            graph.createSchemaIfNeeded();
+
+            try (Statement st = graph.getConnection().createStatement();
+                 ResultSet rs = st.executeQuery("SELECT string_hash FROM vertex_properties WHERE name = 'rank' OR " +
+                     "(name = 'name' AND string_value = 'b') ORDER BY name")) {
+                assertTrue(rs.next());
+                assertEquals(PropertyStorage.stringHash("b"), rs.getLong(1));
+                assertTrue(rs.next());
+                assertNull(rs.getObject(1));
+            }
+
+            Vertex c = graph.addVertex(null);
+            c.setProperty("name", "c");
+            graph.commit();
+
+            assertEquals(1, count(graph.query().has("name", "b").vertices()));
+            assertEquals(1, count(graph.query().has("initial", 'a').vertices()));
+            assertEquals(2, count(graph.query().has("name", Contains.IN, Arrays.asList("a", "c", 1)).vertices()));
+            assertEquals(0, count(graph.query().has("name", "d").vertices()));
+            assertEquals(2, count(graph.query().has("name", Compare.NOT_EQUAL, "b").vertices()));
+
+            //both the compilations probe the hashes of the strings in the IN lists
+            for (SqlGraph.FilterCompilation compilation : SqlGraph.FilterCompilation.values()) {
+                QueryFilters filters = new QueryFilters(PropertyStorage.LEGACY);
+                filters.has("name", Contains.IN, Arrays.asList("a", "c", 1));
+                String sql = filters.generateStatement("SELECT id", graph.getVerticesTableName(), null,
+                    graph.getVertexPropertiesTableName(), "vertex_id", Collections.<String>emptyList(), null,
+                    compilation, Collections.<String>emptySet()).sql.toString();
+                assertTrue(compilation + ": " + sql, sql.contains(".string_hash IN (?, ?)"));
+            }
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testKeyIndexesAreUsedByQueries() throws Exception {
+        graphName = "graph-" + (new Date().getTime());
+        SqlGraph graph = (SqlGraph) generateGraph();
+        try {
+            Vertex a = graph.addVertex(null);
+            a.setProperty("it's", "a");
+            a.setProperty("rank", 1);
+            Vertex b = graph.addVertex(null);
+            b.setProperty("it's", "b");
+            b.setProperty("rank", 2);
+            graph.addEdge(null, a, b, "knows").setProperty("weight", 0.5);
+
+            graph.createKeyIndex("it's", Vertex.class);
+            graph.createKeyIndex("rank", Vertex.class);
+            graph.createKeyIndex("weight", Edge.class);
+            //already indexed
+            graph.createKeyIndex("rank", Vertex.class);
+
+            assertEquals(2, graph.getIndexedKeys(Vertex.class).size());
+            assertEquals(1, count(graph.query().has("it's", "b").has("rank", 2).vertices()));
+            assertEquals(1, count(graph.query().has("rank", Compare.LESS_THAN, 2).vertices()));
+            assertEquals(1, count(graph.query().has("it's", Contains.IN, Arrays.asList("a", "c")).vertices()));
+            assertEquals(1, count(graph.query().has("weight", 0.5).edges()));
+            assertEquals(1, count(a.query().has("weight", Compare.GREATER_THAN, 0.1).edges()));
+
+            graph.dropKeyIndex("rank", Vertex.class);
+            assertEquals(Collections.singleton("it's"), graph.getIndexedKeys(Vertex.class));
+            assertEquals(1, count(graph.query().has("rank", 2).vertices()));
+        } finally {
+            graph.shutdown();
+        }
+
+        //the indexed keys are persistent
+        graph = (SqlGraph) generateGraph();
+        try {
+            assertEquals(Collections.singleton("it's"), graph.getIndexedKeys(Vertex.class));
+            assertEquals(Collections.singleton("weight"), graph.getIndexedKeys(Edge.class));
+        } finally {
+            graph.shutdown();
+            deleteDirectory(new File(getWorkingDirectory()));
+        }
+    }
+
+    public void testVertexCentricIndexesOrderAndFilterEdges() throws Exception {
+        graphName = "graph-" + (new Date().getTime());
+        SqlGraph graph = (SqlGraph) generateGraph();
+        try {
+            SqlVertex hub = (SqlVertex) graph.addVertex(null);
+            Vertex[] followed = new Vertex[5];
+            Edge[] follows = new Edge[5];
+            for (int i = 0; i < 5; ++i) {
+                followed[i] = graph.addVertex(null);
+                follows[i] = graph.addEdge(null, hub, followed[i], "follows");
+                follows[i].setProperty("created_at", i);
+                if (i == 1) {
+                    //the existing edges are indexed when the index is created, the later ones when they're modified
+                    graph.createVertexCentricIndex("follows", "created_at", Direction.BOTH);
+                }
+            }
+            graph.addEdge(null, hub, followed[0], "follows").setProperty("created_at", "not a number");
+            graph.addEdge(null, hub, followed[0], "likes").setProperty("created_at", 10);
+            Vertex follower = graph.addVertex(null);
+            graph.addEdge(null, follower, hub, "follows").setProperty("created_at", 7);
+            graph.commit();
+
+            assertEquals(Arrays.asList(follows[4].getId(), follows[3].getId()),
+                ids(hub.query().labels("follows").orderBy("created_at", Order.DESC).limit(2).edges()));
+            assertEquals(Arrays.asList(followed[0].getId(), followed[1].getId()),
+                ids(hub.query().labels("follows").orderBy("created_at", Order.ASC).limit(2)
+                    .vertices()));
+            assertEquals(3, hub.query().labels("follows").has("created_at", Compare.GREATER_THAN_EQUAL, 2).count());
+            assertEquals(2, hub.query().labels("follows").interval("created_at", 1, 3).count());
+            assertEquals(Arrays.asList(follower.getId(), followed[4].getId()),
+                ids(hub.query().direction(Direction.BOTH).labels("follows")
+                    .orderBy("created_at", Order.DESC).limit(2).vertices()));
+
+            follows[4].removeProperty("created_at");
+            follows[0].setProperty("created_at", 100);
+            assertEquals(Arrays.asList(follows[0].getId(), follows[3].getId()),
+                ids(hub.query().labels("follows").orderBy("created_at", Order.DESC).limit(2).edges()));
+            assertEquals(10, countVertexCentricIndexEntries(graph));
+
+            //not indexed, ordered by joining the properties
+            assertEquals(Arrays.asList(follows[1].getId(), follows[2].getId()),
+                ids(hub.query().labels("follows", "likes").orderBy("created_at", Order.ASC).limit(2).edges()));
+
+            SqlBulkLoader loader = new SqlBulkLoader(graph);
+            long loaded = loader.addEdge((Long) hub.getId(), (Long) follower.getId(), "follows");
+            loader.setEdgeProperty(loaded, "created_at", 1000L);
+            loader.close();
+            assertEquals(Collections.singletonList((Object) loaded),
+                ids(hub.query().labels("follows").orderBy("created_at", Order.DESC).limit(1).edges()));
+
+            graph.removeEdge(graph.getEdge(loaded));
+            graph.dropVertexCentricIndex("follows", "created_at", Direction.IN);
+            assertEquals(5, countVertexCentricIndexEntries(graph));
+            assertEquals(Arrays.asList(followed[0].getId(), follower.getId()),
+                ids(hub.query().direction(Direction.BOTH).labels("follows")
+                    .orderBy("created_at", Order.DESC).limit(2).vertices()));
+        } finally {
+            graph.shutdown();
+        }
+
+        //the indexes are persistent
+        graph = (SqlGraph) generateGraph();
+        try {
+            assertEquals(Collections.singleton(new VertexCentricIndexes.Definition(Direction.OUT, "follows",
+                "created_at")), graph.getVertexCentricIndexSet());
+        } finally {
+            graph.shutdown();
+            deleteDirectory(new File(getWorkingDirectory()));
+        }
+    }
+
+    public void testVertexCentricIndexesAreMaintainedByOtherGraphs() throws Exception {
+        SqlGraph graph = memoryGraph("otherIndexers;DB_CLOSE_DELAY=-1");
+        SqlGraph other = null;
+        try {
+            SqlVertex hub = (SqlVertex) graph.addVertex(null);
+            Edge first = graph.addEdge(null, hub, graph.addVertex(null), "follows");
+            first.setProperty("t", 1);
+            graph.commit();
+
+            //the other graph loads the declared indexes before the index is created
+            other = memoryGraph("otherIndexers");
+            assertTrue(other.getVertexCentricIndexSet().isEmpty());
+
+            graph.createVertexCentricIndex("follows", "t", Direction.OUT);
+
+            other.rollback();
+            Edge second = other.addEdge(null, other.getVertex(hub.getId()), other.addVertex(null), "follows");
+            second.setProperty("t", 5);
+            other.commit();
+
+            graph.commit();
+            assertEquals(Arrays.asList(second.getId(), first.getId()),
+                ids(hub.query().labels("follows").orderBy("t", Order.DESC).limit(10).edges()));
+            assertEquals(2, countVertexCentricIndexEntries(graph));
+        } finally {
+            if (other != null) {
+                other.shutdown();
+            }
+            graph.shutdown();
+        }
+    }
+
+    public void testAdjacencyIsReadInPages() throws Exception {
+        SqlGraph graph = memoryGraph("paged", "sql.adjacencyPageSize", 4);
+        try {
+            SqlVertex hub = (SqlVertex) graph.addVertex(null);
+            List<Object> expected = new ArrayList<>();
+            for (int i = 0; i < 10; ++i) {
+                Vertex v = graph.addVertex(null);
+                Edge e = graph.addEdge(null, hub, v, i % 2 == 0 ? "even" : "odd");
+                e.setProperty("i", i);
+                expected.add(e.getId());
+                graph.addEdge(null, v, hub, "in");
+            }
+            graph.addEdge(null, hub, hub, "even");
+
+            assertEquals(expected.subList(0, 9), ids(hub.query().has("i").limit(9).edges()));
+            assertEquals(6, count(hub.getEdges(Direction.OUT, "even")));
+            assertEquals(22, count(hub.getEdges(Direction.BOTH)));
+            assertEquals(22, count(hub.getVertices(Direction.BOTH)));
+            assertEquals(11, count(hub.getVertices(Direction.IN)));
+            assertEquals(2, count(hub.query().direction(Direction.BOTH).labels("odd").has("i", Compare.GREATER_THAN, 5)
+                .vertices()));
+
+            //each iterator starts over, the pages are read only as far as needed
+            Iterable<Edge> edges = hub.query().pageSize(3).edges();
+            assertEquals(expected.get(0), edges.iterator().next().getId());
+            assertEquals(11, count(edges));
+            assertEquals(11, count(hub.query().pageSize(0).edges()));
+
+            //not paged
+            assertEquals(expected.subList(0, 2), ids(hub.query().orderBy("i", Order.ASC).limit(2).edges()));
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testNeighborsExpandTheWholeFrontier() throws Exception {
+        SqlGraph graph = memoryGraph("neighbors", "sql.adjacencyPageSize", 100);
+        try {
+            Vertex sink = graph.addVertex(null);
+            long sinkId = (Long) sink.getId();
+
+            //more than fits a single chunk, with duplicates, each chunk read in several pages
+            long[] frontier = new long[1300];
+            Set<Neighbor> expected = new HashSet<>();
+            for (int i = 0; i < 650; ++i) {
+                Vertex v = graph.addVertex(null);
+                Edge e = graph.addEdge(null, v, sink, i % 2 == 0 ? "even" : "odd");
+                frontier[2 * i] = frontier[2 * i + 1] = (Long) v.getId();
+                if (i % 2 == 0) {
+                    expected.add(new Neighbor((Long) v.getId(), (Long) e.getId(), sinkId, "even"));
+                }
+            }
+            Edge loop = graph.addEdge(null, sink, sink, "even");
+
+            Set<Neighbor> actual = new HashSet<>();
+            int cnt = 0;
+            for (Neighbor n : graph.neighbors(frontier, Direction.OUT, "even")) {
+                actual.add(n);
+                cnt++;
+            }
+            assertEquals(325, cnt);
+            assertEquals(expected, actual);
+
+            assertEquals(650, count(graph.neighbors(frontier, Direction.OUT)));
+            assertEquals(0, count(graph.neighbors(frontier, Direction.IN)));
+            assertEquals(651, count(graph.neighbors(new long[]{sinkId}, Direction.IN)));
+            assertEquals(0, count(graph.neighbors(new long[0], Direction.BOTH)));
+
+            List<Neighbor> both = new ArrayList<>();
+            for (Neighbor n : graph.neighbors(new long[]{sinkId}, Direction.BOTH, "even")) {
+                both.add(n);
+            }
+            assertEquals(327, both.size());
+            Neighbor last = both.get(both.size() - 1);
+            assertEquals(new Neighbor(sinkId, (Long) loop.getId(), sinkId, "even"), last);
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testFilterCompilationsReturnTheSameResults() throws Exception {
+        for (String storage : new String[]{"legacy", "typed"}) {
+            SqlGraph join = memoryGraph("compilation-" + storage + ";DB_CLOSE_DELAY=-1", "sql.filterCompilation",
+                "join", "sql.propertyStorage", storage);
+            SqlGraph subquery = memoryGraph("compilation-" + storage + ";DB_CLOSE_DELAY=-1", "sql.filterCompilation",
+                "subquery", "sql.propertyStorage", storage);
+            try {
+                join.createKeyIndex("age", Vertex.class);
+                Vertex hub = join.addVertex(null);
+                for (int i = 0; i < 12; ++i) {
+                    Vertex v = join.addVertex(null);
+                    v.setProperty("age", i % 6);
+                    v.setProperty("name", "v" + i);
+                    v.setProperty("score", i * 0.5);
+                    if (i % 3 == 0) {
+                        v.setProperty("tag", "t");
+                    }
+                    //values of different types under the same key
+                    if (i % 4 != 3) {
+                        v.setProperty("mixed", i % 4 == 0 ? "s" : i % 4);
+                    }
+                    Edge e = join.addEdge(null, hub, v, "link");
+                    if (i % 2 == 0) {
+                        e.setProperty("weight", i);
+                    }
+                }
+                join.commit();
+
+                List<Set<Object>> joined = filteredIds(join, hub.getId());
+                assertEquals(storage, joined, filteredIds(subquery, hub.getId()));
+
+                assertEquals(2, joined.get(0).size());
+                assertEquals(1, joined.get(1).size());
+                assertEquals(9, joined.get(2).size());
+                assertEquals(4, joined.get(3).size());
+                assertEquals(3, joined.get(5).size());
+                assertEquals(10, joined.get(6).size());
+                assertEquals(10, joined.get(7).size());
+                assertEquals(0, joined.get(8).size());
+                assertEquals(13, joined.get(9).size());
+                assertEquals(0, joined.get(10).size());
+                assertEquals(3, joined.get(12).size());
+                assertEquals(6, joined.get(13).size());
+                assertEquals(4, joined.get(14).size());
+                assertEquals(6, joined.get(15).size());
+                assertEquals(6, joined.get(16).size());
+                assertEquals(3, joined.get(17).size());
+                assertEquals(0, joined.get(18).size());
+                assertEquals(9, joined.get(19).size());
+            } finally {
+                subquery.shutdown();
+                join.shutdown();
+            }
+        }
+    }
+
+    public void testRecursiveTraversalsRunInTheDatabase() throws Exception {
+        SqlGraph graph = memoryGraph("recursive");
+        try {
+            //a cycle 0 -> 1 -> 2 -> 3 -> 0 with a shortcut 0 -> 2 and a tail 3 -> 4 of a different label
+            long[] v = new long[6];
+            Vertex[] vertices = new Vertex[v.length];
+            for (int i = 0; i < v.length; ++i) {
+                vertices[i] = graph.addVertex(null);
+                v[i] = (Long) vertices[i].getId();
+            }
+            graph.addEdge(null, vertices[0], vertices[1], "next");
+            graph.addEdge(null, vertices[1], vertices[2], "next");
+            graph.addEdge(null, vertices[2], vertices[3], "next");
+            graph.addEdge(null, vertices[3], vertices[0], "next");
+            graph.addEdge(null, vertices[0], vertices[2], "next");
+            graph.addEdge(null, vertices[3], vertices[4], "it's");
+
+            assertTrue(Arrays.equals(new long[]{v[1], v[2], v[3], v[4]},
+                graph.verticesWithinDepth(v[0], 10, Direction.OUT)));
+            assertTrue(Arrays.equals(new long[]{v[1], v[2], v[3]},
+                graph.verticesWithinDepth(v[0], 10, Direction.OUT, "next")));
+            assertTrue(Arrays.equals(new long[]{v[1], v[2]}, graph.verticesWithinDepth(v[0], 1, Direction.OUT)));
+            assertTrue(Arrays.equals(new long[]{v[3]}, graph.verticesWithinDepth(v[0], 1, Direction.IN)));
+            assertTrue(Arrays.equals(new long[0], graph.verticesWithinDepth(v[5], 3, Direction.BOTH)));
+
+            assertTrue(Arrays.equals(new long[]{v[3]}, graph.verticesAtDepth(v[0], 2, Direction.OUT)));
+            assertTrue(Arrays.equals(new long[]{v[4]}, graph.verticesAtDepth(v[3], 1, Direction.OUT, "it's")));
+            assertTrue(Arrays.equals(new long[]{v[4]}, graph.verticesAtDepth(v[0], 2, Direction.BOTH)));
+            assertTrue(Arrays.equals(new long[]{v[0]}, graph.verticesAtDepth(v[0], 0, Direction.BOTH)));
+
+            assertTrue(graph.isReachable(v[0], v[4], 3, Direction.OUT));
+            assertFalse(graph.isReachable(v[0], v[4], 2, Direction.OUT));
+            assertTrue(graph.isReachable(v[4], v[1], 3, Direction.IN));
+            assertFalse(graph.isReachable(v[0], v[4], 10, Direction.OUT, "next"));
+            assertFalse(graph.isReachable(v[0], v[5], 10, Direction.BOTH));
+
+            //a complete graph, in which the number of the distinct walks explodes with the depth
+            long[] clique = new long[30];
+            Vertex[] cliqueVertices = new Vertex[clique.length];
+            for (int i = 0; i < clique.length; ++i) {
+                cliqueVertices[i] = graph.addVertex(null);
+                clique[i] = (Long) cliqueVertices[i].getId();
+                for (int j = 0; j < i; ++j) {
+                    graph.addEdge(null, cliqueVertices[j], cliqueVertices[i], "dense");
+                }
+            }
+            assertEquals(clique.length - 1, graph.verticesWithinDepth(clique[0], 8, Direction.BOTH, "dense").length);
+            assertEquals(0, graph.verticesAtDepth(clique[0], 2, Direction.BOTH, "dense").length);
+            assertFalse(graph.isReachable(clique[0], v[0], 8, Direction.BOTH));
+
+            //H2 runs the traversals level by level, so only the generated form of the recursive queries can be checked
+            RecursiveTraversals traversals = graph.traversals();
+            String anchor = "WITH RECURSIVE r(id, depth) AS (SELECT id, 0 FROM " + graph.getVerticesTableName()
+                + " WHERE id = ? UNION SELECT ";
+            String edges = ", r.depth + 1 FROM r JOIN " + graph.getEdgesTableName() + " e ON ";
+
+            List<Object> params = new ArrayList<>();
+            assertEquals(anchor + "e.vertex_in" + edges + "e.vertex_out = r.id WHERE r.depth < ? AND e.label IN (?, ?))"
+                + " SELECT id FROM r GROUP BY id HAVING MIN(depth) > 0 ORDER BY MIN(depth), id",
+                traversals.withinDepthQuery(v[0], 3, Direction.OUT, new String[]{"next", "it's"}, params));
+            assertEquals(Arrays.<Object>asList(v[0], 3, "next", "it's"), params);
+
+            params.clear();
+            assertEquals(anchor + "e.vertex_out" + edges + "e.vertex_in = r.id WHERE r.depth < ?)"
+                + " SELECT id FROM r GROUP BY id HAVING MIN(depth) = ? ORDER BY id",
+                traversals.atDepthQuery(v[0], 2, Direction.IN, new String[0], params));
+            assertEquals(Arrays.<Object>asList(v[0], 2, 2), params);
+
+            params.clear();
+            assertEquals(anchor + "CASE WHEN e.vertex_out = r.id THEN e.vertex_in ELSE e.vertex_out END" + edges
+                + "e.vertex_out = r.id OR e.vertex_in = r.id WHERE r.depth < ? AND e.label IN (?))"
+                + " SELECT 1 FROM r WHERE id = ? LIMIT 1",
+                traversals.isReachableQuery(v[0], v[4], 4, Direction.BOTH, new String[]{"next"}, params));
+            assertEquals(Arrays.<Object>asList(v[0], 4, "next", v[4]), params);
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testShortestPathIsSearchedFromBothEnds() throws Exception {
+        SqlGraph graph = memoryGraph("shortest");
+        try {
+            //a long chain 0 -> 1 -> ... -> 9 with a shortcut 2 -> 7 of a different label and a hub fanning out of 0
+            long[] v = new long[10];
+            long[] e = new long[v.length - 1];
+            Vertex[] vertices = new Vertex[v.length];
+            for (int i = 0; i < v.length; ++i) {
+                vertices[i] = graph.addVertex(null);
+                v[i] = (Long) vertices[i].getId();
+                if (i > 0) {
+                    e[i - 1] = (Long) graph.addEdge(null, vertices[i - 1], vertices[i], "next").getId();
+                }
+            }
+            long shortcut = (Long) graph.addEdge(null, vertices[2], vertices[7], "jump").getId();
+            for (int i = 0; i < 20; ++i) {
+                graph.addEdge(null, vertices[0], graph.addVertex(null), "next");
+            }
+
+            assertEquals(new Path(v, e), graph.shortestPath(v[0], v[9], 9, Direction.OUT, "next"));
+            assertNull(graph.shortestPath(v[0], v[9], 8, Direction.OUT, "next"));
+            assertEquals(new Path(new long[]{v[0], v[1], v[2], v[7], v[8], v[9]},
+                new long[]{e[0], e[1], shortcut, e[7], e[8]}), graph.shortestPath(v[0], v[9], 9, Direction.OUT));
+            assertEquals(new Path(new long[]{v[9], v[8], v[7], v[2]}, new long[]{e[8], e[7], shortcut}),
+                graph.shortestPath(v[9], v[2], 5, Direction.BOTH));
+            assertNull(graph.shortestPath(v[9], v[0], 10, Direction.OUT));
+            assertEquals(0, graph.shortestPath(v[3], v[3], 0, Direction.OUT).getLength());
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testIdsAreReadWithoutCreatingElements() throws Exception {
+        SqlGraph graph = memoryGraph("ids");
+        try {
+            SqlVertex hub = (SqlVertex) graph.addVertex(null);
+            List<Object> vertexIds = new ArrayList<>();
+            List<Object> edgeIds = new ArrayList<>();
+            vertexIds.add(hub.getId());
+            for (int i = 0; i < 5; ++i) {
+                Vertex v = graph.addVertex(null);
+                v.setProperty("i", i);
+                vertexIds.add(v.getId());
+                edgeIds.add(graph.addEdge(null, hub, v, "knows").getId());
+            }
+
+            long vertexRequests = graph.getVertexCacheStatistics().getRequestCount();
+            long edgeRequests = graph.getEdgeCacheStatistics().getRequestCount();
+
+            assertEquals(vertexIds, boxed(graph.vertexIds().toArray()));
+            assertEquals(edgeIds, boxed(graph.edgeIds().toArray()));
+            assertEquals(vertexIds.subList(1, 6), boxed(hub.query().vertexIds().toArray()));
+            assertEquals(edgeIds.subList(0, 2), boxed(hub.query().limit(2).edgeIds().toArray()));
+            assertEquals(vertexIds.subList(3, 6), boxed(graph.query().has("i", Compare.GREATER_THAN_EQUAL, 2)
+                .vertexIds().toArray()));
+            assertEquals(0, graph.query().has("i").edgeIds().toArray().length);
+
+            IdIterator it = hub.query().direction(Direction.BOTH).limit(3).vertexIds();
+            assertEquals(vertexIds.get(1), it.next());
+            it.close();
+            assertFalse(it.hasNext());
+
+            assertEquals(vertexRequests, graph.getVertexCacheStatistics().getRequestCount());
+            assertEquals(edgeRequests, graph.getEdgeCacheStatistics().getRequestCount());
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testAggregatesArePushedDown() throws Exception {
+        SqlGraph graph = memoryGraph("aggregates");
+        try {
+            SqlVertex hub = (SqlVertex) graph.addVertex(null);
+            for (int i = 0; i < 6; ++i) {
+                Vertex v = graph.addVertex(null);
+                v.setProperty("i", i);
+                v.setProperty("parity", i % 2 == 0 ? "even" : "odd");
+                Edge e = graph.addEdge(null, hub, v, i < 4 ? "knows" : "likes");
+                e.setProperty("weight", i * 10);
+            }
+            graph.addVertex(null).setProperty("i", "not a number");
+
+            assertEquals(8, graph.query().count(Vertex.class));
+            assertEquals(3, graph.query().has("i", Compare.GREATER_THAN_EQUAL, 3).count(Vertex.class));
+            assertEquals(2, graph.query().limit(2).count(Edge.class));
+            assertEquals(0.0, graph.query().min("i", Vertex.class));
+            assertEquals(5.0, graph.query().max("i", Vertex.class));
+            assertEquals(15.0, graph.query().sum("i", Vertex.class));
+            assertEquals(2.5, graph.query().avg("i", Vertex.class));
+            assertEquals(9.0, graph.query().has("parity", "odd").sum("i", Vertex.class));
+            assertNull(graph.query().max("missing", Vertex.class));
+
+            Map<Object, Long> parities = graph.query().groupCount("parity", Vertex.class);
+            assertEquals(2, parities.size());
+            assertEquals(Long.valueOf(3), parities.get("even"));
+            assertEquals(Long.valueOf(3), parities.get("odd"));
+
+            Map<Object, Long> labels = graph.query().groupCount("label", Edge.class);
+            assertEquals(Long.valueOf(4), labels.get("knows"));
+            assertEquals(Long.valueOf(2), labels.get("likes"));
+
+            assertEquals(6, hub.query().count());
+            assertEquals(4, hub.query().limit(4).count());
+            assertEquals(0, hub.query().direction(Direction.IN).count());
+            assertEquals(60.0, hub.query().labels("knows").sum("weight"));
+            assertEquals(45.0, hub.query().labels("likes").avg("weight"));
+            assertEquals(10.0, hub.query().has("weight", Compare.GREATER_THAN, 0).min("weight"));
+            assertEquals(40.0, hub.query().orderBy("weight", Order.DESC).limit(2).min("weight"));
+            assertEquals(Long.valueOf(4), hub.query().groupCount("label").get("knows"));
+            assertEquals(Long.valueOf(1), hub.query().direction(Direction.BOTH).groupCount("weight").get(30));
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testGraphQueriesArePagedByCursors() throws Exception {
+        SqlGraph graph = memoryGraph("cursors");
+        try {
+            graph.createKeyIndex("rank", Vertex.class);
+            List<Object> byRank = new ArrayList<>();
+            Vertex hub = graph.addVertex(null);
+            for (int i = 0; i < 10; ++i) {
+                Vertex v = graph.addVertex(null);
+                v.setProperty("rank", i / 2);
+                v.setProperty("group", i % 2);
+                byRank.add(v.getId());
+                graph.addEdge(null, hub, v, "l" + (9 - i));
+            }
+            graph.commit();
+
+            List<Object> read = new ArrayList<>();
+            String cursor = null;
+            for (int page = 0; page < 4; ++page) {
+                SqlGraphQuery query = graph.query().orderBy("rank", Order.ASC).after(cursor).limit(3);
+                Vertex last = null;
+                for (Vertex v : query.vertices()) {
+                    read.add(v.getId());
+                    last = v;
+                }
+                if (last != null) {
+                    cursor = query.cursor(last);
+                }
+            }
+            assertEquals(byRank, read);
+
+            //the ties are broken by the ids, in the same direction
+            List<Object> descending = new ArrayList<>(byRank);
+            Collections.reverse(descending);
+            assertEquals(descending.subList(0, 4), ids(graph.query().orderBy("rank", Order.DESC).limit(4).vertices()));
+            assertEquals(descending.subList(5, 8), ids(graph.query().orderBy("rank", Order.DESC)
+                .after(byRank.get(5) + ":l2").limit(3).vertices()));
+
+            List<Object> odd = Arrays.asList(byRank.get(1), byRank.get(3), byRank.get(5), byRank.get(7), byRank.get(9));
+            assertEquals(odd.subList(1, 5), ids(graph.query().has("group", 1).after(byRank.get(1).toString())
+                .vertices()));
+            assertEquals(odd.subList(2, 5), boxed(graph.query().has("group", 1).orderBy("id", Order.ASC)
+                .after(byRank.get(4).toString()).vertexIds().toArray()));
+
+            SqlGraphQuery labels = graph.query().orderBy("label", Order.ASC).limit(2);
+            List<Edge> edges = new ArrayList<>();
+            for (Edge e : labels.edges()) {
+                edges.add(e);
+            }
+            assertEquals("l0", edges.get(0).getLabel());
+            assertEquals("l1", edges.get(1).getLabel());
+            Edge next = graph.query().orderBy("label", Order.ASC).after(labels.cursor(edges.get(1))).limit(1).edges()
+                .iterator().next();
+            assertEquals("l2", next.getLabel());
+
+            assertEquals(7, graph.query().orderBy("rank", Order.ASC).after(byRank.get(2) + ":l1").count(Vertex.class));
+
+            //the ties of the longs that doubles can't tell apart and the booleans
+            List<Object> byBig = new ArrayList<>();
+            for (int i = 0; i < 4; ++i) {
+                Vertex v = graph.addVertex(null);
+                v.setProperty("big", (1L << 53) + 1 + i / 2);
+                v.setProperty("flag", i % 2 == 1);
+                byBig.add(v.getId());
+            }
+            graph.commit();
+            assertEquals(byBig, pageOneByOne(graph, "big"));
+            assertEquals(Arrays.asList(byBig.get(0), byBig.get(2), byBig.get(1), byBig.get(3)),
+                pageOneByOne(graph, "flag"));
+
+            try {
+                graph.query().orderBy("rank", Order.ASC).after("nonsense").vertices();
+                fail("An invalid cursor should have been rejected.");
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testProjectionsReadPropertiesWithoutCreatingElements() throws Exception {
+        SqlGraph graph = memoryGraph("projections");
+        try {
+            SqlVertex hub = (SqlVertex) graph.addVertex(null);
+            List<Object> ids = new ArrayList<>();
+            for (int i = 0; i < 5; ++i) {
+                Vertex v = graph.addVertex(null);
+                v.setProperty("name", "v" + i);
+                if (i != 2) {
+                    v.setProperty("score", i * 1.5);
+                }
+                ids.add(v.getId());
+                graph.addEdge(null, hub, v, i < 3 ? "knows" : "likes").setProperty("weight", i);
+            }
+            graph.addEdge(null, graph.getVertex(ids.get(4)), hub, "knows").setProperty("weight", 10);
+            graph.commit();
+
+            long vertexRequests = graph.getVertexCacheStatistics().getRequestCount();
+            long edgeRequests = graph.getEdgeCacheStatistics().getRequestCount();
+
+            List<Row> rows = rows(hub.query().labels("knows").select("name", "score"));
+            assertEquals(3, rows.size());
+            assertEquals(ids.get(0), rows.get(0).getId());
+            assertEquals(Arrays.asList("name", "score"), rows.get(0).getKeys());
+            assertEquals("v0", rows.get(0).get("name"));
+            assertEquals(0.0, rows.get(0).get(1));
+            assertEquals("v2", rows.get(2).get(0));
+            assertNull(rows.get(2).get("score"));
+
+            rows = rows(hub.query().orderBy("weight", Order.DESC).limit(2).select("name"));
+            assertEquals(2, rows.size());
+            assertEquals("v4", rows.get(0).get("name"));
+            assertEquals("v3", rows.get(1).get("name"));
+
+            rows = rows(hub.query().direction(Direction.BOTH).orderBy("weight", Order.DESC).limit(2).select("name"));
+            assertEquals(ids.get(4), rows.get(0).getId());
+            assertEquals(ids.get(4), rows.get(1).getId());
+
+            assertEquals(4, rows(hub.query().direction(Direction.BOTH).labels("knows").select()).size());
+            assertEquals(1, rows(hub.query().direction(Direction.IN).select("name")).size());
+
+            rows = rows(graph.query().has("score", Compare.GREATER_THAN, 2).select(Vertex.class, "score", "name"));
+            assertEquals(2, rows.size());
+            assertEquals(4.5, rows.get(0).get("score"));
+            assertEquals("v4", rows.get(1).get("name"));
+
+            rows = rows(graph.query().orderBy("weight", Order.DESC).limit(1).select(Edge.class, "weight"));
+            assertEquals(10, rows.get(0).get("weight"));
+
+            assertEquals(vertexRequests, graph.getVertexCacheStatistics().getRequestCount());
+            assertEquals(edgeRequests, graph.getEdgeCacheStatistics().getRequestCount());
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testTraversalsAreCompiledIntoSingleStatements() throws Exception {
+        SqlGraph graph = memoryGraph("traversals");
+        try {
+            SqlVertex me = (SqlVertex) graph.addVertex(null);
+            Vertex nl = graph.addVertex(null);
+            nl.setProperty("country", "NL");
+            Vertex be = graph.addVertex(null);
+            be.setProperty("country", "BE");
+
+            List<Object> friends = new ArrayList<>();
+            for (int i = 0; i < 4; ++i) {
+                Vertex friend = graph.addVertex(null);
+                friend.setProperty("age", 20 + i);
+                friends.add(friend.getId());
+                graph.addEdge(null, me, friend, "knows");
+                graph.addEdge(null, friend, i < 3 ? nl : be, "worksAt");
+            }
+            graph.commit();
+
+            long requests = graph.getStatementCacheStatistics().getRequestCount();
+            assertEquals(Collections.nCopies(3, nl.getId()), boxed(me.traverse().out("knows").out("worksAt")
+                .has("country", "NL").vertexIds().toArray()));
+            assertEquals(1, graph.getStatementCacheStatistics().getRequestCount() - requests);
+
+            assertEquals(Arrays.asList(nl.getId(), be.getId()), ids(me.traverse().out("knows")
+                .has("age", Compare.GREATER_THAN, 20).out("worksAt").dedup().vertices()));
+            assertEquals(6, me.traverse().out().out("worksAt").in("worksAt").has("age", Compare.LESS_THAN, 22)
+                .count());
+            assertEquals(new HashSet<>(friends), new HashSet<>(ids(me.traverse().out("knows").out("worksAt")
+                .dedup().in("worksAt").vertices())));
+            assertEquals(4, me.traverse().out("knows").out("worksAt").dedup().both().count());
+            assertEquals(2, me.traverse().out("knows").limit(2).count());
+            assertEquals(0, me.traverse().out("worksAt").count());
+            assertEquals(0, me.traverse().has("age").out().count());
+            assertEquals(Arrays.asList(me.getId()), ids(graph.traverse((Long) be.getId(), (Long) nl.getId())
+                .in("worksAt").in("knows").dedup().vertices()));
+            assertEquals(0, graph.traverse().out().count());
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    public void testLegacyPropertiesAreConvertedToTypedStorage() throws Exception {
+        StringBuilder longString = new StringBuilder();
+        while (longString.length() <= PropertyStorage.MAX_INDEXED_STRING_LENGTH) {
+            longString.append("long string ");
+        }
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("boolean", true);
+        values.put("character", 'c');
+        values.put("byte", (byte) 1);
+        values.put("short", (short) 2);
+        values.put("int", 3);
+        values.put("long", Long.MAX_VALUE);
+        values.put("float", 4.5f);
+        values.put("double", 5.5);
+        values.put("string", "string");
+        values.put("text", longString.toString());
+
+        SqlGraph legacy = memoryGraph("typed;DB_CLOSE_DELAY=-1");
+        Object id;
+        try {
+            Vertex v = legacy.addVertex(null);
+            for (Map.Entry<String, Object> e : values.entrySet()) {
+                v.setProperty(e.getKey(), e.getValue());
+            }
+            id = v.getId();
+            legacy.commit();
+        } finally {
+            legacy.shutdown();
+        }
+
+        SqlGraph graph = memoryGraph("typed;DB_CLOSE_DELAY=-1", "sql.propertyStorage", "typed");
+        try {
+            Vertex v = graph.getVertex(id);
+            for (Map.Entry<String, Object> e : values.entrySet()) {
+                assertEquals(e.getKey(), e.getValue(), v.getProperty(e.getKey()));
+                assertEquals(e.getKey(), 1, count(graph.query().has(e.getKey(), e.getValue()).vertices()));
+            }
+
+            assertEquals(1, count(graph.query().has("int", Compare.GREATER_THAN, 2.5).has("double", 5.5f)
+                .has("long", Contains.IN, Arrays.asList(1, Long.MAX_VALUE)).vertices()));
+            assertEquals(1, count(graph.query().interval("float", 4, 5).has("text", Compare.GREATER_THAN, "a")
+                .vertices()));
+            assertEquals(0, count(graph.query().has("string", Compare.NOT_EQUAL, "string").vertices()));
+
+            v.setProperty("int", "now a string");
+            graph.commit();
+            assertEquals(0, count(graph.query().has("int", 3).vertices()));
+            assertEquals(1, count(graph.query().has("int", "now a string").vertices()));
+        } finally {
+            graph.shutdown();
+        }
+
+        try {
+            memoryGraph("typed;DB_CLOSE_DELAY=-1", "sql.propertyStorage", "legacy").shutdown();
+            fail("The typed storage should not be converted back.");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    /**
+     * Runs the same filters, including the ones on the keys no element has, as the graph and vertex queries.
+     */
+    private static List<Set<Object>> filteredIds(SqlGraph graph, Object hubId) {
+        List<Iterable<? extends Element>> results = new ArrayList<>();
+        results.add(graph.query().has("age", 3).vertices());
+        results.add(graph.query().has("age", Compare.GREATER_THAN, 4).has("name", "v5").vertices());
+        results.add(graph.query().hasNot("tag").vertices());
+        results.add(graph.query().has("tag").vertices());
+        results.add(graph.query().hasNot("age", 3).vertices());
+        results.add(graph.query().has("name", Contains.IN, Arrays.asList("v1", "v2", "v3", "nope")).vertices());
+        results.add(graph.query().has("name", Contains.NOT_IN, Arrays.asList("v1", "v2")).vertices());
+        results.add(graph.query().interval("score", 0.5, 5.5).vertices());
+        results.add(graph.query().has("missing").vertices());
+        results.add(graph.query().hasNot("missing").vertices());
+        results.add(graph.query().has("missing", 1).vertices());
+        results.add(graph.query().hasNot("missing", 1).vertices());
+        results.add(graph.query().has("weight", Compare.LESS_THAN, 5).edges());
+        results.add(graph.query().hasNot("weight").edges());
+        results.add(graph.getVertex(hubId).query().has("weight", Compare.GREATER_THAN_EQUAL, 4).vertices());
+        results.add(graph.query().has("mixed", Contains.NOT_IN, Arrays.asList(2)).vertices());
+        results.add(graph.query().has("mixed", Contains.IN, Arrays.asList(1, "s")).vertices());
+        results.add(graph.query().has("mixed", Contains.NOT_IN, Arrays.asList(1, "s")).vertices());
+        results.add(graph.query().has("mixed", Contains.IN, Collections.emptyList()).vertices());
+        results.add(graph.query().has("mixed", Contains.NOT_IN, Collections.emptyList()).vertices());
+
+        List<Set<Object>> ret = new ArrayList<>();
+        for (Iterable<? extends Element> result : results) {
+            ret.add(new HashSet<>(ids(result)));
+        }
+        return ret;
+    }
+
+    private static List<Object> pageOneByOne(SqlGraph graph, String orderKey) {
+        List<Object> ret = new ArrayList<>();
+        String cursor = null;
+        while (true) {
+            SqlGraphQuery query = graph.query().orderBy(orderKey, Order.ASC).after(cursor).limit(1);
+            CloseableIterable<Vertex> vs = query.vertices();
+            Iterator<Vertex> it = vs.iterator();
+            if (!it.hasNext()) {
+                vs.close();
+                return ret;
+            }
+            Vertex v = it.next();
+            vs.close();
+            ret.add(v.getId());
+            cursor = query.cursor(v);
+        }
+    }
+
+    private static List<Row> rows(CloseableIterable<Row> iterable) {
+        List<Row> ret = new ArrayList<>();
+        for (Row row : iterable) {
+            ret.add(row);
+        }
+        iterable.close();
+        return ret;
+    }
+
+    private static List<Object> boxed(long[] ids) {
+        List<Object> ret = new ArrayList<>();
+        for (long id : ids) {
+            ret.add(id);
+        }
+        return ret;
+    }
+
+    private static List<Object> ids(Iterable<? extends Element> elements) {
+        List<Object> ret = new ArrayList<>();
+        for (Element e : elements) {
+            ret.add(e.getId());
+        }
+        return ret;
+    }
+
+    private static int countVertexCentricIndexEntries(SqlGraph graph) throws SQLException {
+        try (Statement st = graph.getConnection().createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM " + graph.getVertexCentricIndexTableName())) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
     @Override
     public Graph generateGraph() {
         return generateGraph(graphName);
@@ -90,7 +1461,7 @@ public class SqlGraphTest extends GraphTest {
     public Graph generateGraph(String graphName) {
         String path = getGraphPath(graphName);
         JdbcDataSource ds = new JdbcDataSource();
-        ds.setURL("jdbc:h2:" + path);
+        ds.setURL("jdbc:h2:" + path + ";FILE_LOCK=NO");
         SqlGraph g = new SqlGraph(ds);
         try {
             g.createSchemaIfNeeded();
@@ -101,6 +1472,31 @@ public class SqlGraphTest extends GraphTest {
         return g;
     }
 
+    /**
+     * Creates a graph with the schema in the in-memory H2 database of the provided name.
+     *
+     * @param name   the name of the database, optionally followed by the settings of the URL
+     * @param config the pairs of the keys and values of the additional configuration of the graph
+     */
+    private static SqlGraph memoryGraph(String name, Object... config) throws Exception {
+        Map<String, Object> cfg = new HashMap<>();
+        cfg.put("sql.datasource.class", JdbcDataSource.class.getName());
+        cfg.put("sql.datasource.URL", "jdbc:h2:mem:" + name);
+        for (int i = 0; i < config.length; i += 2) {
+            cfg.put((String) config[i], config[i + 1]);
+        }
+
+        SqlGraph g = new SqlGraph(cfg);
+        try {
+            g.createSchemaIfNeeded();
+        } catch (Exception e) {
+            g.shutdown();
+            throw e;
+        }
+
+        return g;
+    }
+
     public void doTestSuite(final TestSuite testSuite) throws Exception {
 
         for (Method method : testSuite.getClass().getDeclaredMethods()) {
@@ -0,0 +1,86 @@
+package com.tinkerpop.blueprints.impls.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Lukas Krejci
+ */
+public class StripedLruElementCacheTest extends TestCase {
+
+    public void testEvictsLeastRecentlyUsed() {
+        //16 segments with 1 entry each
+        StripedLruElementCache<String> cache = new StripedLruElementCache<>(16);
+
+        long first = 1;
+        long second = 1L << 32;
+
+        cache.put(first, "first");
+        assertEquals("first", cache.get(first));
+
+        for (long id = 0; id < 1000; ++id) {
+            cache.put(id, "v" + id);
+        }
+
+        CacheStatistics stats = cache.getStatistics();
+        assertEquals(16, stats.getSize());
+        assertTrue(stats.getEvictionCount() > 0);
+
+        cache.put(second, "second");
+        assertEquals("second", cache.get(second));
+        cache.remove(second);
+        assertNull(cache.get(second));
+    }
+
+    public void testFullSegmentKeepsAllEntries() {
+        //625 entries per segment
+        StripedLruElementCache<Long> cache = new StripedLruElementCache<>(10000);
+
+        List<Long> ids = new ArrayList<>();
+        for (long id = 0; ids.size() < 625; ++id) {
+            if (StripedLruElementCache.segmentIndex(id) == 3) {
+                ids.add(id);
+            }
+        }
+
+        for (long id : ids) {
+            cache.put(id, id);
+        }
+
+        for (long id : ids) {
+            assertEquals((Long) id, cache.get(id));
+        }
+
+        CacheStatistics stats = cache.getStatistics();
+        assertEquals(625, stats.getSize());
+        assertEquals(0, stats.getEvictionCount());
+        assertEquals(625, stats.getHitCount());
+
+        cache.remove(ids.get(0));
+        assertNull(cache.get(ids.get(0)));
+        assertEquals((Long) ids.get(624), cache.get(ids.get(624)));
+    }
+
+    public void testStatistics() {
+        StripedLruElementCache<String> cache = new StripedLruElementCache<>(100);
+        cache.put(1, "a");
+        cache.get(1);
+        cache.get(2);
+
+        CacheStatistics stats = cache.getStatistics();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(0.5, stats.getHitRate());
+
+        cache.clear();
+        assertEquals(0, cache.getStatistics().getSize());
+    }
+
+    public void testZeroSizeCachesNothing() {
+        StripedLruElementCache<String> cache = new StripedLruElementCache<>(0);
+        cache.put(1, "a");
+        assertNull(cache.get(1));
+    }
+}